@@ -0,0 +1,73 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.bench;
+
+import com.t_oster.liblasercut.BlackWhiteRaster;
+import com.t_oster.liblasercut.GreyscaleRaster;
+import com.t_oster.liblasercut.dithering.DitheringAlgorithm;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dithering of a 1000x1000 photo with each algorithm
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DitheringBenchmark
+{
+
+  @Param({"FLOYD_STEINBERG", "AVERAGE", "RANDOM", "ORDERED", "GRID"})
+  public String algorithm;
+  @Param({"1", "4"})
+  public int threads;
+  @Param({"photo", "lineart"})
+  public String image;
+  private GreyscaleRaster src;
+  private DitheringAlgorithm dither;
+
+  @Setup
+  public void setUp()
+  {
+    src = "photo".equals(image) ? Fixtures.createPhoto(1000, 1000) : Fixtures.createLineArt(1000, 1000);
+    dither = BlackWhiteRaster.getDitheringAlgorithm(BlackWhiteRaster.DitherAlgorithm.valueOf(algorithm));
+    dither.setThreads(threads);
+  }
+
+  @Benchmark
+  public BlackWhiteRaster dither()
+  {
+    return new BlackWhiteRaster(src, dither);
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.bench;
+
+import com.t_oster.liblasercut.BlackWhiteRaster;
+import com.t_oster.liblasercut.drivers.EpilogZing;
+import com.t_oster.liblasercut.drivers.LaosCutter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding of all lines of a dithered 2000x1500 image with the
+ * Epilog (PackBits) and LAOS (dwords) raster encoders
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EncoderBenchmark
+{
+
+  @Param({"photo", "lineart"})
+  public String image;
+  private byte[][] lines;
+  private List<List<Byte>> byteLists;
+  private byte[] encoded;
+  private int[] dwords;
+  private EpilogZing epilog;
+  private LaosCutter laos;
+
+  @Setup
+  public void setUp()
+  {
+    BlackWhiteRaster raster = Fixtures.dither("photo".equals(image)
+      ? Fixtures.createPhoto(2000, 1500) : Fixtures.createLineArt(2000, 1500));
+    lines = new byte[raster.getHeight()][raster.getBytesPerLine()];
+    byteLists = new ArrayList<List<Byte>>();
+    for (int y = 0; y < raster.getHeight(); y++)
+    {
+      raster.getLine(y, lines[y], 0);
+      List<Byte> list = new ArrayList<Byte>();
+      for (byte b : lines[y])
+      {
+        list.add(b);
+      }
+      byteLists.add(list);
+    }
+    encoded = new byte[EpilogZing.getMaxEncodedLength(raster.getBytesPerLine())];
+    dwords = new int[(raster.getBytesPerLine() + 3) / 4];
+    epilog = new EpilogZing();
+    laos = new LaosCutter();
+  }
+
+  @Benchmark
+  public int epilogEncode()
+  {
+    int result = 0;
+    for (byte[] line : lines)
+    {
+      result += epilog.encode(line, 0, line.length, encoded);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public void epilogEncodeList(Blackhole bh)
+  {
+    for (List<Byte> line : byteLists)
+    {
+      bh.consume(epilog.encode(line));
+    }
+  }
+
+  @Benchmark
+  public void laosDwords(Blackhole bh)
+  {
+    for (int y = 0; y < lines.length; y++)
+    {
+      bh.consume(laos.byteLineToDwords(lines[y], 0, lines[y].length, y % 2 == 0));
+    }
+  }
+
+  /**
+   * The allocation free variant, which the driver uses
+   */
+  @Benchmark
+  public int laosDwordsArray()
+  {
+    int result = 0;
+    for (int y = 0; y < lines.length; y++)
+    {
+      int count = laos.byteLineToDwords(lines[y], 0, lines[y].length, y % 2 == 0, dwords);
+      result += count + (count > 0 ? dwords[count - 1] : 0);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public void laosDwordsList(Blackhole bh)
+  {
+    for (int y = 0; y < lines.length; y++)
+    {
+      bh.consume(laos.byteLineToDwords(byteLists.get(y), y % 2 == 0));
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.bench;
+
+import com.t_oster.liblasercut.BlackWhiteRaster;
+import com.t_oster.liblasercut.ByteGreyscaleRaster;
+import com.t_oster.liblasercut.GreyscaleRaster;
+import com.t_oster.liblasercut.PowerSpeedFocusProperty;
+import com.t_oster.liblasercut.VectorPart;
+import java.util.Random;
+
+/**
+ * Generates the input data for the benchmarks. All generators use a
+ * fixed seed, so every run works on the same data.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class Fixtures
+{
+
+  private static final long SEED = 4711;
+
+  /**
+   * A photo like greyscale image: smooth gradients and soft blobs
+   * with some noise, so dithering has to do real work
+   */
+  public static ByteGreyscaleRaster createPhoto(int width, int height)
+  {
+    Random r = new Random(SEED);
+    ByteGreyscaleRaster result = new ByteGreyscaleRaster(width, height);
+    double[][] blobs = new double[12][];
+    for (int i = 0; i < blobs.length; i++)
+    {
+      blobs[i] = new double[]
+      {
+        r.nextDouble() * width, r.nextDouble() * height,
+        (0.05 + 0.2 * r.nextDouble()) * Math.min(width, height),
+        r.nextDouble() * 200 - 100
+      };
+    }
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        double v = 60 + 120.0 * x / width + 40 * Math.sin(y * 0.02);
+        for (double[] b : blobs)
+        {
+          double dx = x - b[0];
+          double dy = y - b[1];
+          v += b[3] * Math.exp(-(dx * dx + dy * dy) / (2 * b[2] * b[2]));
+        }
+        v += r.nextGaussian() * 6;
+        result.setGreyScale(x, y, (int) Math.max(0, Math.min(255, v)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * A synthetic greyscale image with text like structures: mostly white
+   * with black strokes, as typical for engravings
+   */
+  public static ByteGreyscaleRaster createLineArt(int width, int height)
+  {
+    Random r = new Random(SEED);
+    ByteGreyscaleRaster result = new ByteGreyscaleRaster(width, height);
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        result.setGreyScale(x, y, 255);
+      }
+    }
+    for (int i = 0; i < width * height / 2000; i++)
+    {
+      int x = r.nextInt(width);
+      int y = r.nextInt(height);
+      int w = 2 + r.nextInt(40);
+      int h = 2 + r.nextInt(40);
+      boolean horizontal = r.nextBoolean();
+      for (int dy = 0; dy < (horizontal ? 3 : h) && y + dy < height; dy++)
+      {
+        for (int dx = 0; dx < (horizontal ? w : 3) && x + dx < width; dx++)
+        {
+          result.setGreyScale(x + dx, y + dy, 0);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Dithers the given image with Floyd-Steinberg
+   */
+  public static BlackWhiteRaster dither(GreyscaleRaster src)
+  {
+    return new BlackWhiteRaster(src, BlackWhiteRaster.DitherAlgorithm.FLOYD_STEINBERG);
+  }
+
+  /**
+   * A vector part like a DXF import of nested parts: many closed polygons
+   * made of single segments, where neighbouring parts share edges
+   * (in both directions) and some segments overlap partially.
+   */
+  public static VectorPart createDxfSoup(int parts)
+  {
+    Random r = new Random(SEED);
+    VectorPart result = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    int columns = (int) Math.ceil(Math.sqrt(parts));
+    int size = 400;
+    for (int i = 0; i < parts; i++)
+    {
+      int x = (i % columns) * size;
+      int y = (i / columns) * size;
+      int[][] corners = new int[][]
+      {
+        {x, y}, {x + size, y}, {x + size, y + size}, {x, y + size}
+      };
+      for (int c = 0; c < corners.length; c++)
+      {
+        int[] a = corners[c];
+        int[] b = corners[(c + 1) % corners.length];
+        //split edges into several segments like CAD exports often do
+        int pieces = 1 + r.nextInt(3);
+        for (int p = 0; p < pieces; p++)
+        {
+          result.moveto(a[0] + (b[0] - a[0]) * p / pieces, a[1] + (b[1] - a[1]) * p / pieces);
+          result.lineto(a[0] + (b[0] - a[0]) * (p + 1) / pieces, a[1] + (b[1] - a[1]) * (p + 1) / pieces);
+        }
+      }
+      //some holes with polylines
+      int holes = r.nextInt(4);
+      for (int h = 0; h < holes; h++)
+      {
+        int cx = x + 50 + r.nextInt(size - 100);
+        int cy = y + 50 + r.nextInt(size - 100);
+        int radius = 5 + r.nextInt(40);
+        int steps = 8 + r.nextInt(24);
+        result.moveto(cx + radius, cy);
+        for (int s = 1; s <= steps; s++)
+        {
+          double a = 2 * Math.PI * s / steps;
+          result.lineto(cx + (int) Math.round(radius * Math.cos(a)), cy + (int) Math.round(radius * Math.sin(a)));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Random short segments scattered over the whole area
+   */
+  public static VectorPart createRandomSegments(int count, int range)
+  {
+    Random r = new Random(SEED);
+    VectorPart result = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    for (int i = 0; i < count; i++)
+    {
+      int x = r.nextInt(range);
+      int y = r.nextInt(range);
+      result.moveto(x, y);
+      result.lineto(x + r.nextInt(100) - 50, y + r.nextInt(100) - 50);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.bench;
+
+import com.t_oster.liblasercut.BlackWhiteRaster;
+import com.t_oster.liblasercut.PowerSpeedFocusProperty;
+import com.t_oster.liblasercut.RasterPart;
+import com.t_oster.liblasercut.platform.Point;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Pixel and line access on BlackWhiteRaster and RasterPart
+ * for a dithered 2000x1500 photo.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RasterBenchmark
+{
+
+  private BlackWhiteRaster raster;
+  private RasterPart part;
+  private byte[] line;
+
+  @Setup
+  public void setUp()
+  {
+    raster = Fixtures.dither(Fixtures.createPhoto(2000, 1500));
+    part = new RasterPart(raster, new PowerSpeedFocusProperty(), new Point(0, 0), 500);
+    line = new byte[raster.getBytesPerLine()];
+  }
+
+  @Benchmark
+  public int isBlack()
+  {
+    int count = 0;
+    for (int y = 0; y < raster.getHeight(); y++)
+    {
+      for (int x = 0; x < raster.getWidth(); x++)
+      {
+        if (raster.isBlack(x, y))
+        {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  @Benchmark
+  public BlackWhiteRaster setBlack()
+  {
+    BlackWhiteRaster result = new BlackWhiteRaster(raster.getWidth(), raster.getHeight());
+    for (int y = 0; y < result.getHeight(); y++)
+    {
+      for (int x = 0; x < result.getWidth(); x++)
+      {
+        result.setBlack(x, y, ((x ^ y) & 1) == 0);
+      }
+    }
+    return result;
+  }
+
+  @Benchmark
+  public int getByte()
+  {
+    int result = 0;
+    for (int y = 0; y < raster.getHeight(); y++)
+    {
+      for (int x = 0; x < raster.getBytesPerLine(); x++)
+      {
+        result += raster.getByte(x, y);
+      }
+    }
+    return result;
+  }
+
+  @Benchmark
+  public void getLine(Blackhole bh)
+  {
+    for (int y = 0; y < raster.getHeight(); y++)
+    {
+      raster.getLine(y, line, 0);
+      bh.consume(line);
+    }
+  }
+
+  @Benchmark
+  public void rasterPartLine(Blackhole bh)
+  {
+    for (int y = 0; y < part.getRasterHeight(); y++)
+    {
+      bh.consume(part.getRasterLine(y, line));
+    }
+  }
+
+  @Benchmark
+  public void rasterPartLineList(Blackhole bh)
+  {
+    for (int y = 0; y < part.getRasterHeight(); y++)
+    {
+      bh.consume(part.getRasterLine(y));
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.bench;
+
+import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.vectoroptimizers.TSPOptimizer;
+import com.t_oster.liblasercut.vectoroptimizers.VectorOptimizer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Optimizing DXF like vector parts with each order strategy
+ * (and the TSPOptimizer with a time limit of one second)
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VectorOptimizerBenchmark
+{
+
+  @Param({"FILE", "NEAREST", "INNER_FIRST", "SMALLEST_FIRST", "DELETE_DUPLICATE_PATHS", "TSP"})
+  public String strategy;
+  @Param({"500", "5000"})
+  public int parts;
+  @Param({"dxf", "random"})
+  public String input;
+  private VectorPart part;
+
+  @Setup
+  public void setUp()
+  {
+    part = "dxf".equals(input) ? Fixtures.createDxfSoup(parts) : Fixtures.createRandomSegments(10 * parts, 100000);
+  }
+
+  private VectorOptimizer createOptimizer()
+  {
+    if ("TSP".equals(strategy))
+    {
+      TSPOptimizer result = new TSPOptimizer();
+      result.setTimeLimit(1000);
+      return result;
+    }
+    return VectorOptimizer.create(VectorOptimizer.OrderStrategy.valueOf(strategy));
+  }
+
+  @Benchmark
+  public VectorPart optimize()
+  {
+    return createOptimizer().optimize(part);
+  }
+}
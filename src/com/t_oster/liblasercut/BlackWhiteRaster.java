@@ -37,7 +37,16 @@ public class BlackWhiteRaster extends TimeIntensiveOperation
   }
   private int width;
   private int height;
-  private byte[][] raster;
+  /**
+   * Number of longs used to store one line of the raster
+   */
+  private int wordsPerLine;
+  /**
+   * The pixels are stored row by row, each line occupying wordsPerLine
+   * consecutive longs. Inside a long the MSB is the left-most pixel, so
+   * the byte representation of a line can be read off the words in order.
+   */
+  private long[] raster;
 
   public static DitheringAlgorithm getDitheringAlgorithm(DitherAlgorithm alg)
   {
@@ -66,7 +75,8 @@ public class BlackWhiteRaster extends TimeIntensiveOperation
     }
     this.width = src.getWidth();
     this.height = src.getHeight();
-    raster = new byte[(src.getWidth() + 7) / 8][src.getHeight()];
+    this.wordsPerLine = (width + 63) / 64;
+    this.raster = new long[wordsPerLine * height];
     if (listener != null)
     {
       alg.addProgressListener(listener);
@@ -89,32 +99,67 @@ public class BlackWhiteRaster extends TimeIntensiveOperation
     this(src, alg, null);
   }
 
+  /**
+   * Creates a BlackWhiteRaster from the old column-major byte representation
+   * where raster[x][y] holds the pixels 8*x to 8*x+7 of line y.
+   * Bits of the last byte right of the raster width are ignored.
+   */
   public BlackWhiteRaster(int width, int height, byte[][] raster)
   {
-    this.width = width;
-    this.height = height;
-    this.raster = raster;
+    this(width, height);
+    for (int bx = 0; bx < raster.length && bx < getBytesPerLine(); bx++)
+    {
+      for (int y = 0; y < height; y++)
+      {
+        this.raster[y * wordsPerLine + bx / 8] |= (0xFFL & raster[bx][y]) << (56 - 8 * (bx % 8));
+      }
+    }
+    //nextBlack and isLineEmpty rely on the bits right of the width being 0
+    if (width % 64 != 0)
+    {
+      long mask = -1L << (64 - width % 64);
+      for (int y = 0; y < height; y++)
+      {
+        this.raster[y * wordsPerLine + wordsPerLine - 1] &= mask;
+      }
+    }
   }
 
   public BlackWhiteRaster(int width, int height)
+  {
+    this(width, height, true);
+  }
+
+  /**
+   * Constructor for subclasses, which keep the pixels in their own
+   * representation. If allocate is false, no bitmap is created and
+   * the subclass has to override all methods accessing the pixels.
+   */
+  protected BlackWhiteRaster(int width, int height, boolean allocate)
   {
     this.width = width;
     this.height = height;
-    this.raster = new byte[(width + 7) / 8][height];
+    this.wordsPerLine = (width + 63) / 64;
+    this.raster = allocate ? new long[wordsPerLine * height] : null;
   }
 
   public boolean isBlack(int x, int y)
   {
-    int bx = x / 8;
-    int ix = 7 - (x % 8);
-    return ((raster[bx][y] & 0xFF) & (int) Math.pow(2,ix)) != 0;
+    return (raster[y * wordsPerLine + (x >> 6)] << (x & 63)) < 0;
   }
 
   public void setBlack(int x, int y, boolean black)
   {
-    int bx = x / 8;
-    int ix = 7 - (x % 8);
-    raster[bx][y] = (byte) (((raster[bx][y] & 0xFF) & ~((int) Math.pow(2,ix))) | (black ? (int) Math.pow(2,ix) : 0 ));
+    int idx = y * wordsPerLine + (x >> 6);
+    long mask = Long.MIN_VALUE >>> (x & 63);
+    if (black)
+    {
+      raster[idx] |= mask;
+    }
+    else
+    {
+      raster[idx] &= ~mask;
+    }
   }
 
   /**
@@ -127,7 +172,242 @@ public class BlackWhiteRaster extends TimeIntensiveOperation
    */
   public byte getByte(int x, int y)
   {
-    return raster[x][y];
+    return (byte) (raster[y * wordsPerLine + (x >> 3)] >>> (56 - 8 * (x & 7)));
+  }
+
+  /**
+   * Returns 64 pixels of line y as one long. The MSB is the pixel 64*x,
+   * the LSB is the pixel 64*x+63. Pixels right of the raster width are 0.
+   * @param x the x index of the word, meaning 0 is the first 64 pixels
+   * @param y the y offset
+   * @return
+   */
+  public long getWord(int x, int y)
+  {
+    return raster[y * wordsPerLine + x];
+  }
+
+  /**
+   * Sets 64 pixels of line y at once. See getWord for the bit order.
+   * Bits right of the raster width are ignored.
+   * @param x the x index of the word
+   * @param y the y offset
+   * @param word
+   */
+  public void setWord(int x, int y, long word)
+  {
+    if (x == wordsPerLine - 1 && width % 64 != 0)
+    {
+      word &= -1L << (64 - width % 64);
+    }
+    raster[y * wordsPerLine + x] = word;
+  }
+
+  /**
+   * Returns the number of bytes needed to represent one line,
+   * which is the number of valid x values for getByte
+   * @return
+   */
+  public int getBytesPerLine()
+  {
+    return (width + 7) / 8;
+  }
+
+  /**
+   * Returns the number of longs needed to represent one line,
+   * which is the number of valid x values for getWord
+   * @return
+   */
+  public int getWordsPerLine()
+  {
+    return wordsPerLine;
+  }
+
+  /**
+   * Copies line y in the representation of getByte into the given array,
+   * which has to hold at least getBytesPerLine() bytes starting at offset.
+   * @param y the line
+   * @param target the array to fill
+   * @param offset the index in target where the first byte goes
+   */
+  public void getLine(int y, byte[] target, int offset)
+  {
+    int bytes = getBytesPerLine();
+    int idx = y * wordsPerLine;
+    for (int i = 0; i < bytes; i += 8)
+    {
+      long word = raster[idx++];
+      int n = Math.min(8, bytes - i);
+      for (int k = 0; k < n; k++)
+      {
+        target[offset + i + k] = (byte) (word >>> (56 - 8 * k));
+      }
+    }
+  }
+
+  /**
+   * Copies line y in the representation of getWord into the given array,
+   * which has to hold at least getWordsPerLine() longs starting at offset.
+   * @param y the line
+   * @param target the array to fill
+   * @param offset the index in target where the first word goes
+   */
+  public void getLineWords(int y, long[] target, int offset)
+  {
+    System.arraycopy(raster, y * wordsPerLine, target, offset, wordsPerLine);
+  }
+
+  /**
+   * Returns the index of the first byte of line y (see getByte)
+   * which is not 0, or -1 if the line is completely white
+   * @param y
+   * @return
+   */
+  public int getFirstNonZeroByte(int y)
+  {
+    int idx = y * wordsPerLine;
+    for (int wx = 0; wx < wordsPerLine; wx++)
+    {
+      long word = raster[idx + wx];
+      if (word != 0)
+      {
+        return wx * 8 + Long.numberOfLeadingZeros(word) / 8;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index of the last byte of line y (see getByte)
+   * which is not 0, or -1 if the line is completely white
+   * @param y
+   * @return
+   */
+  public int getLastNonZeroByte(int y)
+  {
+    int idx = y * wordsPerLine;
+    for (int wx = wordsPerLine - 1; wx >= 0; wx--)
+    {
+      long word = raster[idx + wx];
+      if (word != 0)
+      {
+        return wx * 8 + 7 - Long.numberOfTrailingZeros(word) / 8;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns true if line y contains no black pixel
+   * @param y
+   * @return
+   */
+  public boolean isLineEmpty(int y)
+  {
+    int idx = y * wordsPerLine;
+    for (int wx = 0; wx < wordsPerLine; wx++)
+    {
+      if (raster[idx + wx] != 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the x coordinate of the first black pixel of line y
+   * which is at x or right of it, or -1 if there is none.
+   * Together with nextWhite this iterates over the black spans of a line:
+   * <pre>
+   * for (int x = r.nextBlack(0, y); x >= 0; x = r.nextBlack(end, y))
+   * {
+   *   end = r.nextWhite(x, y);
+   *   //pixels x to end-1 are black
+   * }
+   * </pre>
+   * @param x the first pixel to look at (&gt;= 0)
+   * @param y the line
+   * @return
+   */
+  public int nextBlack(int x, int y)
+  {
+    if (x >= width)
+    {
+      return -1;
+    }
+    int idx = y * wordsPerLine;
+    int wx = x >> 6;
+    long word = raster[idx + wx] & (-1L >>> (x & 63));
+    while (word == 0)
+    {
+      if (++wx >= wordsPerLine)
+      {
+        return -1;
+      }
+      word = raster[idx + wx];
+    }
+    return wx * 64 + Long.numberOfLeadingZeros(word);
+  }
+
+  /**
+   * Returns the x coordinate of the first white pixel of line y
+   * which is at x or right of it, or getWidth() if there is none.
+   * See nextBlack.
+   * @param x the first pixel to look at (&gt;= 0)
+   * @param y the line
+   * @return
+   */
+  public int nextWhite(int x, int y)
+  {
+    if (x >= width)
+    {
+      return width;
+    }
+    int idx = y * wordsPerLine;
+    int wx = x >> 6;
+    long word = ~raster[idx + wx] & (-1L >>> (x & 63));
+    while (word == 0)
+    {
+      if (++wx >= wordsPerLine)
+      {
+        return width;
+      }
+      word = ~raster[idx + wx];
+    }
+    //the bits right of the width are 0, so this can point behind the line
+    return Math.min(width, wx * 64 + Long.numberOfLeadingZeros(word));
+  }
+
+  /**
+   * Writes the black spans of line y into target as pairs of start
+   * (inclusive) and end (exclusive) x coordinates. White gaps of at most
+   * bridge pixels between two spans are treated as black, so the spans
+   * around them are joined. target has to hold at least getWidth()+1 ints.
+   * @param y the line
+   * @param bridge the widest gap to join (0 joins nothing)
+   * @param target the array to fill
+   * @return the number of spans written to target
+   */
+  public int getBlackRuns(int y, int bridge, int[] target)
+  {
+    int count = 0;
+    for (int x = nextBlack(0, y); x >= 0;)
+    {
+      int end = nextWhite(x, y);
+      if (count > 0 && x - target[2 * count - 1] <= bridge)
+      {
+        target[2 * count - 1] = end;
+      }
+      else
+      {
+        target[2 * count] = x;
+        target[2 * count + 1] = end;
+        count++;
+      }
+      x = nextBlack(end, y);
+    }
+    return count;
   }
 
   public int getWidth()
@@ -0,0 +1,43 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut;
+
+/**
+ * A GreyscaleRaster which supports reading and writing whole rows at once.
+ * This avoids one (interface) call per pixel in the raster pipeline, so
+ * implementations should provide it whenever the pixels are stored in a way
+ * that allows efficient row access.
+ *
+ * Only the first getWidth() entries of the arrays are used.
+ * The byte variants store the grey value as (byte) grey, so
+ * 0xFF & b restores it.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public interface BulkGreyscaleRaster extends GreyscaleRaster
+{
+
+  public void getRow(int y, int[] dst);
+
+  public void getRow(int y, byte[] dst);
+
+  public void setRow(int y, int[] src);
+
+  public void setRow(int y, byte[] src);
+}
@@ -0,0 +1,119 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut;
+
+/**
+ * A GreyscaleRaster which keeps its pixels row by row in a plain byte array.
+ * Grey values are stored with 8 bit, so values outside 0..255 are truncated.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class ByteGreyscaleRaster implements BulkGreyscaleRaster
+{
+
+  private int width;
+  private int height;
+  private byte[] data;
+
+  /**
+   * Creates a new raster, where all pixels are black (0)
+   */
+  public ByteGreyscaleRaster(int width, int height)
+  {
+    this.width = width;
+    this.height = height;
+    this.data = new byte[width * height];
+  }
+
+  /**
+   * Creates a copy of the given raster
+   */
+  public ByteGreyscaleRaster(GreyscaleRaster src)
+  {
+    this(src.getWidth(), src.getHeight());
+    if (src instanceof BulkGreyscaleRaster)
+    {
+      byte[] row = new byte[width];
+      for (int y = 0; y < height; y++)
+      {
+        ((BulkGreyscaleRaster) src).getRow(y, row);
+        System.arraycopy(row, 0, data, y * width, width);
+      }
+    }
+    else
+    {
+      for (int y = 0; y < height; y++)
+      {
+        int offset = y * width;
+        for (int x = 0; x < width; x++)
+        {
+          data[offset + x] = (byte) src.getGreyScale(x, y);
+        }
+      }
+    }
+  }
+
+  public int getWidth()
+  {
+    return width;
+  }
+
+  public int getHeight()
+  {
+    return height;
+  }
+
+  public int getGreyScale(int x, int y)
+  {
+    return 0xFF & data[y * width + x];
+  }
+
+  public void setGreyScale(int x, int y, int grey)
+  {
+    data[y * width + x] = (byte) grey;
+  }
+
+  public void getRow(int y, int[] dst)
+  {
+    int offset = y * width;
+    for (int x = 0; x < width; x++)
+    {
+      dst[x] = 0xFF & data[offset + x];
+    }
+  }
+
+  public void getRow(int y, byte[] dst)
+  {
+    System.arraycopy(data, y * width, dst, 0, width);
+  }
+
+  public void setRow(int y, int[] src)
+  {
+    int offset = y * width;
+    for (int x = 0; x < width; x++)
+    {
+      data[offset + x] = (byte) src[x];
+    }
+  }
+
+  public void setRow(int y, byte[] src)
+  {
+    System.arraycopy(src, 0, data, y * width, width);
+  }
+}
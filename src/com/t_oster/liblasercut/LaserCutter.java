@@ -22,9 +22,15 @@
  */
 package com.t_oster.liblasercut;
 
+import com.t_oster.liblasercut.platform.AsciiCommandWriter;
 import com.t_oster.liblasercut.platform.Util;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -32,6 +38,28 @@ import java.util.List;
  */
 public abstract class LaserCutter implements Cloneable, Customizable {
 
+    private transient AsciiCommandWriter commandWriter;
+    private transient ExecutorService sendExecutor;
+
+    /**
+     * Returns the writer drivers use to format their ASCII commands.
+     * Override createCommandWriter to change the number format.
+     */
+    protected AsciiCommandWriter getCommandWriter() {
+        if (commandWriter == null) {
+            commandWriter = createCommandWriter();
+        }
+        return commandWriter;
+    }
+
+    /**
+     * Creates the writer returned by getCommandWriter. By default
+     * doubles are written like printf's %f.
+     */
+    protected AsciiCommandWriter createCommandWriter() {
+        return new AsciiCommandWriter();
+    }
+
     /**
      * Checks the given job. It throws exceptions if
      * - job size is bigger than laser bed size
@@ -79,6 +107,51 @@ public abstract class LaserCutter implements Cloneable, Customizable {
      */
     public abstract void sendJob(LaserJob job, ProgressListener pl, List<String> warnings) throws IllegalJobException, Exception;
 
+    /**
+     * Sends the job in the background and returns immediately.
+     * The job can be cancelled and its progress observed via
+     * the returned handle.
+     * @param job
+     * @param pl A ProgressListener to give feedback about the progress,
+     * may be null
+     */
+    public SendJobHandle sendJobAsync(LaserJob job, ProgressListener pl) {
+        SendJobHandle handle = new SendJobHandle(this, job);
+        if (pl != null) {
+            handle.addProgressListener(pl);
+        }
+        getSendExecutor().execute(handle.getTask());
+        return handle;
+    }
+
+    public SendJobHandle sendJobAsync(LaserJob job) {
+        return sendJobAsync(job, null);
+    }
+
+    /**
+     * Returns the executor sendJobAsync runs the jobs on. By default
+     * this is one daemon thread per cutter, so the jobs for one cutter
+     * are sent one after the other. The thread ends when there has
+     * been nothing to send for a minute.
+     */
+    protected synchronized ExecutorService getSendExecutor() {
+        if (sendExecutor == null) {
+            final String name = getModelName() + " sender";
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sendExecutor = executor;
+        }
+        return sendExecutor;
+    }
+
     /**
      * If you lasercutter supports autofocus, override this method,
      * to let programs like VisiCut know, that they don't need to focus.
@@ -115,14 +115,7 @@ public class LaserJob
       {
         if (p instanceof VectorPart)
         {
-          for (VectorCommand c : ((VectorPart) p).getCommandList())
-          {
-            if (c.getType().equals(VectorCommand.CmdType.LINETO) || c.getType().equals(VectorCommand.CmdType.MOVETO))
-            {
-              c.setX((int) (c.getX() - Util.mm2inch(startX)*p.getDPI()));
-              c.setY((int) (c.getY() - Util.mm2inch(startY)*p.getDPI()));
-            }
-          }
+          ((VectorPart) p).translate(Util.mm2inch(startX)*p.getDPI(), Util.mm2inch(startY)*p.getDPI());
         }
         else if (p instanceof RasterPart)
         {
@@ -94,10 +94,62 @@ public class Raster3dPart extends JobPart
   public List<Byte> getRasterLine(int line)
   {
     List<Byte> result = new LinkedList<Byte>();
-    for (int x = 0; x < image.getWidth(); x++)
+    for (byte b : getRasterLine(line, null))
     {
-      //TOTEST: Black white (byte converssion)
-      result.add((byte) image.getGreyScale(x, line));
+      result.add(b);
+    }
+    return result;
+  }
+
+  /**
+   * Copies one line of the given rasterpart into the given array and
+   * returns it. Every byte represents one pixel and the value corresponds
+   * to the raster power.
+   * If the array is null or shorter than getRasterWidth(), a new one
+   * is allocated, so callers should keep the returned array for the next line.
+   * Only the first getRasterWidth() bytes are written.
+   *
+   * @param line
+   * @param result
+   * @return
+   */
+  public byte[] getRasterLine(int line, byte[] result)
+  {
+    int width = image.getWidth();
+    if (result == null || result.length < width)
+    {
+      result = new byte[width];
+    }
+    if (image instanceof BulkGreyscaleRaster)
+    {
+      ((BulkGreyscaleRaster) image).getRow(line, result);
+    }
+    else
+    {
+      for (int x = 0; x < width; x++)
+      {
+        //TOTEST: Black white (byte converssion)
+        result[x] = (byte) image.getGreyScale(x, line);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Like getRasterLine(int, byte[]), but with 255-value for every pixel
+   *
+   * @param line
+   * @param result
+   * @return
+   */
+  public byte[] getInvertedRasterLine(int line, byte[] result)
+  {
+    result = getRasterLine(line, result);
+    int width = image.getWidth();
+    for (int x = 0; x < width; x++)
+    {
+      //same as 255 - grey for the lower 8 bit
+      result[x] = (byte) ~result[x];
     }
     return result;
   }
@@ -120,10 +172,9 @@ public class Raster3dPart extends JobPart
   public List<Byte> getInvertedRasterLine(int line)
   {
     List<Byte> result = new LinkedList<Byte>();
-    for (int x = 0; x < image.getWidth(); x++)
+    for (byte b : getInvertedRasterLine(line, null))
     {
-      //TOTEST: Black white (byte converssion)
-      result.add((byte) (255 - image.getGreyScale(x, line)));
+      result.add(b);
     }
     return result;
   }
@@ -93,18 +93,107 @@ public class RasterPart extends JobPart
   public List<Byte> getRasterLine(int line)
   {
     List<Byte> result = new LinkedList<Byte>();
-    for (int x = 0; x < (image.getWidth() + 7) / 8; x++)
+    for (byte b : getRasterLine(line, null))
     {
-      result.add(image.getByte(x, line));
+      result.add(b);
     }
     return result;
   }
 
+  /**
+   * Copies one line of the given rasterpart into the given array
+   * and returns it. Every byte represents 8 pixel (MSB is the left-most)
+   * and the bit is 1 when black or 0 when white.
+   * If the array is null or shorter than getBytesPerLine(), a new one
+   * is allocated, so callers should keep the returned array for the next line.
+   * Only the first getBytesPerLine() bytes are written.
+   * @param line
+   * @param result
+   * @return
+   */
+  public byte[] getRasterLine(int line, byte[] result)
+  {
+    if (result == null || result.length < image.getBytesPerLine())
+    {
+      result = new byte[image.getBytesPerLine()];
+    }
+    image.getLine(line, result, 0);
+    return result;
+  }
+
+  /**
+   * Returns the number of bytes in one line
+   * @return
+   */
+  public int getBytesPerLine()
+  {
+    return image.getBytesPerLine();
+  }
+
+  /**
+   * Returns the index of the first byte in the given line which is not 0
+   * or -1 if the line is empty
+   * @param line
+   * @return
+   */
+  public int getFirstNonZeroByte(int line)
+  {
+    return image.getFirstNonZeroByte(line);
+  }
+
+  /**
+   * Returns the index of the last byte in the given line which is not 0
+   * or -1 if the line is empty
+   * @param line
+   * @return
+   */
+  public int getLastNonZeroByte(int line)
+  {
+    return image.getLastNonZeroByte(line);
+  }
+
   public boolean isBlack(int x, int y)
   {
     return this.image.isBlack(x, y);
   }
 
+  /**
+   * Returns true if the given line contains no black pixel
+   * @param line
+   * @return
+   */
+  public boolean isLineEmpty(int line)
+  {
+    return image.isLineEmpty(line);
+  }
+
+  /**
+   * Returns the first black pixel in the given line at or right of x,
+   * or -1 if there is none. See BlackWhiteRaster.nextBlack
+   */
+  public int nextBlack(int x, int line)
+  {
+    return image.nextBlack(x, line);
+  }
+
+  /**
+   * Returns the first white pixel in the given line at or right of x,
+   * or the raster width if there is none. See BlackWhiteRaster.nextWhite
+   */
+  public int nextWhite(int x, int line)
+  {
+    return image.nextWhite(x, line);
+  }
+
+  /**
+   * Writes the black spans of the given line into target.
+   * See BlackWhiteRaster.getBlackRuns
+   */
+  public int getBlackRuns(int line, int bridge, int[] target)
+  {
+    return image.getBlackRuns(line, bridge, target);
+  }
+
   public int getRasterWidth()
   {
     return this.image.getWidth();
@@ -0,0 +1,398 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut;
+
+import com.t_oster.liblasercut.dithering.DitheringAlgorithm;
+
+/**
+ * A BlackWhiteRaster which stores every line as a sorted list of black
+ * spans instead of a bitmap. For mostly white content like logos or text
+ * this needs far less memory, and white lines and margins cost nothing.
+ * Every line is stored separately, so different lines may be written
+ * concurrently (e.g. by parallel dithering).
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class RunLengthBlackWhiteRaster extends BlackWhiteRaster
+{
+
+  private static final int[] EMPTY = new int[0];
+  /**
+   * spans[y] holds the black spans of line y as pairs of start
+   * (inclusive) and end (exclusive). The spans are sorted, do not
+   * overlap and do not touch each other.
+   */
+  private int[][] spans;
+  /**
+   * Number of spans used in each line
+   */
+  private int[] spanCount;
+  public RunLengthBlackWhiteRaster(int width, int height)
+  {
+    super(width, height, false);
+    this.spans = new int[height][];
+    this.spanCount = new int[height];
+    for (int y = 0; y < height; y++)
+    {
+      spans[y] = EMPTY;
+    }
+  }
+
+  public RunLengthBlackWhiteRaster(GreyscaleRaster src, DitheringAlgorithm alg, ProgressListener listener)
+  {
+    this(src.getWidth(), src.getHeight());
+    if (listener != null)
+    {
+      this.addProgressListener(listener);
+      alg.addProgressListener(listener);
+    }
+    alg.ditherDirect(src, this);
+  }
+
+  public RunLengthBlackWhiteRaster(GreyscaleRaster src, DitheringAlgorithm alg)
+  {
+    this(src, alg, null);
+  }
+
+  public RunLengthBlackWhiteRaster(GreyscaleRaster src, DitherAlgorithm dither_algorithm)
+  {
+    this(src, BlackWhiteRaster.getDitheringAlgorithm(dither_algorithm), null);
+  }
+
+  /**
+   * Creates a copy of the given raster
+   */
+  public RunLengthBlackWhiteRaster(BlackWhiteRaster src)
+  {
+    this(src.getWidth(), src.getHeight());
+    for (int y = 0; y < getHeight(); y++)
+    {
+      for (int x = src.nextBlack(0, y); x >= 0;)
+      {
+        int end = src.nextWhite(x, y);
+        appendSpan(y, x, end);
+        x = src.nextBlack(end, y);
+      }
+    }
+  }
+
+  private void appendSpan(int y, int start, int end)
+  {
+    int[] row = spans[y];
+    int n = spanCount[y];
+    if (2 * n + 2 > row.length)
+    {
+      row = grow(row, 2 * n + 2);
+      spans[y] = row;
+    }
+    row[2 * n] = start;
+    row[2 * n + 1] = end;
+    spanCount[y] = n + 1;
+  }
+
+  private static int[] grow(int[] row, int minLength)
+  {
+    int[] result = new int[Math.max(minLength, Math.max(4, 2 * row.length))];
+    System.arraycopy(row, 0, result, 0, row.length);
+    return result;
+  }
+
+  /**
+   * Returns the index of the first span in row which ends at or after v
+   */
+  private static int firstEndingAtOrAfter(int[] row, int n, int v)
+  {
+    int lo = 0;
+    int hi = n;
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (row[2 * mid + 1] < v)
+      {
+        lo = mid + 1;
+      }
+      else
+      {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the index of the first span in row which starts after v
+   */
+  private static int firstStartingAfter(int[] row, int n, int v)
+  {
+    int lo = 0;
+    int hi = n;
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (row[2 * mid] <= v)
+      {
+        lo = mid + 1;
+      }
+      else
+      {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Replaces the spans from to to-1 of line y by count (0 to 2) new
+   * spans [s0,e0) and [s1,e1)
+   */
+  private void replace(int y, int from, int to, int count, int s0, int e0, int s1, int e1)
+  {
+    int[] row = spans[y];
+    int n = spanCount[y];
+    int newN = n - (to - from) + count;
+    if (count != to - from)
+    {
+      if (2 * newN > row.length)
+      {
+        row = grow(row, 2 * newN);
+        spans[y] = row;
+      }
+      System.arraycopy(row, 2 * to, row, 2 * (from + count), 2 * (n - to));
+    }
+    if (count > 0)
+    {
+      row[2 * from] = s0;
+      row[2 * from + 1] = e0;
+    }
+    if (count > 1)
+    {
+      row[2 * from + 2] = s1;
+      row[2 * from + 3] = e1;
+    }
+    spanCount[y] = newN;
+  }
+
+  /**
+   * Sets the pixels from (inclusive) to to (exclusive) of line y
+   */
+  public void setSpan(int y, int from, int to, boolean black)
+  {
+    if (from >= to)
+    {
+      return;
+    }
+    int[] row = spans[y];
+    int n = spanCount[y];
+    if (black)
+    {
+      //all spans overlapping or touching [from,to) are merged into one
+      int i = firstEndingAtOrAfter(row, n, from);
+      int j = firstStartingAfter(row, n, to);
+      if (j == i + 1 && row[2 * i] <= from && row[2 * i + 1] >= to)
+      {
+        return;
+      }
+      int start = i < j ? Math.min(from, row[2 * i]) : from;
+      int end = i < j ? Math.max(to, row[2 * j - 1]) : to;
+      replace(y, i, j, 1, start, end, 0, 0);
+    }
+    else
+    {
+      //all spans overlapping [from,to) are cut
+      int i = firstEndingAtOrAfter(row, n, from + 1);
+      int j = firstStartingAfter(row, n, to - 1);
+      if (i >= j)
+      {
+        return;
+      }
+      boolean left = row[2 * i] < from;
+      boolean right = row[2 * j - 1] > to;
+      if (left && right)
+      {
+        replace(y, i, j, 2, row[2 * i], from, to, row[2 * j - 1]);
+      }
+      else if (left)
+      {
+        replace(y, i, j, 1, row[2 * i], from, 0, 0);
+      }
+      else if (right)
+      {
+        replace(y, i, j, 1, to, row[2 * j - 1], 0, 0);
+      }
+      else
+      {
+        replace(y, i, j, 0, 0, 0, 0, 0);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of black spans in line y
+   */
+  public int getSpanCount(int y)
+  {
+    return spanCount[y];
+  }
+
+  @Override
+  public boolean isBlack(int x, int y)
+  {
+    int[] row = spans[y];
+    int i = firstEndingAtOrAfter(row, spanCount[y], x + 1);
+    return i < spanCount[y] && row[2 * i] <= x;
+  }
+
+  @Override
+  public void setBlack(int x, int y, boolean black)
+  {
+    setSpan(y, x, x + 1, black);
+  }
+
+  /**
+   * Returns count (at most 64) pixels of line y starting at from as the
+   * highest bits of a long
+   */
+  private long getBits(int y, int from, int count)
+  {
+    int[] row = spans[y];
+    int n = spanCount[y];
+    int to = from + count;
+    long result = 0;
+    for (int i = firstEndingAtOrAfter(row, n, from + 1); i < n && row[2 * i] < to; i++)
+    {
+      int s = Math.max(from, row[2 * i]) - from;
+      int e = Math.min(to, row[2 * i + 1]) - from;
+      result |= (-1L >>> s) & ~(e == 64 ? 0 : -1L >>> e);
+    }
+    return result;
+  }
+
+  @Override
+  public byte getByte(int x, int y)
+  {
+    return (byte) (getBits(y, 8 * x, 8) >>> 56);
+  }
+
+  @Override
+  public long getWord(int x, int y)
+  {
+    return getBits(y, 64 * x, 64);
+  }
+
+  @Override
+  public void setWord(int x, int y, long word)
+  {
+    int from = 64 * x;
+    int to = Math.min(getWidth(), from + 64);
+    setSpan(y, from, to, false);
+    while (word != 0)
+    {
+      int s = Long.numberOfLeadingZeros(word);
+      long white = ~word & (-1L >>> s);
+      int e = white == 0 ? 64 : Long.numberOfLeadingZeros(white);
+      setSpan(y, Math.min(to, from + s), Math.min(to, from + e), true);
+      word = e == 64 ? 0 : word & (-1L >>> e);
+    }
+  }
+
+  @Override
+  public void getLine(int y, byte[] target, int offset)
+  {
+    int bytes = getBytesPerLine();
+    for (int i = 0; i < bytes; i++)
+    {
+      target[offset + i] = 0;
+    }
+    int[] row = spans[y];
+    for (int i = 0; i < spanCount[y]; i++)
+    {
+      int s = row[2 * i];
+      int e = row[2 * i + 1];
+      while (s < e)
+      {
+        int bit = s & 7;
+        int n = Math.min(8 - bit, e - s);
+        target[offset + (s >> 3)] |= (0xFF >>> bit) & ~(0xFF >>> (bit + n));
+        s += n;
+      }
+    }
+  }
+
+  @Override
+  public void getLineWords(int y, long[] target, int offset)
+  {
+    int words = getWordsPerLine();
+    for (int i = 0; i < words; i++)
+    {
+      target[offset + i] = 0;
+    }
+    int[] row = spans[y];
+    for (int i = 0; i < spanCount[y]; i++)
+    {
+      int s = row[2 * i];
+      int e = row[2 * i + 1];
+      while (s < e)
+      {
+        int bit = s & 63;
+        int n = Math.min(64 - bit, e - s);
+        target[offset + (s >> 6)] |= (-1L >>> bit) & ~(bit + n == 64 ? 0 : -1L >>> (bit + n));
+        s += n;
+      }
+    }
+  }
+
+  @Override
+  public int getFirstNonZeroByte(int y)
+  {
+    return spanCount[y] == 0 ? -1 : spans[y][0] >> 3;
+  }
+
+  @Override
+  public int getLastNonZeroByte(int y)
+  {
+    int n = spanCount[y];
+    return n == 0 ? -1 : (spans[y][2 * n - 1] - 1) >> 3;
+  }
+
+  @Override
+  public boolean isLineEmpty(int y)
+  {
+    return spanCount[y] == 0;
+  }
+
+  @Override
+  public int nextBlack(int x, int y)
+  {
+    int[] row = spans[y];
+    int i = firstEndingAtOrAfter(row, spanCount[y], x + 1);
+    return i < spanCount[y] ? Math.max(x, row[2 * i]) : -1;
+  }
+
+  @Override
+  public int nextWhite(int x, int y)
+  {
+    if (x >= getWidth())
+    {
+      return getWidth();
+    }
+    int[] row = spans[y];
+    int i = firstEndingAtOrAfter(row, spanCount[y], x + 1);
+    return i < spanCount[y] && row[2 * i] <= x ? row[2 * i + 1] : x;
+  }
+}
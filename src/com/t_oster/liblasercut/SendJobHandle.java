@@ -0,0 +1,214 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The handle of a job sent by LaserCutter.sendJobAsync.
+ * get() waits for the job and returns the warnings of the driver or
+ * throws an ExecutionException wrapping the exception of the driver.
+ * cancel(true) interrupts the sending thread, which aborts
+ * waiting for the cutter in all drivers using blocking
+ * calls which react to interruption: the socket connections of
+ * EpilogCutter, IModelaMill and LaosCutter (NioSocketTransport),
+ * LaosCutter's TFTP upload and Grbl while it waits for the replies
+ * of the board. Other drivers finish sending the job.
+ *
+ * The progress and task changes of the driver are forwarded to the
+ * registered ProgressListeners from the sending thread.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class SendJobHandle implements Future<List<String>>, ProgressListener
+{
+
+  private final LaserCutter cutter;
+  private final LaserJob job;
+  private final List<String> warnings = Collections.synchronizedList(new LinkedList<String>());
+  private final List<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+  private final List<Runnable> doneListeners = new ArrayList<Runnable>();
+  private final FutureTask<List<String>> future;
+  private volatile int progress = 0;
+  private volatile String taskName = "queued";
+  private boolean done = false;
+
+  SendJobHandle(final LaserCutter cutter, final LaserJob job)
+  {
+    this.cutter = cutter;
+    this.job = job;
+    this.future = new FutureTask<List<String>>(new Callable<List<String>>()
+    {
+      public List<String> call() throws Exception
+      {
+        cutter.sendJob(job, SendJobHandle.this, warnings);
+        return getWarnings();
+      }
+    })
+    {
+      @Override
+      protected void done()
+      {
+        fireDone();
+      }
+    };
+  }
+
+  /**
+   * Returns the Runnable which actually sends the job
+   */
+  Runnable getTask()
+  {
+    return future;
+  }
+
+  public LaserCutter getCutter()
+  {
+    return cutter;
+  }
+
+  public LaserJob getJob()
+  {
+    return job;
+  }
+
+  /**
+   * Returns the last progress reported by the driver in percent
+   */
+  public int getProgress()
+  {
+    return progress;
+  }
+
+  /**
+   * Returns the last task reported by the driver (e.g. "connecting"),
+   * or "queued" if the job has not been started yet
+   */
+  public String getTaskName()
+  {
+    return taskName;
+  }
+
+  /**
+   * Returns a copy of the warnings the driver reported so far
+   */
+  public List<String> getWarnings()
+  {
+    synchronized (warnings)
+    {
+      return new ArrayList<String>(warnings);
+    }
+  }
+
+  public void addProgressListener(ProgressListener l)
+  {
+    listeners.add(l);
+  }
+
+  public void removeProgressListener(ProgressListener l)
+  {
+    listeners.remove(l);
+  }
+
+  /**
+   * Adds a Runnable which is called once the job is finished, failed
+   * or cancelled. If this already happened, it is called immediately.
+   * It is called from the thread finishing the job, so it should not block.
+   */
+  public void addDoneListener(Runnable r)
+  {
+    synchronized (doneListeners)
+    {
+      if (!done)
+      {
+        doneListeners.add(r);
+        return;
+      }
+    }
+    r.run();
+  }
+
+  private void fireDone()
+  {
+    List<Runnable> toRun;
+    synchronized (doneListeners)
+    {
+      done = true;
+      toRun = new ArrayList<Runnable>(doneListeners);
+      doneListeners.clear();
+    }
+    for (Runnable r : toRun)
+    {
+      r.run();
+    }
+  }
+
+  public void progressChanged(Object source, int percent)
+  {
+    progress = percent;
+    for (ProgressListener l : listeners)
+    {
+      l.progressChanged(source, percent);
+    }
+  }
+
+  public void taskChanged(Object source, String taskName)
+  {
+    this.taskName = taskName;
+    for (ProgressListener l : listeners)
+    {
+      l.taskChanged(source, taskName);
+    }
+  }
+
+  public boolean cancel(boolean mayInterruptIfRunning)
+  {
+    return future.cancel(mayInterruptIfRunning);
+  }
+
+  public boolean isCancelled()
+  {
+    return future.isCancelled();
+  }
+
+  public boolean isDone()
+  {
+    return future.isDone();
+  }
+
+  public List<String> get() throws InterruptedException, ExecutionException
+  {
+    return future.get();
+  }
+
+  public List<String> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+  {
+    return future.get(timeout, unit);
+  }
+}
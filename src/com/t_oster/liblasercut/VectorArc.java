@@ -0,0 +1,73 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut;
+
+/**
+ * Marks a run of LINETO commands in a VectorPart as points on one
+ * circular arc. The arc starts at the point of the command before the
+ * run and ends at the point of the command with the index getEnd().
+ * Drivers, which can send arcs, use one arc command for the whole run,
+ * all others just use the lines.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class VectorArc
+{
+
+  private int end;
+  private double centerX;
+  private double centerY;
+  private boolean clockwise;
+
+  /**
+   * @param end the index of the last LINETO command of the arc
+   * @param centerX x coordinate of the center (in pixels)
+   * @param centerY y coordinate of the center (in pixels)
+   * @param clockwise the direction of the arc, if the x axis points
+   * to the right and the y axis up (i.e. G2 for coordinates, which are
+   * only scaled)
+   */
+  public VectorArc(int end, double centerX, double centerY, boolean clockwise)
+  {
+    this.end = end;
+    this.centerX = centerX;
+    this.centerY = centerY;
+    this.clockwise = clockwise;
+  }
+
+  public int getEnd()
+  {
+    return end;
+  }
+
+  public double getCenterX()
+  {
+    return centerX;
+  }
+
+  public double getCenterY()
+  {
+    return centerY;
+  }
+
+  public boolean isClockwise()
+  {
+    return clockwise;
+  }
+}
@@ -18,23 +18,40 @@
  **/
 package com.t_oster.liblasercut;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * A sequence of MOVETO, LINETO and SETPROPERTY commands.
+ * The commands are stored in primitive arrays (the type of each command
+ * and its coordinates) and can be read with the index based accessors
+ * like getCommandType(i) and getX(i) without creating any objects.
+ * getCommandList() is still available, but creates a copy of all commands.
+ * Runs of LINETO commands can additionally be marked as arcs (see VectorArc).
  *
  * @author Thomas Oster <thomas.oster@rwth-aachen.de>
  */
 public class VectorPart extends JobPart
 {
 
+  private static final VectorCommand.CmdType[] TYPES = VectorCommand.CmdType.values();
   private LaserProperty currentCuttingProperty;
   private int maxX;
   private int maxY;
   private int minX;
   private int minY;
   private double resolution = 500;
-  private List<VectorCommand> commands;
+  private int size = 0;
+  //ordinal of the CmdType of each command
+  private byte[] types = new byte[16];
+  //x and y of each command, for SETPROPERTY x is the index in properties
+  private int[] coords = new int[32];
+  private List<LaserProperty> properties = new ArrayList<LaserProperty>();
+  //arcs by the index of their first LINETO
+  private Map<Integer, VectorArc> arcs = new HashMap<Integer, VectorArc>();
 
   public VectorPart(LaserProperty initialProperty, double resolution)
   {
@@ -43,10 +60,8 @@ public class VectorPart extends JobPart
       throw new IllegalArgumentException("Initial Property must not be null");
     }
     this.resolution = resolution;
-    commands = new LinkedList<VectorCommand>();
     this.currentCuttingProperty = initialProperty;
-    commands.add(new VectorCommand(VectorCommand.CmdType.SETPROPERTY, initialProperty));
-
+    this.setProperty(initialProperty);
   }
 
   @Override
@@ -60,15 +75,181 @@ public class VectorPart extends JobPart
     return currentCuttingProperty;
   }
 
+  private void add(VectorCommand.CmdType type, int x, int y)
+  {
+    if (size == types.length)
+    {
+      byte[] t = new byte[2 * size];
+      System.arraycopy(types, 0, t, 0, size);
+      types = t;
+      int[] c = new int[4 * size];
+      System.arraycopy(coords, 0, c, 0, 2 * size);
+      coords = c;
+    }
+    types[size] = (byte) type.ordinal();
+    coords[2 * size] = x;
+    coords[2 * size + 1] = y;
+    size++;
+  }
+
   public void setProperty(LaserProperty cp)
   {
     this.currentCuttingProperty = cp;
-    commands.add(new VectorCommand(VectorCommand.CmdType.SETPROPERTY, cp));
+    properties.add(cp);
+    add(VectorCommand.CmdType.SETPROPERTY, properties.size() - 1, 0);
   }
 
+  /**
+   * Returns a copy of all commands. Use getCommandCount() and the index
+   * based accessors to avoid creating a VectorCommand for each command.
+   */
   public VectorCommand[] getCommandList()
   {
-    return commands.toArray(new VectorCommand[0]);
+    VectorCommand[] result = new VectorCommand[size];
+    for (int i = 0; i < size; i++)
+    {
+      result[i] = getCommand(i);
+    }
+    return result;
+  }
+
+  public VectorCommand getCommand(int i)
+  {
+    VectorCommand.CmdType type = getCommandType(i);
+    if (type == VectorCommand.CmdType.SETPROPERTY)
+    {
+      return new VectorCommand(type, getProperty(i));
+    }
+    return new VectorCommand(type, getX(i), getY(i));
+  }
+
+  public int getCommandCount()
+  {
+    return size;
+  }
+
+  public VectorCommand.CmdType getCommandType(int i)
+  {
+    if (i >= size)
+    {
+      throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+    }
+    return TYPES[types[i]];
+  }
+
+  /**
+   * Returns the x coordinate of the i-th command,
+   * which has to be a MOVETO or LINETO
+   */
+  public int getX(int i)
+  {
+    if (getCommandType(i) == VectorCommand.CmdType.SETPROPERTY)
+    {
+      throw new UnsupportedOperationException("getX not supported for SETPROPERTY");
+    }
+    return coords[2 * i];
+  }
+
+  /**
+   * Returns the y coordinate of the i-th command,
+   * which has to be a MOVETO or LINETO
+   */
+  public int getY(int i)
+  {
+    if (getCommandType(i) == VectorCommand.CmdType.SETPROPERTY)
+    {
+      throw new UnsupportedOperationException("getY not supported for SETPROPERTY");
+    }
+    return coords[2 * i + 1];
+  }
+
+  /**
+   * Returns the property of the i-th command,
+   * which has to be a SETPROPERTY
+   */
+  public LaserProperty getProperty(int i)
+  {
+    if (getCommandType(i) != VectorCommand.CmdType.SETPROPERTY)
+    {
+      throw new UnsupportedOperationException("Only valid for PROPERTY");
+    }
+    return properties.get(coords[2 * i]);
+  }
+
+  /**
+   * Marks the LINETO commands from i to arc.getEnd() as points on
+   * a circular arc. The command before i has to be a MOVETO or LINETO,
+   * its point is the start of the arc.
+   */
+  public void setArc(int i, VectorArc arc)
+  {
+    if (i < 1 || arc.getEnd() < i || arc.getEnd() >= size
+      || getCommandType(i - 1) == VectorCommand.CmdType.SETPROPERTY)
+    {
+      throw new IllegalArgumentException("Invalid arc from " + i + " to " + arc.getEnd());
+    }
+    for (int j = i; j <= arc.getEnd(); j++)
+    {
+      if (getCommandType(j) != VectorCommand.CmdType.LINETO)
+      {
+        throw new IllegalArgumentException("Arcs can only contain LINETO commands");
+      }
+    }
+    arcs.put(i, arc);
+  }
+
+  /**
+   * Returns the arc, which starts with the i-th command,
+   * or null if there is none
+   */
+  public VectorArc getArc(int i)
+  {
+    return arcs.isEmpty() ? null : arcs.get(i);
+  }
+
+  /**
+   * Returns all arcs by the index of their first LINETO
+   */
+  public Map<Integer, VectorArc> getArcs()
+  {
+    return Collections.unmodifiableMap(arcs);
+  }
+
+  public boolean hasArcs()
+  {
+    return !arcs.isEmpty();
+  }
+
+  public void clearArcs()
+  {
+    arcs.clear();
+  }
+
+  /**
+   * Moves all MOVETO and LINETO commands by (-dx,-dy). The results
+   * are truncated to int. The bounding box is not changed.
+   */
+  void translate(double dx, double dy)
+  {
+    for (Map.Entry<Integer, VectorArc> e : arcs.entrySet())
+    {
+      //move the center like the end point, so the radius stays the same
+      VectorArc a = e.getValue();
+      int x = coords[2 * a.getEnd()];
+      int y = coords[2 * a.getEnd() + 1];
+      e.setValue(new VectorArc(a.getEnd(),
+        a.getCenterX() + (int) (x - dx) - x,
+        a.getCenterY() + (int) (y - dy) - y,
+        a.isClockwise()));
+    }
+    for (int i = 0; i < size; i++)
+    {
+      if (types[i] != VectorCommand.CmdType.SETPROPERTY.ordinal())
+      {
+        coords[2 * i] = (int) (coords[2 * i] - dx);
+        coords[2 * i + 1] = (int) (coords[2 * i + 1] - dy);
+      }
+    }
   }
 
   private void checkMin(int x, int y)
@@ -97,14 +278,14 @@ public class VectorPart extends JobPart
 
   public void moveto(int x, int y)
   {
-    commands.add(new VectorCommand(VectorCommand.CmdType.MOVETO, x, y));
+    add(VectorCommand.CmdType.MOVETO, x, y);
     checkMin(x, y);
     checkMax(x, y);
   }
 
   public void lineto(int x, int y)
   {
-    commands.add(new VectorCommand(VectorCommand.CmdType.LINETO, x, y));
+    add(VectorCommand.CmdType.LINETO, x, y);
     checkMin(x, y);
     checkMax(x, y);
   }
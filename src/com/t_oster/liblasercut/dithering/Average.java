@@ -20,6 +20,7 @@ package com.t_oster.liblasercut.dithering;
 
 import com.t_oster.liblasercut.BlackWhiteRaster;
 import com.t_oster.liblasercut.GreyscaleRaster;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -29,36 +30,53 @@ public class Average extends  DitheringAlgorithm
 {
 
   @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target)
+  protected void doDithering(final GreyscaleRaster src, final BlackWhiteRaster target)
   {
-    long lumTotal = 0;
-    int pixelcount = 0;
-    int width = src.getWidth();
+    final AtomicLong lumTotal = new AtomicLong();
+    final int width = src.getWidth();
     int height = src.getHeight();
 
-    for (int y = 0; y < height; y++)
+    processBands(target, height, 0, 50, new Band()
     {
-      for (int x = 0; x < width; x++)
+      public void process(int fromY, int toY)
       {
-        lumTotal += src.getGreyScale(x, y);
+        long sum = 0;
+        int[] row = new int[width];
+        for (int y = fromY; y < toY; y++)
+        {
+          getRow(src, y, row);
+          for (int x = 0; x < width; x++)
+          {
+            sum += row[x];
+          }
+        }
+        lumTotal.addAndGet(sum);
       }
-      setProgress((100 * pixelcount++) / (2 * height));
-    }
+    });
 
-    int thresh = (int) (lumTotal / height / width);
-    for (int y = 0; y < height; y++)
+    final int thresh = (int) (lumTotal.get() / height / width);
+    processBands(target, height, 50, 100, new Band()
     {
-      for (int x = 0; x < width; x++)
+      public void process(int fromY, int toY)
       {
-        this.setBlack(src, target, x, y, src.getGreyScale(x, y) < thresh);
+        int[] row = new int[width];
+        for (int y = fromY; y < toY; y++)
+        {
+          getRow(src, y, row);
+          for (int x = 0; x < width; x++)
+          {
+            setBlack(src, target, x, y, row[x] < thresh);
+          }
+        }
       }
-      setProgress((100 * pixelcount++) / (2 * height));
-    }
+    });
   }
 
   @Override
   public DitheringAlgorithm clone() {
-    return new Average();
+    Average clone = new Average();
+    clone.setThreads(getThreads());
+    return clone;
   }
 
   @Override
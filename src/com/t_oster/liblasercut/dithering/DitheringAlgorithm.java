@@ -19,11 +19,21 @@
 package com.t_oster.liblasercut.dithering;
 
 import com.t_oster.liblasercut.BlackWhiteRaster;
+import com.t_oster.liblasercut.BulkGreyscaleRaster;
 import com.t_oster.liblasercut.Customizable;
 import com.t_oster.liblasercut.GreyscaleRaster;
 import com.t_oster.liblasercut.TimeIntensiveOperation;
 import com.t_oster.liblasercut.platform.Util;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -32,6 +42,136 @@ import java.util.Arrays;
 public abstract class DitheringAlgorithm extends TimeIntensiveOperation implements Customizable, Cloneable
 {
 
+  /**
+   * A range of rows, which can be dithered independently of all other rows
+   */
+  protected interface Band
+  {
+    void process(int fromY, int toY);
+  }
+
+  private int threads = 1;
+
+  /**
+   * Sets the number of threads used for dithering into a BlackWhiteRaster.
+   * The result is exactly the same as with one thread.
+   * Dithering directly into the source raster is always done in one thread,
+   * since GreyscaleRaster implementations are not required to support
+   * concurrent writes.
+   */
+  public void setThreads(int threads)
+  {
+    this.threads = Math.max(1, threads);
+  }
+
+  public int getThreads()
+  {
+    return threads;
+  }
+
+  /**
+   * Returns true if the dithering of an image with the given height
+   * into target should be split across multiple threads
+   */
+  protected boolean isParallel(BlackWhiteRaster target, int height)
+  {
+    return threads > 1 && target != null && height > 1;
+  }
+
+  /**
+   * Calls band.process for all rows from 0 to height-1 and updates the
+   * progress from progressFrom to progressTo. If isParallel(target, height)
+   * the bands are processed in parallel, otherwise one after the other.
+   */
+  protected void processBands(BlackWhiteRaster target, int height, int progressFrom, int progressTo, final Band band)
+  {
+    if (!isParallel(target, height))
+    {
+      //bands of about 1% of the image, so the progress is still updated often
+      int bandHeight = Math.max(1, height / 100);
+      for (int y = 0; y < height; y += bandHeight)
+      {
+        int toY = Math.min(height, y + bandHeight);
+        band.process(y, toY);
+        setProgress(progressFrom + (progressTo - progressFrom) * toY / height);
+      }
+      return;
+    }
+    //more bands than threads, so a slow band does not stall the others
+    final int bandHeight = Math.max(1, (height + 4 * threads - 1) / (4 * threads));
+    final AtomicInteger rowsDone = new AtomicInteger();
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (int y = 0; y < height; y += bandHeight)
+    {
+      final int fromY = y;
+      final int toY = Math.min(height, y + bandHeight);
+      tasks.add(new Runnable()
+      {
+        public void run()
+        {
+          band.process(fromY, toY);
+          rowsDone.addAndGet(toY - fromY);
+        }
+      });
+    }
+    runParallel(tasks, rowsDone, height, progressFrom, progressTo);
+  }
+
+  /**
+   * Runs the given tasks on getThreads() threads and waits until all of them
+   * are finished. Meanwhile the progress is updated from the calling thread
+   * according to rowsDone. If one task fails, all others are interrupted.
+   */
+  protected void runParallel(List<Runnable> tasks, AtomicInteger rowsDone, int height, int progressFrom, int progressTo)
+  {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+    try
+    {
+      List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+      for (Runnable r : tasks)
+      {
+        futures.add(executor.submit(r));
+      }
+      for (Future<?> f : futures)
+      {
+        while (true)
+        {
+          try
+          {
+            f.get(100, TimeUnit.MILLISECONDS);
+            break;
+          }
+          catch (TimeoutException e)
+          {
+            setProgress(progressFrom + (progressTo - progressFrom) * rowsDone.get() / height);
+          }
+        }
+      }
+      setProgress(progressTo);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Dithering was interrupted", e);
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error)
+      {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
   protected void setBlack(GreyscaleRaster src, BlackWhiteRaster target, int x, int y, boolean black)
   {
     if (target != null)
@@ -44,6 +184,26 @@ public abstract class DitheringAlgorithm extends TimeIntensiveOperation implemen
     }
   }
 
+  /**
+   * Copies the grey values of row y of src into row.
+   * Uses the bulk access if src is a BulkGreyscaleRaster.
+   */
+  protected void getRow(GreyscaleRaster src, int y, int[] row)
+  {
+    if (src instanceof BulkGreyscaleRaster)
+    {
+      ((BulkGreyscaleRaster) src).getRow(y, row);
+    }
+    else
+    {
+      int width = src.getWidth();
+      for (int x = 0; x < width; x++)
+      {
+        row[x] = src.getGreyScale(x, y);
+      }
+    }
+  }
+
   public BlackWhiteRaster dither(GreyscaleRaster input)
   {
     BlackWhiteRaster target = new BlackWhiteRaster(input.getWidth(), input.getHeight());
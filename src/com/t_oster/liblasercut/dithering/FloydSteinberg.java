@@ -20,6 +20,10 @@ package com.t_oster.liblasercut.dithering;
 
 import com.t_oster.liblasercut.BlackWhiteRaster;
 import com.t_oster.liblasercut.GreyscaleRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  *
@@ -31,58 +35,136 @@ public class FloydSteinberg extends DitheringAlgorithm
   @Override
   protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target)
   {
-    int pixelcount = 0;
+    if (isParallel(target, src.getHeight()))
+    {
+      doParallelDithering(src, target);
+      return;
+    }
+    int width = src.getWidth();
+    int height = src.getHeight();
     /**
      * We have to copy the input image, because we will
      * alter the pixels during dither process and don't want
      * to destroy the input image
      */
-    int[][] input = new int[src.getWidth()][2];
-    for (int x = 0; x < src.getWidth(); x++)
+    int[][] lines = new int[2][width];
+    getRow(src, 0, lines[0]);
+    for (int y = 0; y < height; y++)
     {
-      input[x][1] = src.getGreyScale(x, 0);
+      int[] next = y + 1 < height ? lines[(y + 1) % 2] : null;
+      ditherRow(src, target, y, lines[y % 2], next, null);
+      setProgress((100 * y) / height);
     }
-    for (int y = 0; y < src.getHeight(); y++)
+  }
+
+  /**
+   * Every row diffuses its error into the next row, so the rows can not
+   * be split into independent bands. Instead the rows are distributed
+   * round robin to the threads and each row follows the row above with
+   * a lag of a few pixels (wavefront). Since all error terms are computed
+   * exactly as in the serial version, the result is identical.
+   */
+  private void doParallelDithering(final GreyscaleRaster src, final BlackWhiteRaster target)
+  {
+    final int width = src.getWidth();
+    final int height = src.getHeight();
+    final int threads = Math.min(getThreads(), height);
+    //row y is dithered in lines[y % lines.length] and diffuses into
+    //the following line. A line is reused when its row is finished,
+    //which is guaranteed since the same thread dithered it.
+    final int[][] lines = new int[threads + 1][width];
+    //number of finished pixels for every row
+    final AtomicIntegerArray done = new AtomicIntegerArray(height);
+    final AtomicInteger rowsDone = new AtomicInteger();
+    getRow(src, 0, lines[0]);
+    List<Runnable> tasks = new ArrayList<Runnable>(threads);
+    for (int t = 0; t < threads; t++)
     {
-      // copy lower line to upper line
-      // and read in next line from picture
-      for (int x = 0; x < input.length; x++)
+      final int firstRow = t;
+      tasks.add(new Runnable()
       {
-        input[x][0] = input[x][1];
-        if (y + 1 < src.getHeight())
+        public void run()
         {
-          input[x][1] = (src.getGreyScale(x, y + 1));
+          for (int y = firstRow; y < height; y += threads)
+          {
+            int[] next = y + 1 < height ? lines[(y + 1) % lines.length] : null;
+            ditherRow(src, target, y, lines[y % lines.length], next, done);
+            rowsDone.incrementAndGet();
+          }
         }
-      }
+      });
+    }
+    runParallel(tasks, rowsDone, height, 0, 100);
+  }
 
-      for (int x = 0; x < input.length; x++)
+  private void ditherRow(GreyscaleRaster src, BlackWhiteRaster target, int y, int[] current, int[] next, AtomicIntegerArray done)
+  {
+    int width = current.length;
+    if (next != null)
+    {
+      getRow(src, y + 1, next);
+    }
+    int x = 0;
+    while (x < width)
+    {
+      int limit = width;
+      if (done != null)
+      {
+        if (y > 0)
+        {
+          //the row above diffuses into x-1..x+1 of this row, and we
+          //write into x+1, so it has to be done up to x+2
+          int above = done.get(y - 1);
+          while (above < width && above < x + 3)
+          {
+            if (Thread.currentThread().isInterrupted())
+            {
+              throw new RuntimeException("Dithering was interrupted");
+            }
+            Thread.yield();
+            above = done.get(y - 1);
+          }
+          if (above < width)
+          {
+            limit = above - 2;
+          }
+        }
+        //publish the progress regularly, so the next row can follow
+        limit = Math.min(limit, x + 256);
+      }
+      for (; x < limit; x++)
       {
-        this.setBlack(src, target, x, y, input[x][0] <= 127);
-        int error = input[x][0] - ((input[x][0] <= 127) ? 0 : 255);
-        if (x + 1 < input.length)
+        this.setBlack(src, target, x, y, current[x] <= 127);
+        int error = current[x] - ((current[x] <= 127) ? 0 : 255);
+        if (x + 1 < width)
         {
-          input[x + 1][0] = (input[x + 1][0] + 7 * error / 16);
-          if (y + 1 < src.getHeight())
+          current[x + 1] = (current[x + 1] + 7 * error / 16);
+          if (next != null)
           {
-            input[x + 1][1] = (input[x + 1][1] + 1 * error / 16);
+            next[x + 1] = (next[x + 1] + 1 * error / 16);
           }
         }
-        if (y + 1 < src.getHeight())
+        if (next != null)
         {
-          input[x][1] = (input[x][1] + 5 * error / 16);
+          next[x] = (next[x] + 5 * error / 16);
           if (x > 0)
           {
-            input[x - 1][1] = (input[x - 1][1] + 3 * error / 16);
+            next[x - 1] = (next[x - 1] + 3 * error / 16);
           }
         }
       }
-      setProgress((100 * pixelcount++) / (src.getHeight()));
+      if (done != null)
+      {
+        done.set(y, x);
+      }
     }
   }
 
   @Override
   public DitheringAlgorithm clone() {
-    return new FloydSteinberg();
+    FloydSteinberg clone = new FloydSteinberg();
+    clone.setThreads(getThreads());
+    return clone;
   }
 
   @Override
@@ -28,80 +28,54 @@ import com.t_oster.liblasercut.GreyscaleRaster;
 public class Ordered extends DitheringAlgorithm
 {
 
-  @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target)
+  private static final int[][] FILTER =
   {
-    int width = src.getWidth();
-    int height = src.getHeight();
-    int nPatWid = 4;
-    int[][] filter =
     {
-      {
-        16, 144, 48, 176
-      },
-      {
-        208, 80, 240, 112
-      },
-      {
-        64, 192, 32, 160
-      },
-      {
-        256, 128, 224, 96
-      },
-    };
-
-    int x = 0;
-    int y = 0;
-    int pixelcount = 0;
-
-    for (y = 0; y < (height - nPatWid); y = y + nPatWid)
+      16, 144, 48, 176
+    },
     {
+      208, 80, 240, 112
+    },
+    {
+      64, 192, 32, 160
+    },
+    {
+      256, 128, 224, 96
+    },
+  };
 
-      for (x = 0; x < (width - nPatWid); x = x + nPatWid)
-      {
-
-        for (int xdelta = 0; xdelta < nPatWid; xdelta++)
-        {
-          for (int ydelta = 0; ydelta < nPatWid; ydelta++)
-          {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
-          }
-        }
-      }
-      for (int xdelta = 0; xdelta < nPatWid; xdelta++)
-      {
-        for (int ydelta = 0; ydelta < nPatWid; ydelta++)
-        {
-
-          if (((x + xdelta) < width) && ((y + ydelta) < height))
-          {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
-          }
-        }
-      }
-      setProgress((100 * pixelcount++) / (height));
-    }
+  @Override
+  protected void doDithering(final GreyscaleRaster src, final BlackWhiteRaster target)
+  {
+    final int width = src.getWidth();
+    int height = src.getHeight();
+    final int nPatWid = FILTER.length;
 
-    // y is at max; loop through x
-    for (x = 0; x < (width); x = x + nPatWid)
+    //every pixel is compared to the filter value at its position
+    //in the tiled 4x4 pattern, so rows can be dithered independently
+    processBands(target, height, 0, 100, new Band()
     {
-      for (int xdelta = 0; xdelta < nPatWid; xdelta++)
+      public void process(int fromY, int toY)
       {
-        for (int ydelta = 0; ydelta < nPatWid; ydelta++)
+        int[] row = new int[width];
+        for (int y = fromY; y < toY; y++)
         {
-
-          if (((x + xdelta) < width) && ((y + ydelta) < height))
+          getRow(src, y, row);
+          int ydelta = y % nPatWid;
+          for (int x = 0; x < width; x++)
           {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
+            setBlack(src, target, x, y, row[x] < FILTER[x % nPatWid][ydelta]);
           }
         }
       }
-    }
+    });
   }
 
   @Override
   public DitheringAlgorithm clone() {
-    return new Ordered();
+    Ordered clone = new Ordered();
+    clone.setThreads(getThreads());
+    return clone;
   }
 
   @Override
@@ -29,26 +29,35 @@ public class Random extends DitheringAlgorithm
 {
 
   @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target)
+  protected void doDithering(final GreyscaleRaster src, final BlackWhiteRaster target)
   {
-    int width = src.getWidth();
+    final int width = src.getWidth();
     int height = src.getHeight();
-    int pixelcount = 0;
-    java.util.Random r = new java.util.Random();
 
-    for (int y = 0; y < height; y++)
+    processBands(target, height, 0, 100, new Band()
     {
-      for (int x = 0; x < width; x++)
+      public void process(int fromY, int toY)
       {
-        this.setBlack(src, target, x, y, src.getGreyScale(x, y) < r.nextInt(256));
+        //one generator per band, since a shared one would be contended
+        java.util.Random r = new java.util.Random();
+        int[] row = new int[width];
+        for (int y = fromY; y < toY; y++)
+        {
+          getRow(src, y, row);
+          for (int x = 0; x < width; x++)
+          {
+            setBlack(src, target, x, y, row[x] < r.nextInt(256));
+          }
+        }
       }
-      setProgress((100 * pixelcount++) / (height));
-    }
+    });
   }
 
   @Override
   public DitheringAlgorithm clone() {
-    return new Random();
+    Random clone = new Random();
+    clone.setThreads(getThreads());
+    return clone;
   }
 
   @Override
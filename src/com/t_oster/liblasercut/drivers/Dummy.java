@@ -239,22 +239,23 @@ public class Dummy extends LaserCutter {
           if (p instanceof VectorPart)
           {
             System.out.println("VectorPart");
-            for (VectorCommand cmd : ((VectorPart) p).getCommandList())
+            VectorPart vp = (VectorPart) p;
+            for (int i = 0; i < vp.getCommandCount(); i++)
             {
-              if (cmd.getType() == VectorCommand.CmdType.SETPROPERTY)
+              if (vp.getCommandType(i) == VectorCommand.CmdType.SETPROPERTY)
               {
                 
-                if (!(cmd.getProperty() instanceof PowerSpeedFocusFrequencyProperty))
+                if (!(vp.getProperty(i) instanceof PowerSpeedFocusFrequencyProperty))
                 {
                   throw new IllegalJobException("This driver expects Power,Speed,Frequency and Focus as settings");
                 }
-                System.out.println(((PowerSpeedFocusFrequencyProperty) cmd.getProperty()).toString());
-              } else if (cmd.getType() == VectorCommand.CmdType.LINETO) {
-                System.out.println("LINETO \t" + cmd.getX() + ", \t" + cmd.getY());
-                svg.lineTo(cmd.getX(),cmd.getY());
-              } else if (cmd.getType() == VectorCommand.CmdType.MOVETO) {
-                System.out.println("MOVETO \t" + cmd.getX() + ", \t" + cmd.getY());
-                svg.moveTo(cmd.getX(),cmd.getY());
+                System.out.println(((PowerSpeedFocusFrequencyProperty) vp.getProperty(i)).toString());
+              } else if (vp.getCommandType(i) == VectorCommand.CmdType.LINETO) {
+                System.out.println("LINETO \t" + vp.getX(i) + ", \t" + vp.getY(i));
+                svg.lineTo(vp.getX(i),vp.getY(i));
+              } else if (vp.getCommandType(i) == VectorCommand.CmdType.MOVETO) {
+                System.out.println("MOVETO \t" + vp.getX(i) + ", \t" + vp.getY(i));
+                svg.moveTo(vp.getX(i),vp.getY(i));
               }
             }
             
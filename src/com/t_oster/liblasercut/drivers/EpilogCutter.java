@@ -25,13 +25,15 @@
 package com.t_oster.liblasercut.drivers;
 
 import com.t_oster.liblasercut.*;
+import com.t_oster.liblasercut.platform.CountingOutputStream;
+import com.t_oster.liblasercut.platform.NioSocketTransport;
 import com.t_oster.liblasercut.platform.Point;
+import com.t_oster.liblasercut.platform.Util;
 import java.io.*;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -44,14 +46,23 @@ abstract class EpilogCutter extends LaserCutter
 
   public static boolean SIMULATE_COMMUNICATION = false;
   public static final int NETWORK_TIMEOUT = 3000;
+  /* Time to wait for the acknowledgement of the job data and
+   * for the cutter to accept more data in ms */
+  public static final int DATA_TIMEOUT = 10000;
   /* Resolutions in DPI */
 
   private static final int MINFOCUS = -500;//Minimal focus value (not mm)
   private static final int MAXFOCUS = 500;//Maximal focus value (not mm)
   private static final double FOCUSWIDTH = 0.0252;//How much mm/unit the focus values are
+  //Raster lines are padded with these to a multiple of 8 bytes
+  private static final byte[] PADDING = new byte[]{
+    (byte) 128, (byte) 128, (byte) 128, (byte) 128,
+    (byte) 128, (byte) 128, (byte) 128, (byte) 128
+  };
   private String hostname = "10.0.0.1";
   private int port = 515;
   private boolean autofocus = false;
+  private transient NioSocketTransport connection;
   private transient InputStream in;
   private transient OutputStream out;
 
@@ -97,45 +108,43 @@ abstract class EpilogCutter extends LaserCutter
 
   private void waitForResponse(int expected) throws IOException, Exception
   {
-    waitForResponse(expected, 3);
+    waitForResponse(expected, NETWORK_TIMEOUT);
   }
 
+  /**
+   * Flushes the output and reads the one byte response of the cutter
+   * @param expected the expected response
+   * @param timeout the time to wait for the response in ms
+   */
   private void waitForResponse(int expected, int timeout) throws IOException, Exception
   {
     if (SIMULATE_COMMUNICATION)
     {
       return;
     }
-    int result;
     out.flush();
-    for (int i = 0; i < timeout * 10; i++)
+    int result;
+    connection.setTimeout(timeout);
+    try
     {
-      if (in.available() > 0)
-      {
-        result = in.read();
-        if (result == -1)
-        {
-          throw new IOException("End of Stream");
-        }
-        if (result != expected)
-        {
-          throw new Exception("unexpected Response: " + result);
-        }
-        return;
-      }
-      else
-      {
-        Thread.sleep(100 * timeout);
-      }
+      result = in.read();
+    }
+    finally
+    {
+      connection.setTimeout(DATA_TIMEOUT);
+    }
+    if (result == -1)
+    {
+      throw new IOException("End of Stream");
+    }
+    if (result != expected)
+    {
+      throw new Exception("unexpected Response: " + result);
     }
-    throw new Exception("Timeout");
-
   }
 
-  private byte[] generatePjlHeader(LaserJob job, double resolution) throws UnsupportedEncodingException
+  private void writePjlHeader(LaserJob job, double resolution, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
     /* Print the printer job language header. */
     out.printf("\033%%-12345X@PJL JOB NAME=%s\r\n", job.getTitle());
     out.printf("\033E@PJL ENTER LANGUAGE=PCL\r\n");
@@ -167,14 +176,10 @@ abstract class EpilogCutter extends LaserCutter
     out.printf("\033*p0X");
     /* Y position = 0 */
     out.printf("\033*p0Y");
-    return result.toByteArray();
   }
 
-  private byte[] generatePjlFooter() throws UnsupportedEncodingException
+  private void writePjlFooter(PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
-
     /* Footer for printer job language. */
     /* Reset */
     out.printf("\033E");
@@ -182,10 +187,9 @@ abstract class EpilogCutter extends LaserCutter
     out.printf("\033%%-12345X");
     /* End job. */
     out.printf("@PJL EOJ \r\n");
-    return result.toByteArray();
   }
 
-  private void sendPjlJob(LaserJob job, byte[] pjlData) throws UnknownHostException, UnsupportedEncodingException, IOException, Exception
+  private void sendPjlJob(LaserJob job, long pjlLength) throws UnknownHostException, UnsupportedEncodingException, IOException, Exception
   {
     String localhost;
     try
@@ -213,11 +217,16 @@ abstract class EpilogCutter extends LaserCutter
     out.append((char) 0);
     waitForResponse(0);
     /* Send the Job length and name to the queue */
-    out.printf("\003%d dfA%s%s\n", pjlData.length, job.getName(), localhost);
-    waitForResponse(0);
-    /* Send the real PJL Job */
-    out.write(pjlData);
+    out.printf("\003%d dfA%s%s\n", pjlLength, job.getName(), localhost);
     waitForResponse(0);
+    /* Send the real PJL Job, which is generated a second time while sending */
+    CountingOutputStream data = new CountingOutputStream(this.out);
+    writePjlData(job, data);
+    if (data.getCount() != pjlLength)
+    {
+      throw new IOException("Job size changed while sending ("+pjlLength+" announced, "+data.getCount()+" sent)");
+    }
+    waitForResponse(0, DATA_TIMEOUT);
   }
 
   private void connect() throws IOException, SocketTimeoutException
@@ -228,8 +237,7 @@ abstract class EpilogCutter extends LaserCutter
     }
     else
     {
-      Socket connection = new Socket();
-      connection.connect(new InetSocketAddress(hostname, port), NETWORK_TIMEOUT);
+      connection = new NioSocketTransport(hostname, port, NETWORK_TIMEOUT, DATA_TIMEOUT);
       in = new BufferedInputStream(connection.getInputStream());
       out = new BufferedOutputStream(connection.getOutputStream());
     }
@@ -241,6 +249,7 @@ abstract class EpilogCutter extends LaserCutter
     {
       in.close();
       out.close();
+      connection = null;
     }
   }
 
@@ -252,15 +261,16 @@ abstract class EpilogCutter extends LaserCutter
     {
       if (p instanceof VectorPart)
       {
-        for (VectorCommand cmd : ((VectorPart) p).getCommandList())
+        VectorPart vp = (VectorPart) p;
+        for (int i = 0; i < vp.getCommandCount(); i++)
         {
-          if (cmd.getType() == VectorCommand.CmdType.SETPROPERTY)
+          if (vp.getCommandType(i) == VectorCommand.CmdType.SETPROPERTY)
           {
-            if (!(cmd.getProperty() instanceof PowerSpeedFocusFrequencyProperty))
+            if (!(vp.getProperty(i) instanceof PowerSpeedFocusFrequencyProperty))
             {
               throw new IllegalJobException("This driver expects Power,Speed,Frequency and Focus as settings");
             }
-            float focus = ((PowerSpeedFocusFrequencyProperty) cmd.getProperty()).getFocus();
+            float focus = ((PowerSpeedFocusFrequencyProperty) vp.getProperty(i)).getFocus();
             if (mm2focus(focus) > MAXFOCUS || (mm2focus(focus)) < MINFOCUS)
             {
               throw new IllegalJobException("Illegal Focus value. This Lasercutter supports values between"
@@ -305,8 +315,10 @@ abstract class EpilogCutter extends LaserCutter
     job.applyStartPoint();
     String nb = count > 1 ? "("+number+"/"+count+")" : "";
     pl.taskChanged(this, "generating"+nb);
-    //Generate all the data
-    byte[] pjlData = generatePjlData(job);
+    //LPD needs the size of the data in advance, so the data is
+    //generated once for counting and streamed to the cutter afterwards
+    CountingOutputStream counter = new CountingOutputStream();
+    writePjlData(job, counter);
     pl.progressChanged(this, (int) ((double) 40*number/count));
     //connect to lasercutter
     pl.taskChanged(this, "connecting"+nb);
@@ -314,7 +326,7 @@ abstract class EpilogCutter extends LaserCutter
     pl.progressChanged(this, (int) ((double) 60*number/count));
     //send job
     pl.taskChanged(this, "sending"+nb);
-    sendPjlJob(job, pjlData);
+    sendPjlJob(job, counter.getCount());
     pl.progressChanged(this, (int) ((double) 90*number/count));
     //disconnect
     disconnect();
@@ -384,47 +396,129 @@ abstract class EpilogCutter extends LaserCutter
    */
   public List<Byte> encode(List<Byte> line)
   {
-    int idx = 0;
-    int r = line.size();
-    List<Byte> result = new LinkedList<Byte>();
+    byte[] data = new byte[line.size()];
+    int i = 0;
+    for (Byte b : line)
+    {
+      data[i++] = b;
+    }
+    byte[] packed = new byte[getMaxEncodedLength(data.length)];
+    int len = encode(data, 0, data.length, packed);
+    List<Byte> result = new ArrayList<Byte>(len);
+    for (i = 0; i < len; i++)
+    {
+      result.add(packed[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the size of a buffer, which is large enough to hold
+   * the encoded form of length bytes
+   */
+  public static int getMaxEncodedLength(int length)
+  {
+    return length + (length + 2) / 3 + 1;
+  }
+
+  /**
+   * Encodes line[offset] to line[offset+length-1] in TIFF Packbyte encoding
+   * into result, which has to be at least getMaxEncodedLength(length)
+   * bytes long.
+   * @return the number of bytes written to result
+   */
+  public int encode(byte[] line, int offset, int length, byte[] result)
+  {
+    ByteBuffer words = ByteBuffer.wrap(line);
+    int idx = offset;
+    int r = offset + length;
+    int out = 0;
     while (idx < r)
     {
-      int p;
-      p = idx + 1;
-      while (p < r && p < idx + 128 && line.get(p) == line.get(idx))
+      byte b = line[idx];
+      int end = Math.min(r, idx + 128);
+      int p = idx + 1;
+      if (p < end && line[p] == b)
       {
-        p++;
+        //runs of 0 and 0xFF are usually long, so compare 8 bytes at once
+        long pattern = (0xFFL & b) * 0x0101010101010101L;
+        while (p + 8 <= end)
+        {
+          long diff = words.getLong(p) ^ pattern;
+          if (diff != 0)
+          {
+            p += Long.numberOfLeadingZeros(diff) / 8;
+            break;
+          }
+          p += 8;
+        }
+        while (p < end && line[p] == b)
+        {
+          p++;
+        }
       }
       if (p - idx >= 2)
       {
         // run length
-        result.add((byte) (1 - (p - idx)));
-        result.add((byte) line.get(idx));
+        result[out++] = (byte) (1 - (p - idx));
+        result[out++] = b;
         idx = p;
       }
       else
       {
+        //literal bytes up to the next two equal bytes
+        end = Math.min(r, idx + 127);
         p = idx;
-        while (p < r && p < idx + 127
-          && (p + 1 == r || line.get(p)
-          != line.get(p + 1)))
+        while (p < end && (p + 1 == r || line[p] != line[p + 1]))
         {
           p++;
         }
-        result.add((byte) (p - idx - 1));
-        while (idx < p)
-        {
-          result.add((byte) (line.get(idx++)));
-        }
+        result[out++] = (byte) (p - idx - 1);
+        System.arraycopy(line, idx, result, out, p - idx);
+        out += p - idx;
+        idx = p;
       }
     }
-    return result;
+    return out;
+  }
+
+  /**
+   * Reverses data[offset] to data[offset+length-1] in place
+   */
+  private static void reverse(byte[] data, int offset, int length)
+  {
+    for (int i = offset, j = offset + length - 1; i < j; i++, j--)
+    {
+      byte b = data[i];
+      data[i] = data[j];
+      data[j] = b;
+    }
+  }
+
+  /**
+   * Writes the packed line and pads it with 128 to a multiple of 8 bytes
+   */
+  private void writePackedLine(PrintStream out, byte[] line, int offset, int length, byte[] packed)
+  {
+    int len = encode(line, offset, length, packed);
+    int pcks = len / 8;
+    if (len % 8 > 0)
+    {
+      pcks++;
+    }
+    /**
+     * Number of Pixels in a row??
+     * or b2m%dW for TIFF encoding?
+     * Or number of Bytes in a row? who knows
+     * in ctrl-cut its number of packed bytes
+     */
+    getCommandWriter().append("\033*b").append(pcks * 8).append('W').writeTo(out);
+    out.write(packed, 0, len);
+    out.write(PADDING, 0, 8 - (len % 8));
   }
 
-  private byte[] generateRaster3dPCL(Raster3dPart rp) throws UnsupportedEncodingException, IOException
+  private void writeRaster3dPCL(Raster3dPart rp, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
     if (rp != null)
     {
       PowerSpeedFocusProperty prop = (PowerSpeedFocusProperty) rp.getLaserProperty();
@@ -456,67 +550,53 @@ abstract class EpilogCutter extends LaserCutter
       out.printf("\033*r1A");
       Point sp = rp.getRasterStart();
       boolean leftToRight = true;
+      byte[] line = null;
+      byte[] packed = new byte[0];
       for (int y = 0; y < rp.getRasterHeight(); y++)
       {
-        List<Byte> line = rp.getInvertedRasterLine(y);
-        for (int n = 0; n < line.size(); n++)
+        line = rp.getInvertedRasterLine(y, line);
+        int width = rp.getRasterWidth();
+        for (int n = 0; n < width; n++)
         {//Apperantly the other power settings are ignored, so we have to scale
-          int x = line.get(n);
-          x = x >= 0 ? x : 256 + x;
+          int x = 0xFF & line[n];
           int scalex = x * prop.getPower() / 100;
-          byte bx = (byte) (scalex < 128 ? scalex : scalex - 256);
-          line.set(n, bx);
+          line[n] = (byte) scalex;
         }
-        //Remove leading zeroes, but keep track of the offset
+        //Skip leading zeroes, but keep track of the offset
         int jump = 0;
-
-        while (line.size() > 0 && line.get(0) == 0)
+        while (jump < width && line[jump] == 0)
         {
-          line.remove(0);
           jump++;
         }
-        if (line.size() > 0)
+        int length = width - jump;
+        if (length > 0)
         {
-          out.printf("\033*p%dX", sp.x + jump);
-          out.printf("\033*p%dY", sp.y + y);
+          getCommandWriter().append("\033*p").append(sp.x + jump).append('X').writeTo(out);
+          getCommandWriter().append("\033*p").append(sp.y + y).append('Y').writeTo(out);
           if (leftToRight)
           {
-            out.printf("\033*b%dA", line.size());
+            getCommandWriter().append("\033*b").append(length).append('A').writeTo(out);
           }
           else
           {
-            out.printf("\033*b%dA", -line.size());
-            Collections.reverse(line);
-          }
-          line = encode(line);
-          int len = line.size();
-          int pcks = len / 8;
-          if (len % 8 > 0)
-          {
-            pcks++;
+            getCommandWriter().append("\033*b").append(-length).append('A').writeTo(out);
+            reverse(line, jump, length);
           }
-          out.printf("\033*b%dW", pcks * 8);
-          for (byte s : line)
+          if (packed.length < getMaxEncodedLength(length))
           {
-            out.write(s);
-          }
-          for (int k = 0; k < 8 - (len % 8); k++)
-          {
-            out.write((byte) 128);
+            packed = new byte[getMaxEncodedLength(length)];
           }
+          writePackedLine(out, line, jump, length, packed);
           leftToRight = !leftToRight;
         }
       }
       out.printf("\033*rC");       // end raster
     }
-    return result.toByteArray();
   }
 
-  private byte[] generateDummyRaster(JobPart jp) throws UnsupportedEncodingException
+  private void writeDummyRaster(JobPart jp, PrintStream out)
   {
     PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
     /* PCL/RasterGraphics resolution. */
     out.printf("\033*t%dR", (int) jp.getDPI());
     /* Raster Orientation: Printed in current direction */
@@ -544,14 +624,11 @@ abstract class EpilogCutter extends LaserCutter
     /* start at current position */
     out.printf("\033*r1A");
     out.printf("\033*rC");       // end raster
-    return result.toByteArray();
   }
 
-  private byte[] generateRasterPCL(RasterPart rp) throws UnsupportedEncodingException, IOException
+  private void writeRasterPCL(RasterPart rp, PrintStream out)
   {
     PowerSpeedFocusProperty prop = (PowerSpeedFocusProperty) rp.getLaserProperty();
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
     /* PCL/RasterGraphics resolution. */
     out.printf("\033*t%dR", (int) rp.getDPI());
     /* Raster Orientation: Printed in current direction */
@@ -583,80 +660,49 @@ abstract class EpilogCutter extends LaserCutter
     {
       Point sp = rp.getRasterStart();
       boolean leftToRight = true;
+      byte[] line = null;
+      byte[] packed = new byte[0];
       for (int y = 0; y < rp.getRasterHeight(); y++)
       {
-        List<Byte> line = rp.getRasterLine(y);
-        //Remove leading zeroes, but keep track of the offset
-        int jump = 0;
-        while (line.size() > 0 && line.get(0) == 0)
-        {
-          line.remove(0);
-          jump++;
-        }
-        //Remove trailing zeroes
-        while (line.size() > 0 && line.get(line.size()-1) == 0)
+        int jump = rp.getFirstNonZeroByte(y);
+        if (jump >= 0)
         {
-          line.remove(line.size()-1);
-        }
-        if (line.size() > 0)
-        {
-          out.printf("\033*p%dX", sp.x + jump * 8);
-          out.printf("\033*p%dY", sp.y + y);
+          int length = rp.getLastNonZeroByte(y) - jump + 1;
+          line = rp.getRasterLine(y, line);
+          getCommandWriter().append("\033*p").append(sp.x + jump * 8).append('X').writeTo(out);
+          getCommandWriter().append("\033*p").append(sp.y + y).append('Y').writeTo(out);
           if (leftToRight)
           {
-            out.printf("\033*b%dA", line.size());
+            getCommandWriter().append("\033*b").append(length).append('A').writeTo(out);
           }
           else
           {
-            out.printf("\033*b%dA", -line.size());
-            Collections.reverse(line);
-          }
-          line = encode(line);
-          int len = line.size();
-          int pcks = len / 8;
-          if (len % 8 > 0)
-          {
-            pcks++;
-          }
-          /**
-           * Number of Pixels in a row??
-           * or b2m%dW for TIFF encoding?
-           * Or number of Bytes in a row? who knows
-           * in ctrl-cut its number of packed bytes
-           */
-          out.printf("\033*b%dW", pcks * 8);
-          for (byte s : line)
-          {
-            out.write(s);
+            getCommandWriter().append("\033*b").append(-length).append('A').writeTo(out);
+            reverse(line, jump, length);
           }
-          for (int k = 0; k < 8 - (len % 8); k++)
+          if (packed.length < getMaxEncodedLength(length))
           {
-            out.write((byte) 128);
+            packed = new byte[getMaxEncodedLength(length)];
           }
+          writePackedLine(out, line, jump, length, packed);
           leftToRight = !leftToRight;
         }
       }
     }
     out.printf("\033*rC");       // end raster
-    return result.toByteArray();
   }
 
-  private byte[] generateDummyVector(double dpi) throws UnsupportedEncodingException
+  private void writeDummyVector(double dpi, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
     out.printf("\033%%1B");// Start HLGL
     out.printf("IN;PU0,0;");
     //Reset Focus to 0
     out.printf("WF%d;", 0);
-    return result.toByteArray();
   }
 
-  private byte[] generateVectorPCL(VectorPart vp) throws UnsupportedEncodingException
+  private void writeVectorPCL(VectorPart vp, PrintStream out)
   {
     //TODO: Test if the resolution settings have an effect
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
     /* Resolution of the print. Number of Units/Inch*/
     out.printf("\033%%1B");// Start HLGL
     out.printf("IN;PU0,0;");
@@ -668,17 +714,17 @@ abstract class EpilogCutter extends LaserCutter
       Integer currentFrequency = null;
       Float currentFocus = null;
       VectorCommand.CmdType lastType = null;
-      for (VectorCommand cmd : vp.getCommandList())
+      for (int i = 0; i < vp.getCommandCount(); i++)
       {
-        if (lastType != null && lastType == VectorCommand.CmdType.LINETO && cmd.getType() != VectorCommand.CmdType.LINETO)
+        if (lastType != null && lastType == VectorCommand.CmdType.LINETO && vp.getCommandType(i) != VectorCommand.CmdType.LINETO)
         {
           out.print(";");
         }
-        switch (cmd.getType())
+        switch (vp.getCommandType(i))
         {
           case SETPROPERTY:
           {
-            PowerSpeedFocusFrequencyProperty p = (PowerSpeedFocusFrequencyProperty) cmd.getProperty();
+            PowerSpeedFocusFrequencyProperty p = (PowerSpeedFocusFrequencyProperty) vp.getProperty(i);
             if (currentFocus == null || !currentFocus.equals(p.getFocus()))
             {
               out.printf("WF%d;", mm2focus(p.getFocus()));
@@ -703,70 +749,69 @@ abstract class EpilogCutter extends LaserCutter
           }
           case MOVETO:
           {
-            out.printf("PU%d,%d;", cmd.getX(), cmd.getY());
+            getCommandWriter().append("PU").append(vp.getX(i)).append(',').append(vp.getY(i)).append(';').writeTo(out);
             break;
           }
           case LINETO:
           {
             if (lastType == null || lastType != VectorCommand.CmdType.LINETO)
             {
-              out.printf("PD%d,%d", cmd.getX(), cmd.getY());
+              getCommandWriter().append("PD").append(vp.getX(i)).append(',').append(vp.getY(i)).writeTo(out);
             }
             else
             {
-              out.printf(",%d,%d", cmd.getX(), cmd.getY());
+              getCommandWriter().append(',').append(vp.getX(i)).append(',').append(vp.getY(i)).writeTo(out);
             }
             break;
           }
         }
-        lastType = cmd.getType();
+        lastType = vp.getCommandType(i);
       }
     }
     //Reset Focus to 0
     out.printf("WF%d;", 0);
-    return result.toByteArray();
   }
 
-  private byte[] generatePjlData(LaserJob job) throws UnsupportedEncodingException, IOException
+  private void writePjlData(LaserJob job, OutputStream target) throws UnsupportedEncodingException, IOException
   {
     /* Generate complete PJL Job */
-    ByteArrayOutputStream pjlJob = new ByteArrayOutputStream();
-    PrintStream wrt = new PrintStream(pjlJob, true, "US-ASCII");
+    PrintStream wrt = new PrintStream(target, false, "US-ASCII");
 
-    wrt.write(generatePjlHeader(job, job.getParts().get(0).getDPI()));
+    writePjlHeader(job, job.getParts().get(0).getDPI(), wrt);
     if (! (job.getParts().get(0) instanceof RasterPart))
     {//we need an empty raster part as begin of all jobs
-      wrt.write(generateDummyRaster(job.getParts().get(0)));
+      writeDummyRaster(job.getParts().get(0), wrt);
     }
     for (JobPart p : job.getParts())
     {
       if (p instanceof VectorPart)
       {
-        wrt.write(generateVectorPCL((VectorPart) p));
+        writeVectorPCL((VectorPart) p, wrt);
       }
       else if (p instanceof RasterPart)
       {
-        wrt.write(generateRasterPCL((RasterPart) p));
+        writeRasterPCL((RasterPart) p, wrt);
       }
       else if (p instanceof Raster3dPart)
       {
-        wrt.write(generateRaster3dPCL((Raster3dPart) p));
+        writeRaster3dPCL((Raster3dPart) p, wrt);
       }
+      Util.checkError(wrt);
     }
     if (! (job.getParts().get(job.getParts().size()-1) instanceof VectorPart))
     {
-      wrt.write(generateDummyVector(job.getParts().get(job.getParts().size()-1).getDPI()));
+      writeDummyVector(job.getParts().get(job.getParts().size()-1).getDPI(), wrt);
     }
-    wrt.write(generatePjlFooter());
+    writePjlFooter(wrt);
     /* Pad out the remainder of the file with 0 characters. */
     for (int i = 0; i < 4096; i++)
     {
       wrt.append((char) 0);
     }
-    wrt.flush();
-    return pjlJob.toByteArray();
+    Util.checkError(wrt);
   }
 
+
   public int getPort()
   {
     return this.port;
@@ -915,16 +960,7 @@ abstract class EpilogCutter extends LaserCutter
         double linespeed = ((double) RASTER_LINESPEED * ((PowerSpeedFocusProperty) rp.getLaserProperty()).getSpeed()) / 100;
         for (int y = 0; y < rp.getRasterHeight(); y++)
         {//Find any black point
-          boolean lineEmpty = true;
-          for (byte b : rp.getRasterLine(y))
-          {
-            if (b != 0)
-            {
-              lineEmpty = false;
-              break;
-            }
-          }
-          if (!lineEmpty)
+          if (!rp.isLineEmpty(y))
           {
             int w = rp.getRasterWidth();
             result += (double) RASTER_LINEOFFSET + (double) w / linespeed;
@@ -944,18 +980,11 @@ abstract class EpilogCutter extends LaserCutter
         result += Math.max((double) (p.x - sp.x) / VECTOR_MOVESPEED_X,
           (double) (p.y - sp.y) / VECTOR_MOVESPEED_Y);
         double linespeed = ((double) RASTER3D_LINESPEED * ((PowerSpeedFocusProperty) rp.getLaserProperty()).getSpeed()) / 100;
+        byte[] line = null;
         for (int y = 0; y < rp.getRasterHeight(); y++)
         {//Check if
-          boolean lineEmpty = true;
-          for (byte b : rp.getRasterLine(y))
-          {
-            if (b != 0)
-            {
-              lineEmpty = false;
-              break;
-            }
-          }
-          if (!lineEmpty)
+          line = rp.getRasterLine(y, line);
+          if (Util.firstNonZero(line, rp.getRasterWidth()) >= 0)
           {
             int w = rp.getRasterWidth();
             result += (double) RASTER3D_LINEOFFSET + (double) w / linespeed;
@@ -968,23 +997,23 @@ abstract class EpilogCutter extends LaserCutter
       {
         double speed = VECTOR_LINESPEED;
         VectorPart vp = (VectorPart) jp;
-        for (VectorCommand cmd : vp.getCommandList())
+        for (int i = 0; i < vp.getCommandCount(); i++)
         {
-          switch (cmd.getType())
+          switch (vp.getCommandType(i))
           {
             case SETPROPERTY:
             {
-              speed = VECTOR_LINESPEED * ((PowerSpeedFocusFrequencyProperty) cmd.getProperty()).getSpeed() / 100;
+              speed = VECTOR_LINESPEED * ((PowerSpeedFocusFrequencyProperty) vp.getProperty(i)).getSpeed() / 100;
               break;
             }
             case MOVETO:
-              result += Math.max((double) (p.x - cmd.getX()) / VECTOR_MOVESPEED_X,
-                (double) (p.y - cmd.getY()) / VECTOR_MOVESPEED_Y);
-              p = new Point(cmd.getX(), cmd.getY());
+              result += Math.max((double) (p.x - vp.getX(i)) / VECTOR_MOVESPEED_X,
+                (double) (p.y - vp.getY(i)) / VECTOR_MOVESPEED_Y);
+              p = new Point(vp.getX(i), vp.getY(i));
               break;
             case LINETO:
-              double dist = distance(cmd.getX(), cmd.getY(), p);
-              p = new Point(cmd.getX(), cmd.getY());
+              double dist = distance(vp.getX(i), vp.getY(i), p);
+              p = new Point(vp.getX(i), vp.getY(i));
               result += dist / speed;
               break;
           }
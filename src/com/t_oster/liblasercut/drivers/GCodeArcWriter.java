@@ -0,0 +1,68 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.drivers;
+
+import com.t_oster.liblasercut.VectorArc;
+import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.AsciiCommandWriter;
+import com.t_oster.liblasercut.platform.Util;
+import java.io.PrintStream;
+
+/**
+ * Writes the arcs of a vector part as G2/G3 commands for G-code drivers
+ * with coordinates in mm, where the x axis may be mirrored.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+class GCodeArcWriter {
+
+  private final double resolution;
+  private final boolean flipX;
+  private final double bedWidth;
+
+  GCodeArcWriter(double resolution, boolean flipX, double bedWidth) {
+    this.resolution = resolution;
+    this.flipX = flipX;
+    this.bedWidth = bedWidth;
+  }
+
+  /**
+   * Writes the arc, which starts with the i-th command, with w or,
+   * if relative is not null, in relative coordinates
+   */
+  public void write(PrintStream out, AsciiCommandWriter w, RelativeGCodeWriter relative, VectorPart vp, int i, VectorArc arc) {
+    //I and J are the distance from the start point to the center
+    double ci = Util.px2mm(arc.getCenterX() - vp.getX(i - 1), resolution);
+    double cj = Util.px2mm(arc.getCenterY() - vp.getY(i - 1), resolution);
+    //mirroring the x axis also reverses the direction
+    boolean clockwise = arc.isClockwise() != flipX;
+    if (flipX) {
+      ci = -ci;
+    }
+    int x = vp.getX(arc.getEnd());
+    int y = vp.getY(arc.getEnd());
+    if (relative != null) {
+      relative.arc(out, x, y, ci, cj, clockwise);
+    } else {
+      w.append(clockwise ? "G2 X" : "G3 X").append(Util.px2mm(flipX ? Util.mm2px(bedWidth, resolution) - x : x, resolution))
+        .append(" Y").append(Util.px2mm(y, resolution))
+        .append(" I").append(ci).append(" J").append(cj).append('\n').writeTo(out);
+    }
+  }
+}
@@ -19,13 +19,14 @@
 package com.t_oster.liblasercut.drivers;
 
 import com.t_oster.liblasercut.*;
+import com.t_oster.liblasercut.platform.AsciiCommandWriter;
 import com.t_oster.liblasercut.platform.Point;
+import com.t_oster.liblasercut.platform.StepTransform;
 import com.t_oster.liblasercut.platform.Util;
+import com.t_oster.liblasercut.vectoroptimizers.ArcFitter;
 import java.io.BufferedOutputStream;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
 import java.util.*;
 import purejavacomm.CommPort;
 import purejavacomm.CommPortIdentifier;
@@ -59,12 +60,16 @@ public class Grbl extends LaserCutter {
   private static final String SETTING_BEDHEIGHT = "Laserbed height";
   private static final String SETTING_FLIPX = "X axis goes right to left (yes/no)";
   private static final String SETTING_RASTER_WHITESPACE = "Additional space per Raster line (mm)";
+  private static final String SETTING_RASTER_GAP_BRIDGING = "Burn through raster gaps up to (px)";
+  private static final String SETTING_RASTER3D_POWER_STEPS = "Power steps for 3D raster (0 = 256)";
+  private static final String SETTING_RASTER3D_MAX_SEGMENTS = "Max. moves per 3D raster line (0 = unlimited)";
+  private static final String SETTING_RELATIVE_VECTORS = "Relative coordinates for vectors (G91)";
+  private static final String SETTING_ARC_TOLERANCE = "Send curves as arcs (G2/G3) with tolerance (mm, 0 = off)";
+  private static final String SETTING_WAIT_FOR_WELCOME = "Wait for Grbl welcome message, soft reset if missing (not for Smoothie)";
   private static final String SETTING_SEEK_RATE = "Max. Seek Rate (mm/min)";
   private static final String SETTING_LASER_RATE = "Max. Laser Rate (mm/min)";
   private static final String SETTING_JOB_PRE_GCODE = "G-Code to send before each job (use ; between commands)";
   private static final String SETTING_JOB_POST_GCODE = "G-Code to send after each job (use ; between commands)";
-  private static final int UART_BYTE_CHUNK_SIZE = 8;
-  private static final int MAX_CTS_LOOPS = 100;
 
   @Override
   public String getModelName() {
@@ -91,6 +96,142 @@ public class Grbl extends LaserCutter {
     this.addSpacePerRasterLine = addSpacePerRasterLine;
   }
 
+  private int rasterGapBridging = 0;
+
+  /**
+   * Get the value of rasterGapBridging
+   *
+   * @return the value of rasterGapBridging
+   */
+  public int getRasterGapBridging() {
+    return rasterGapBridging;
+  }
+
+  /**
+   * Set the value of rasterGapBridging. White gaps of at most this many
+   * pixels inside a raster line are burned through instead of moving
+   * across them, which saves two commands per gap.
+   *
+   * @param rasterGapBridging new value of rasterGapBridging
+   */
+  public void setRasterGapBridging(int rasterGapBridging) {
+    this.rasterGapBridging = rasterGapBridging;
+  }
+
+  private int raster3dPowerSteps = 32;
+
+  /**
+   * Get the value of raster3dPowerSteps
+   *
+   * @return the value of raster3dPowerSteps
+   */
+  public int getRaster3dPowerSteps() {
+    return raster3dPowerSteps;
+  }
+
+  /**
+   * Set the number of power levels (including off) the grey values of
+   * 3D rasters are quantised to. Fewer levels give longer runs of equal
+   * power and thus fewer moves. Values below 2 mean 256 levels.
+   *
+   * @param raster3dPowerSteps new value of raster3dPowerSteps
+   */
+  public void setRaster3dPowerSteps(int raster3dPowerSteps) {
+    this.raster3dPowerSteps = raster3dPowerSteps;
+  }
+
+  private int raster3dMaxSegments = 250;
+
+  /**
+   * Get the value of raster3dMaxSegments
+   *
+   * @return the value of raster3dMaxSegments
+   */
+  public int getRaster3dMaxSegments() {
+    return raster3dMaxSegments;
+  }
+
+  /**
+   * Set the maximal number of moves per 3D raster line. Lines with more
+   * runs are averaged into fewer, longer ones, so the moves are not too
+   * short for the planner buffer at engrave speed. 0 means unlimited.
+   *
+   * @param raster3dMaxSegments new value of raster3dMaxSegments
+   */
+  public void setRaster3dMaxSegments(int raster3dMaxSegments) {
+    this.raster3dMaxSegments = raster3dMaxSegments;
+  }
+
+  private boolean relativeVectors = false;
+
+  /**
+   * Get the value of relativeVectors
+   *
+   * @return the value of relativeVectors
+   */
+  public boolean isRelativeVectors() {
+    return relativeVectors;
+  }
+
+  /**
+   * Set the value of relativeVectors. If true, vector parts are sent in
+   * relative coordinates (G91) with micrometer precision, which makes
+   * the G-code of dense outlines considerably shorter.
+   *
+   * @param relativeVectors new value of relativeVectors
+   */
+  public void setRelativeVectors(boolean relativeVectors) {
+    this.relativeVectors = relativeVectors;
+  }
+
+  private double arcTolerance = 0;
+
+  /**
+   * Get the value of arcTolerance
+   *
+   * @return the value of arcTolerance
+   */
+  public double getArcTolerance() {
+    return arcTolerance;
+  }
+
+  /**
+   * Set the value of arcTolerance. If greater than 0, runs of vector lines
+   * which lie on a circular arc within this tolerance (in mm) are sent as
+   * one G2/G3 command. Needs a firmware with arc support. The arcs are
+   * fitted anew for every job without changing it, only arcs marked in
+   * the part by the application (VectorPart.setArc) are used as they are.
+   *
+   * @param arcTolerance new value of arcTolerance
+   */
+  public void setArcTolerance(double arcTolerance) {
+    this.arcTolerance = arcTolerance;
+  }
+
+  private boolean waitForWelcome = false;
+
+  /**
+   * Get the value of waitForWelcome
+   *
+   * @return the value of waitForWelcome
+   */
+  public boolean isWaitForWelcome() {
+    return waitForWelcome;
+  }
+
+  /**
+   * Set the value of waitForWelcome. If true, the driver waits for the
+   * "Grbl" welcome message after opening the port and resets the board
+   * by software (Ctrl-X) if there is none. Only for real Grbl boards,
+   * Smoothieware halts on Ctrl-X. If false, the controller only has to
+   * answer a status request.
+   *
+   * @param waitForWelcome new value of waitForWelcome
+   */
+  public void setWaitForWelcome(boolean waitForWelcome) {
+    this.waitForWelcome = waitForWelcome;
+  }
+
   private double seekRate = 2000;
 
   /**
@@ -231,202 +372,284 @@ public class Grbl extends LaserCutter {
     return jobPostGCode;
   }
 
-  private byte[] generateVectorGCode(VectorPart vp, double resolution) throws UnsupportedEncodingException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
-    for (VectorCommand cmd : vp.getCommandList()) {
-      switch (cmd.getType()) {
+  void writeVectorGCode(VectorPart vp, double resolution, PrintStream out) {
+    RelativeGCodeWriter relative = null;
+    if (relativeVectors) {
+      relative = new RelativeGCodeWriter(StepTransform.fromPixels(resolution, 1000, isFlipXaxis(), bedWidth, false, bedHeight));
+    }
+    //arcs marked by the application are used, otherwise they are
+    //fitted for this pass only, so the part is not changed
+    Map<Integer, VectorArc> arcs = null;
+    GCodeArcWriter arcWriter = null;
+    if (arcTolerance > 0) {
+      if (vp.hasArcs()) {
+        arcs = vp.getArcs();
+      } else {
+        ArcFitter fitter = new ArcFitter();
+        fitter.setTolerance(arcTolerance);
+        arcs = fitter.findArcs(vp);
+      }
+      arcWriter = new GCodeArcWriter(resolution, isFlipXaxis(), bedWidth);
+    }
+    for (int i = 0; i < vp.getCommandCount(); i++) {
+      switch (vp.getCommandType(i)) {
         case MOVETO:
-          int x = cmd.getX();
-          int y = cmd.getY();
-          move(out, x, y, resolution);
+          int x = vp.getX(i);
+          int y = vp.getY(i);
+          if (relative != null) {
+            relative.move(out, x, y);
+          } else {
+            move(out, x, y, resolution);
+          }
           break;
         case LINETO:
-          x = cmd.getX();
-          y = cmd.getY();
-          line(out, x, y, resolution);
+          VectorArc arc = arcs != null ? arcs.get(i) : null;
+          if (arc != null) {
+            arcWriter.write(out, getCommandWriter(), relative, vp, i, arc);
+            i = arc.getEnd();
+            break;
+          }
+          x = vp.getX(i);
+          y = vp.getY(i);
+          if (relative != null) {
+            relative.line(out, x, y);
+          } else {
+            line(out, x, y, resolution);
+          }
           break;
         case SETPROPERTY:
-          PowerSpeedFocusFrequencyProperty p = (PowerSpeedFocusFrequencyProperty) cmd.getProperty();
+          PowerSpeedFocusFrequencyProperty p = (PowerSpeedFocusFrequencyProperty) vp.getProperty(i);
           setPower(out, p.getPower());
           setSpeed(out, p.getSpeed());
           break;
       }
     }
-    return result.toByteArray();
+    if (relative != null) {
+      relative.finish(out);
+    }
   }
   private int currentPower = -1;
   private int currentSpeed = -1;
 
   private void setSpeed(PrintStream out, int speedInPercent) {
     if (speedInPercent != currentSpeed) {
-      out.printf(Locale.US, "G1 F%d\n", (int) ((double) speedInPercent * this.getLaserRate() / 100));
+      getCommandWriter().append("G1 F").append((int) ((double) speedInPercent * this.getLaserRate() / 100)).append('\n').writeTo(out);
       currentSpeed = speedInPercent;
     }
   }
 
   private void setPower(PrintStream out, int powerInPercent) {
     if (powerInPercent != currentPower) {
-      out.printf(Locale.US, "S%d\n", (int) (255d * powerInPercent / 100));
+      getCommandWriter().append('S').append((int) (255d * powerInPercent / 100)).append('\n').writeTo(out);
       currentPower = powerInPercent;
     }
   }
 
+  private double px2mmX(int x, double resolution) {
+    return Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution);
+  }
+
   private void move(PrintStream out, int x, int y, double resolution) {
-    out.printf(Locale.US, "G0 X%f Y%f\n", Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), Util.px2mm(y, resolution));
+    getCommandWriter().append("G0 X").append(px2mmX(x, resolution)).append(" Y").append(Util.px2mm(y, resolution)).append('\n').writeTo(out);
   }
 
   private void line(PrintStream out, int x, int y, double resolution) {
-    out.printf(Locale.US, "G1 X%f Y%f\n", Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), Util.px2mm(y, resolution));
+    getCommandWriter().append("G1 X").append(px2mmX(x, resolution)).append(" Y").append(Util.px2mm(y, resolution)).append('\n').writeTo(out);
   }
 
-  private byte[] generatePseudoRaster3dGCode(Raster3dPart rp, double resolution) throws UnsupportedEncodingException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
+  /**
+   * Splits the first width values of line into runs of equal power,
+   * quantised to the given number of levels. Run k starts at starts[k],
+   * ends at starts[k+1] and has the power level powers[k] (0 = off).
+   * Leading and trailing runs without power are left out.
+   * @return the number of runs
+   */
+  static int quantiseRuns(byte[] line, int width, int levels, int[] starts, int[] powers) {
+    int count = 0;
+    for (int x = 0; x < width; x++) {
+      int level = ((0xFF & line[x]) * (levels - 1) + 127) / 255;
+      if (count == 0 ? level != 0 : level != powers[count - 1]) {
+        starts[count] = x;
+        powers[count] = level;
+        count++;
+      }
+    }
+    if (count > 0) {
+      if (powers[count - 1] == 0) {
+        //the start of the trailing white run is the end of the last run
+        count--;
+      } else {
+        starts[count] = width;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Joins neighbouring runs (see quantiseRuns) until there are at most max.
+   * Every joined run is at least 1/max of the line long and gets the
+   * length weighted mean power of its parts.
+   * @return the new number of runs
+   */
+  static int mergeRuns(int[] starts, int[] powers, int count, int max) {
+    int minLength = (starts[count] - starts[0] + max - 1) / max;
+    int result = 0;
+    int k = 0;
+    while (k < count) {
+      int start = starts[k];
+      long sum = 0;
+      while (k < count && starts[k] - start < minLength) {
+        sum += (long) powers[k] * (starts[k + 1] - starts[k]);
+        k++;
+      }
+      int length = starts[k] - start;
+      int power = (int) ((sum + length / 2) / length);
+      if (result == 0 || powers[result - 1] != power) {
+        starts[result] = start;
+        powers[result] = power;
+        result++;
+      }
+    }
+    starts[result] = starts[count];
+    return result;
+  }
+
+  /**
+   * Appends a G1 to x with the given S value, or a G0 if s is 0 and
+   * rapid is true. The S value is only written if it differs from lastS.
+   * @return the current S value
+   */
+  private int appendRasterMove(AsciiCommandWriter w, int x, int s, int lastS, boolean rapid, double resolution) {
+    if (s == 0 && rapid) {
+      w.append("G0 X").append(px2mmX(x, resolution)).append('\n');
+      return lastS;
+    }
+    w.append("G1 X").append(px2mmX(x, resolution));
+    if (s != lastS) {
+      w.append(" S").append(s);
+    }
+    w.append('\n');
+    return s;
+  }
+
+  private void writePseudoRaster3dGCode(Raster3dPart rp, double resolution, PrintStream out) {
+    //a line has thousands of moves, so keep them short
+    AsciiCommandWriter w = new AsciiCommandWriter(3, true);
     boolean dirRight = true;
     Point rasterStart = rp.getRasterStart();
     PowerSpeedFocusProperty prop = (PowerSpeedFocusProperty) rp.getLaserProperty();
     setSpeed(out, prop.getSpeed());
+    int levels = raster3dPowerSteps >= 2 && raster3dPowerSteps <= 256 ? raster3dPowerSteps : 256;
+    double maxS = 255d * prop.getPower() / 100;
+    double space = Util.mm2px(this.addSpacePerRasterLine, resolution);
+    int maxX = (int) Util.mm2px(bedWidth, resolution);
+    byte[] bytes = null;
+    int[] starts = new int[rp.getRasterWidth() + 1];
+    int[] powers = new int[rp.getRasterWidth()];
+    //S for G1 moves is modal, -1 means unknown
+    int s = -1;
     for (int line = 0; line < rp.getRasterHeight(); line++) {
-      Point lineStart = rasterStart.clone();
-      lineStart.y += line;
-      List<Byte> bytes = rp.getRasterLine(line);
-      //remove heading zeroes
-      while (bytes.size() > 0 && bytes.get(0) == 0) {
-        bytes.remove(0);
-        lineStart.x += 1;
-      }
-      //remove trailing zeroes
-      while (bytes.size() > 0 && bytes.get(bytes.size() - 1) == 0) {
-        bytes.remove(bytes.size() - 1);
+      bytes = rp.getRasterLine(line, bytes);
+      int count = quantiseRuns(bytes, rp.getRasterWidth(), levels, starts, powers);
+      if (count > raster3dMaxSegments && raster3dMaxSegments > 0) {
+        count = mergeRuns(starts, powers, count, raster3dMaxSegments);
       }
-      if (bytes.size() > 0) {
+      if (count > 0) {
+        int y = rasterStart.y + line;
+        int first = rasterStart.x + starts[0];
+        int end = rasterStart.x + starts[count];
+        int left = Math.max(0, (int) (first - space));
+        int right = Math.min(maxX, (int) (end + space));
+        //the additional space is run at engrave speed with the laser off
+        w.append("G0 X").append(px2mmX(dirRight ? left : right, resolution)).append(" Y").append(Util.px2mm(y, resolution)).append('\n');
         if (dirRight) {
-          //move to the first nonempyt point of the line
-          move(out, lineStart.x, lineStart.y, resolution);
-          byte old = bytes.get(0);
-          for (int pix = 0; pix < bytes.size(); pix++) {
-            if (bytes.get(pix) != old) {
-              if (old == 0) {
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              } else {
-                setPower(out, prop.getPower() * (0xFF & old) / 255);
-                line(out, lineStart.x + pix - 1, lineStart.y, resolution);
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              }
-              old = bytes.get(pix);
-            }
+          if (left < first) {
+            s = appendRasterMove(w, first, 0, s, false, resolution);
+          }
+          for (int k = 0; k < count; k++) {
+            s = appendRasterMove(w, rasterStart.x + starts[k + 1], (int) (maxS * powers[k] / (levels - 1)), s, true, resolution);
+          }
+          if (right > end) {
+            s = appendRasterMove(w, right, 0, s, false, resolution);
           }
-          //last point is also not "white"
-          setPower(out, prop.getPower() * (0xFF & bytes.get(bytes.size() - 1)) / 255);
-          line(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
         } else {
-          //move to the last nonempty point of the line
-          move(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
-          byte old = bytes.get(bytes.size() - 1);
-          for (int pix = bytes.size() - 1; pix >= 0; pix--) {
-            if (bytes.get(pix) != old || pix == 0) {
-              if (old == 0) {
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              } else {
-                setPower(out, prop.getPower() * (0xFF & old) / 255);
-                line(out, lineStart.x + pix + 1, lineStart.y, resolution);
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              }
-              old = bytes.get(pix);
-            }
+          if (right > end) {
+            s = appendRasterMove(w, end, 0, s, false, resolution);
+          }
+          for (int k = count - 1; k >= 0; k--) {
+            s = appendRasterMove(w, rasterStart.x + starts[k], (int) (maxS * powers[k] / (levels - 1)), s, true, resolution);
+          }
+          if (left < first) {
+            s = appendRasterMove(w, left, 0, s, false, resolution);
           }
-          //last point is also not "white"
-          setPower(out, prop.getPower() * (0xFF & bytes.get(0)) / 255);
-          line(out, lineStart.x, lineStart.y, resolution);
         }
+        w.writeTo(out);
       }
       dirRight = !dirRight;
     }
-    return result.toByteArray();
+    //the inline S values replaced the power set by setPower
+    currentPower = -1;
   }
 
-  private byte[] generatePseudoRasterGCode(RasterPart rp, double resolution) throws UnsupportedEncodingException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
+  private void writePseudoRasterGCode(RasterPart rp, double resolution, PrintStream out) {
     boolean dirRight = true;
     Point rasterStart = rp.getRasterStart();
     PowerSpeedFocusProperty prop = (PowerSpeedFocusProperty) rp.getLaserProperty();
     setSpeed(out, prop.getSpeed());
     setPower(out, prop.getPower());
+    int[] runs = new int[rp.getRasterWidth() + 1];
+    double space = Util.mm2px(this.addSpacePerRasterLine, resolution);
+    int maxX = (int) Util.mm2px(bedWidth, resolution);
     for (int line = 0; line < rp.getRasterHeight(); line++) {
-      Point lineStart = rasterStart.clone();
-      lineStart.y += line;
-      List<Byte> bytes = new LinkedList<Byte>();
-      boolean lookForStart = true;
-      for (int x = 0; x < rp.getRasterWidth(); x++) {
-        if (lookForStart) {
-          if (rp.isBlack(x, line)) {
-            lookForStart = false;
-            bytes.add((byte) 255);
-          } else {
-            lineStart.x += 1;
-          }
-        } else {
-          bytes.add(rp.isBlack(x, line) ? (byte) 255 : (byte) 0);
-        }
-      }
-      //remove trailing zeroes
-      while (bytes.size() > 0 && bytes.get(bytes.size() - 1) == 0) {
-        bytes.remove(bytes.size() - 1);
-      }
-      if (bytes.size() > 0) {
+      //empty lines and margins are skipped, small gaps are burned through
+      int count = rp.isLineEmpty(line) ? 0 : rp.getBlackRuns(line, rasterGapBridging, runs);
+      if (count > 0) {
+        int y = rasterStart.y + line;
+        //first and last black pixel of the line
+        int first = rasterStart.x + runs[0];
+        int last = rasterStart.x + runs[2 * count - 1] - 1;
         if (dirRight) {
           //add some space to the left
-          move(out, Math.max(0, (int) (lineStart.x - Util.mm2px(this.addSpacePerRasterLine, resolution))), lineStart.y, resolution);
-          //move to the first nonempyt point of the line
-          move(out, lineStart.x, lineStart.y, resolution);
-          byte old = bytes.get(0);
-          for (int pix = 0; pix < bytes.size(); pix++) {
-            if (bytes.get(pix) != old) {
-              if (old == 0) {
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              } else {
-                setPower(out, prop.getPower() * (0xFF & old) / 255);
-                line(out, lineStart.x + pix - 1, lineStart.y, resolution);
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              }
-              old = bytes.get(pix);
-            }
+          move(out, Math.max(0, (int) (first - space)), y, resolution);
+          move(out, first, y, resolution);
+          for (int k = 0; k < count - 1; k++) {
+            setPower(out, prop.getPower());
+            line(out, rasterStart.x + runs[2 * k + 1] - 1, y, resolution);
+            move(out, rasterStart.x + runs[2 * k + 2], y, resolution);
           }
-          //last point is also not "white"
-          setPower(out, prop.getPower() * (0xFF & bytes.get(bytes.size() - 1)) / 255);
-          line(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
+          setPower(out, prop.getPower());
+          line(out, last, y, resolution);
           //add some space to the right
-          move(out, Math.min((int) Util.mm2px(bedWidth, resolution), (int) (lineStart.x + bytes.size() - 1 + Util.mm2px(this.addSpacePerRasterLine, resolution))), lineStart.y, resolution);
+          move(out, Math.min(maxX, (int) (last + space)), y, resolution);
         } else {
           //add some space to the right
-          move(out, Math.min((int) Util.mm2px(bedWidth, resolution), (int) (lineStart.x + bytes.size() - 1 + Util.mm2px(this.addSpacePerRasterLine, resolution))), lineStart.y, resolution);
-          //move to the last nonempty point of the line
-          move(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
-          byte old = bytes.get(bytes.size() - 1);
-          for (int pix = bytes.size() - 1; pix >= 0; pix--) {
-            if (bytes.get(pix) != old || pix == 0) {
-              if (old == 0) {
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              } else {
-                setPower(out, prop.getPower() * (0xFF & old) / 255);
-                line(out, lineStart.x + pix + 1, lineStart.y, resolution);
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              }
-              old = bytes.get(pix);
-            }
+          move(out, Math.min(maxX, (int) (last + space)), y, resolution);
+          move(out, last, y, resolution);
+          for (int k = count - 1; k > 0; k--) {
+            setPower(out, prop.getPower());
+            line(out, rasterStart.x + runs[2 * k], y, resolution);
+            move(out, rasterStart.x + runs[2 * k - 1] - 1, y, resolution);
           }
-          //last point is also not "white"
-          setPower(out, prop.getPower() * (0xFF & bytes.get(0)) / 255);
-          line(out, lineStart.x, lineStart.y, resolution);
+          setPower(out, prop.getPower());
+          line(out, first, y, resolution);
           //add some space to the left
-          move(out, Math.max(0, (int) (lineStart.x - Util.mm2px(this.addSpacePerRasterLine, resolution))), lineStart.y, resolution);
+          move(out, Math.max(0, (int) (first - space)), y, resolution);
         }
       }
       dirRight = !dirRight;
     }
-    return result.toByteArray();
+  }
+
+  private transient GrblStreamer streamer;
+  private static final long STARTUP_TIMEOUT = 3000;
+
+  /**
+   * Returns the streamer of the current or last job, which can be
+   * asked for the progress and throughput of the transfer, or null
+   * if no job was sent yet.
+   */
+  public GrblStreamer getStreamer() {
+    return streamer;
   }
 
   @Override
@@ -434,9 +657,6 @@ public class Grbl extends LaserCutter {
     pl.progressChanged(this, 0);
     this.currentPower = -1;
     this.currentSpeed = -1;
-    BufferedOutputStream out;
-    BufferedInputStream in;
-    PrintStream outStrings;
 
     pl.taskChanged(this, "checking job");
     checkJob(job);
@@ -474,81 +694,64 @@ public class Grbl extends LaserCutter {
     SerialPort port = (SerialPort) tmp;
     port.setFlowControlMode(SerialPort.FLOWCONTROL_RTSCTS_OUT | SerialPort.FLOWCONTROL_RTSCTS_OUT);
     port.setSerialPortParams(this.comBaud, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
-    out = new BufferedOutputStream(port.getOutputStream(), UART_BYTE_CHUNK_SIZE);
-    in = new BufferedInputStream(port.getInputStream());
-
-    // add a PrintStream class wrapper around BufferedOutputStream to allow easy string printing.
-    outStrings = new PrintStream(out);
-
-    pl.taskChanged(this, "sending");
-    // convert the ';' to newline and append a newline
-    outStrings.print(this.jobPreGCode.replaceAll(";", "\n") + "\n");
-    pl.progressChanged(this, 20);
-    int i = 0;
-    int max = job.getParts().size();
-    for (JobPart p : job.getParts())
-    {
-      byte[] gcode_stream = null;
-      int offset = 0;
-      int stride = UART_BYTE_CHUNK_SIZE / 2;
-
-      if (p instanceof Raster3dPart)
-      {
-        gcode_stream = this.generatePseudoRaster3dGCode((Raster3dPart) p, p.getDPI());
-      }
-      else if (p instanceof RasterPart)
+    GrblStreamer streamer = new GrblStreamer(port.getInputStream(), new BufferedOutputStream(port.getOutputStream()));
+    this.streamer = streamer;
+    PrintStream out = new PrintStream(streamer.getOutputStream(), false, "US-ASCII");
+    try {
+      streamer.start();
+      if (waitForWelcome)
       {
-        gcode_stream = this.generatePseudoRasterGCode((RasterPart) p, p.getDPI());
+        //opening the port may have reset the board
+        streamer.waitForWelcome(STARTUP_TIMEOUT);
       }
-      else if (p instanceof VectorPart)
+      else
       {
-        gcode_stream = this.generateVectorGCode((VectorPart) p, p.getDPI());
+        streamer.checkAlive(STARTUP_TIMEOUT);
       }
-
-      if (gcode_stream == null)
+      pl.taskChanged(this, "sending");
+      // convert the ';' to newline
+      streamer.send(this.jobPreGCode.replaceAll(";", "\n") + "\n");
+      pl.progressChanged(this, 20);
+      int i = 0;
+      int max = job.getParts().size();
+      for (JobPart p : job.getParts())
       {
-        throw new Exception("Unknown job type!");
-      }
-
-      //send the gcode stream out the serial port in a controlled way
-      while(gcode_stream.length > (offset + 1)) {
-        int loopct;
-
-        //FIXME: this should be a timer
-        for (loopct = 0; loopct < MAX_CTS_LOOPS; loopct++) {
-          if (port.isCTS())
-            break;
+        //the code is sent while it is generated, Grbl's receive buffer
+        //is kept full and the lines are sent as soon as it has room
+        if (p instanceof Raster3dPart)
+        {
+          this.writePseudoRaster3dGCode((Raster3dPart) p, p.getDPI(), out);
         }
-
-        if (loopct == MAX_CTS_LOOPS) {
-            outStrings.close();
-            out.close();
-            port.close();
-            pl.taskChanged(this, "CTS timeout");
-            throw new Exception("Error: COM port ClearToSend never signaled!");
+        else if (p instanceof RasterPart)
+        {
+          this.writePseudoRasterGCode((RasterPart) p, p.getDPI(), out);
         }
-
-        if ((gcode_stream.length - (offset + 1)) < stride) {
-          stride = gcode_stream.length - (offset + 1);
+        else if (p instanceof VectorPart)
+        {
+          this.writeVectorGCode((VectorPart) p, p.getDPI(), out);
         }
-
-        out.write(gcode_stream, offset, stride);
-        offset += stride;
-
-        //FIXME: should check port input for error ; for now keep it empty
-        if (in.available() > 0)
-            in.read();
-       }
-       // Progress reflects subjobs
-       i++;
-       pl.progressChanged(this, 20 + (int) (i*(double) 60/max));
+        else
+        {
+          throw new Exception("Unknown job type!");
+        }
+        //if writing failed, the streamer knows why
+        streamer.checkFailure();
+        Util.checkError(out);
+        // Progress reflects subjobs
+        i++;
+        pl.progressChanged(this, 20 + (int) (i*(double) 60/max));
+      }
+      pl.taskChanged(this, "finishing");
+      // convert the ';' to newline
+      streamer.send(this.jobPostGCode.replaceAll(";", "\n") + "\n");
+      streamer.finish();
+    } catch (IOException e) {
+      pl.taskChanged(this, "Error: " + e.getMessage());
+      throw e;
+    } finally {
+      streamer.close();
+      port.close();
     }
-    pl.taskChanged(this, "finishing");
-    // convert the ';' to newline and insert + append a newline
-    outStrings.print("\n" + this.jobPostGCode.replaceAll(";", "\n") + "\n");
-    outStrings.close();
-    out.close();
-    port.close();
     pl.taskChanged(this, "sent.");
     pl.progressChanged(this, 100);
   }
@@ -612,6 +815,12 @@ public class Grbl extends LaserCutter {
     SETTING_LASER_RATE,
     SETTING_SEEK_RATE,
     SETTING_RASTER_WHITESPACE,
+    SETTING_RASTER_GAP_BRIDGING,
+    SETTING_RASTER3D_POWER_STEPS,
+    SETTING_RASTER3D_MAX_SEGMENTS,
+    SETTING_RELATIVE_VECTORS,
+    SETTING_ARC_TOLERANCE,
+    SETTING_WAIT_FOR_WELCOME,
     SETTING_JOB_PRE_GCODE,
     SETTING_JOB_POST_GCODE
   };
@@ -625,6 +834,18 @@ public class Grbl extends LaserCutter {
   public Object getProperty(String attribute) {
     if (SETTING_RASTER_WHITESPACE.equals(attribute)) {
       return this.getAddSpacePerRasterLine();
+    } else if (SETTING_RASTER_GAP_BRIDGING.equals(attribute)) {
+      return this.getRasterGapBridging();
+    } else if (SETTING_RASTER3D_POWER_STEPS.equals(attribute)) {
+      return this.getRaster3dPowerSteps();
+    } else if (SETTING_RASTER3D_MAX_SEGMENTS.equals(attribute)) {
+      return this.getRaster3dMaxSegments();
+    } else if (SETTING_RELATIVE_VECTORS.equals(attribute)) {
+      return this.isRelativeVectors();
+    } else if (SETTING_ARC_TOLERANCE.equals(attribute)) {
+      return this.getArcTolerance();
+    } else if (SETTING_WAIT_FOR_WELCOME.equals(attribute)) {
+      return this.isWaitForWelcome();
     } else if (SETTING_COMPORT.equals(attribute)) {
       return this.getComPort();
     } else if (SETTING_COMBAUD.equals(attribute)) {
@@ -651,6 +872,18 @@ public class Grbl extends LaserCutter {
   public void setProperty(String attribute, Object value) {
     if (SETTING_RASTER_WHITESPACE.equals(attribute)) {
       this.setAddSpacePerRasterLine((Double) value);
+    } else if (SETTING_RASTER_GAP_BRIDGING.equals(attribute)) {
+      this.setRasterGapBridging((Integer) value);
+    } else if (SETTING_RASTER3D_POWER_STEPS.equals(attribute)) {
+      this.setRaster3dPowerSteps((Integer) value);
+    } else if (SETTING_RASTER3D_MAX_SEGMENTS.equals(attribute)) {
+      this.setRaster3dMaxSegments((Integer) value);
+    } else if (SETTING_RELATIVE_VECTORS.equals(attribute)) {
+      this.setRelativeVectors((Boolean) value);
+    } else if (SETTING_ARC_TOLERANCE.equals(attribute)) {
+      this.setArcTolerance((Double) value);
+    } else if (SETTING_WAIT_FOR_WELCOME.equals(attribute)) {
+      this.setWaitForWelcome((Boolean) value);
     } else if (SETTING_COMPORT.equals(attribute)) {
       this.setComPort((String) value);
     } else if (SETTING_COMBAUD.equals(attribute)) {
@@ -679,6 +912,12 @@ public class Grbl extends LaserCutter {
     clone.bedWidth = bedWidth;
     clone.flipXaxis = flipXaxis;
     clone.addSpacePerRasterLine = addSpacePerRasterLine;
+    clone.rasterGapBridging = rasterGapBridging;
+    clone.raster3dPowerSteps = raster3dPowerSteps;
+    clone.raster3dMaxSegments = raster3dMaxSegments;
+    clone.relativeVectors = relativeVectors;
+    clone.arcTolerance = arcTolerance;
+    clone.waitForWelcome = waitForWelcome;
     clone.jobPreGCode = jobPreGCode;
     clone.jobPostGCode = jobPostGCode;
     return clone;
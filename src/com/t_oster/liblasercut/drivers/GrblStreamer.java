@@ -0,0 +1,425 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.drivers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+/**
+ * Streams G-code to Grbl with the character counting protocol:
+ * Grbl has a serial receive buffer of 128 bytes and answers every line
+ * with "ok" or "error:..." as soon as it has taken the line out of
+ * this buffer. The streamer counts the bytes of all lines which have
+ * not been answered yet and sends the next line as soon as it fits,
+ * so the buffer stays full without ever overflowing.
+ * The replies are read by a separate thread. An "error" or "ALARM"
+ * reply aborts the stream with an IOException, as does a controller,
+ * which does not reply at all within the reply timeout. While waiting,
+ * Grbl is asked for its status, so a long running move does not look
+ * like a dead connection.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class GrblStreamer {
+
+  public static final int DEFAULT_RX_BUFFER_SIZE = 128;
+  public static final long DEFAULT_REPLY_TIMEOUT = 10000;
+  private static final int SOFT_RESET = 0x18;
+  private final InputStream in;
+  private final OutputStream out;
+  private final int rxBufferSize;
+  /**
+   * Lengths and texts of the lines sent but not acknowledged yet
+   */
+  private final LinkedList<Integer> pendingLengths = new LinkedList<Integer>();
+  private final LinkedList<String> pendingLines = new LinkedList<String>();
+  private int bytesInFlight = 0;
+  private long bytesSent = 0;
+  private long linesSent = 0;
+  private long linesAcknowledged = 0;
+  private long startTime = 0;
+  private long lastAckTime = 0;
+  private long lastReplyTime = 0;
+  private long lastStatusRequest = 0;
+  private long replyTimeout = DEFAULT_REPLY_TIMEOUT;
+  private boolean welcomed = false;
+  private long replies = 0;
+  private IOException failure = null;
+  private boolean closed = false;
+  private Thread reader;
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+
+  public GrblStreamer(InputStream in, OutputStream out) {
+    this(in, out, DEFAULT_RX_BUFFER_SIZE);
+  }
+
+  /**
+   * @param in the replies of Grbl
+   * @param out the stream to Grbl
+   * @param rxBufferSize the size of Grbl's receive buffer
+   */
+  public GrblStreamer(InputStream in, OutputStream out, int rxBufferSize) {
+    this.in = in;
+    this.out = out;
+    this.rxBufferSize = rxBufferSize;
+  }
+
+  public synchronized long getReplyTimeout() {
+    return replyTimeout;
+  }
+
+  /**
+   * Sets the time in ms, after which the stream fails if Grbl did not
+   * reply anything (not even to a status request)
+   */
+  public synchronized void setReplyTimeout(long replyTimeout) {
+    this.replyTimeout = replyTimeout;
+  }
+
+  /**
+   * Starts the thread reading the replies. Has to be called before
+   * anything is sent.
+   */
+  public synchronized void start() {
+    if (reader != null) {
+      return;
+    }
+    startTime = System.currentTimeMillis();
+    lastReplyTime = startTime;
+    reader = new Thread("Grbl reply reader") {
+      @Override
+      public void run() {
+        readReplies();
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void readReplies() {
+    StringBuilder reply = new StringBuilder();
+    try {
+      int c;
+      while ((c = in.read()) != -1) {
+        if (c == '\n') {
+          handleReply(reply.toString().trim());
+          reply.setLength(0);
+        } else if (c != '\r') {
+          reply.append((char) c);
+        }
+      }
+      fail(new IOException("Connection to Grbl closed"));
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private synchronized void handleReply(String reply) {
+    if (reply.length() > 0) {
+      lastReplyTime = System.currentTimeMillis();
+      replies++;
+      notifyAll();
+    }
+    if (reply.startsWith("Grbl ")) {
+      welcomed = true;
+    } else if (reply.startsWith("ok")) {
+      acknowledge();
+    } else if (reply.startsWith("error")) {
+      String failed = acknowledge();
+      fail(new IOException("Grbl reported '" + reply + "' for line '" + failed + "'"));
+    } else if (reply.startsWith("ALARM")) {
+      fail(new IOException("Grbl reported '" + reply + "'"));
+    }
+    //everything else (status reports, messages, ...) is ignored
+  }
+
+  private String acknowledge() {
+    if (pendingLengths.isEmpty()) {
+      return null;
+    }
+    bytesInFlight -= pendingLengths.removeFirst();
+    linesAcknowledged++;
+    lastAckTime = System.currentTimeMillis();
+    notifyAll();
+    return pendingLines.removeFirst();
+  }
+
+  private synchronized void fail(IOException e) {
+    if (failure == null && !closed) {
+      failure = e;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Throws the exception, which aborted the stream, if any
+   */
+  public synchronized void checkFailure() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Checks if the controller is running by asking for its status and
+   * waiting for any reply. Nothing is reset, so this works for boards,
+   * which do not reset when the port is opened (e.g. Smoothieboard) and
+   * for firmwares with another welcome message. A board, which was reset
+   * by opening the port, answers with its welcome message as soon as it
+   * has started. Has to be called before anything is sent.
+   * @param timeout the time to wait for a reply (in ms)
+   */
+  public void checkAlive(long timeout) throws IOException {
+    long before;
+    synchronized (this) {
+      before = replies;
+    }
+    out.write('?');
+    out.flush();
+    synchronized (this) {
+      long deadline = System.currentTimeMillis() + timeout;
+      long now;
+      while (failure == null && replies == before && (now = System.currentTimeMillis()) < deadline) {
+        try {
+          wait(deadline - now);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for Grbl");
+        }
+      }
+      checkFailure();
+      if (replies == before) {
+        throw new IOException("Grbl did not answer to a status request within " + timeout + " ms");
+      }
+    }
+  }
+
+  /**
+   * Waits for the welcome message, which Grbl sends after a reset.
+   * Opening the serial port resets most Arduino based boards and lines
+   * sent before the reset is over are lost. If there is no welcome
+   * message within the timeout (because the port did not reset the
+   * board), Grbl is reset by software and has to answer within another
+   * timeout. Only for real Grbl boards: other firmwares have another
+   * welcome message and may halt on a soft reset (Smoothieware does),
+   * use checkAlive for them. Has to be called before anything is sent.
+   * @param timeout the time to wait (in ms) each time
+   */
+  public void waitForWelcome(long timeout) throws IOException {
+    synchronized (this) {
+      if (awaitWelcome(timeout)) {
+        return;
+      }
+    }
+    out.write(SOFT_RESET);
+    out.flush();
+    synchronized (this) {
+      if (!awaitWelcome(timeout)) {
+        checkFailure();
+        throw new IOException("Grbl did not answer to a reset within " + timeout + " ms");
+      }
+    }
+  }
+
+  private boolean awaitWelcome(long timeout) throws IOException {
+    long deadline = System.currentTimeMillis() + timeout;
+    long now;
+    while (failure == null && !welcomed && (now = System.currentTimeMillis()) < deadline) {
+      try {
+        wait(deadline - now);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for Grbl");
+      }
+    }
+    return welcomed;
+  }
+
+  /**
+   * Sends one line. Blocks until Grbl's receive buffer has room for it.
+   * Empty lines are skipped.
+   * @param text the line without line break
+   */
+  public void sendLine(String text) throws IOException {
+    text = text.trim();
+    if (text.length() == 0) {
+      return;
+    }
+    byte[] bytes = (text + "\n").getBytes("US-ASCII");
+    synchronized (this) {
+      //a line longer than the buffer can only be sent into an empty one
+      int needed = Math.min(bytes.length, rxBufferSize);
+      while (failure == null && bytesInFlight + needed > rxBufferSize) {
+        waitForReply();
+      }
+      checkFailure();
+      if (pendingLengths.isEmpty()) {
+        //the time without anything to answer does not count
+        lastReplyTime = System.currentTimeMillis();
+      }
+      pendingLengths.addLast(bytes.length);
+      pendingLines.addLast(text);
+      bytesInFlight += bytes.length;
+      linesSent++;
+      bytesSent += bytes.length;
+    }
+    out.write(bytes);
+    out.flush();
+  }
+
+  /**
+   * Sends data[offset] to data[offset+length-1] line by line
+   */
+  public void send(byte[] data, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; i++) {
+      if (data[i] == '\n') {
+        sendLine(line.toString("US-ASCII"));
+        line.reset();
+      } else {
+        line.write(data[i]);
+      }
+    }
+  }
+
+  public void send(byte[] data) throws IOException {
+    send(data, 0, data.length);
+  }
+
+  /**
+   * Returns a stream, which sends everything written to it
+   * like send(byte[], int, int)
+   */
+  public OutputStream getOutputStream() {
+    return new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        send(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        send(b, off, len);
+      }
+    };
+  }
+
+  /**
+   * Sends the text, where lines are separated by '\n'
+   */
+  public void send(String text) throws IOException {
+    send(text.getBytes("US-ASCII"));
+  }
+
+  /**
+   * Waits for the next reply. If there was no reply for the reply
+   * timeout, the stream fails. After half of it, Grbl is asked for its
+   * status (a realtime command, which does not use the receive buffer).
+   */
+  private void waitForReply() throws IOException {
+    if (closed) {
+      throw new IOException("Grbl streamer closed");
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastReplyTime >= replyTimeout) {
+      fail(new IOException("Grbl did not reply within " + replyTimeout + " ms"));
+      return;
+    }
+    long poll = Math.max(lastReplyTime, lastStatusRequest) + replyTimeout / 2;
+    if (now >= poll) {
+      out.write('?');
+      out.flush();
+      lastStatusRequest = now;
+      poll = now + replyTimeout / 2;
+    }
+    try {
+      wait(Math.max(1, Math.min(poll, lastReplyTime + replyTimeout) - now));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for Grbl");
+    }
+  }
+
+  /**
+   * Sends a last unterminated line if any and waits until Grbl has
+   * acknowledged all lines
+   */
+  public void finish() throws IOException {
+    if (line.size() > 0) {
+      sendLine(line.toString("US-ASCII"));
+      line.reset();
+    }
+    synchronized (this) {
+      while (failure == null && !pendingLengths.isEmpty()) {
+        waitForReply();
+      }
+      checkFailure();
+    }
+  }
+
+  /**
+   * Stops reading replies. The streams are not closed.
+   */
+  public synchronized void close() {
+    closed = true;
+    if (reader != null) {
+      reader.interrupt();
+    }
+    notifyAll();
+  }
+
+  /**
+   * Returns the number of bytes sent so far
+   */
+  public synchronized long getBytesSent() {
+    return bytesSent;
+  }
+
+  /**
+   * Returns the number of lines sent so far
+   */
+  public synchronized long getLinesSent() {
+    return linesSent;
+  }
+
+  /**
+   * Returns the number of lines Grbl has answered
+   */
+  public synchronized long getLinesAcknowledged() {
+    return linesAcknowledged;
+  }
+
+  /**
+   * Returns the number of bytes sent but not acknowledged yet
+   */
+  public synchronized int getBytesInFlight() {
+    return bytesInFlight;
+  }
+
+  /**
+   * Returns the acknowledged bytes per second since start()
+   */
+  public synchronized double getThroughput() {
+    long acknowledged = bytesSent - bytesInFlight;
+    long elapsed = (pendingLengths.isEmpty() ? lastAckTime : System.currentTimeMillis()) - startTime;
+    return elapsed > 0 ? 1000d * acknowledged / elapsed : 0;
+  }
+}
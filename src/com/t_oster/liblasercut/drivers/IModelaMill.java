@@ -27,19 +27,17 @@ import com.t_oster.liblasercut.LaserProperty;
 import com.t_oster.liblasercut.ProgressListener;
 import com.t_oster.liblasercut.Raster3dPart;
 import com.t_oster.liblasercut.RasterPart;
-import com.t_oster.liblasercut.VectorCommand;
 import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.NioSocketTransport;
 import com.t_oster.liblasercut.platform.Point;
 import com.t_oster.liblasercut.platform.Util;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -130,12 +128,14 @@ public class IModelaMill extends LaserCutter
   {
     if (headdepth > depth)
     {//move up fast
-      out.println(String.format(Locale.ENGLISH, "G00 Z%f%s\n", -depth, parameters));
+      getCommandWriter().append("G00 Z").append(-depth).append(parameters).append('\n').writeTo(out);
+      out.println();
       parameters = "";
     }
     else if (headdepth < depth)
     {//move down slow
-      out.println(String.format(Locale.ENGLISH, "G01 Z%f%s\n", -depth, parameters));
+      getCommandWriter().append("G01 Z").append(-depth).append(parameters).append('\n').writeTo(out);
+      out.println();
       parameters = "";
     }
     headdepth = depth;
@@ -146,7 +146,7 @@ public class IModelaMill extends LaserCutter
     moveHead(out, movedepth);
     //TODO: check if last command was also move and lies on the 
     //same line. If so, replace the last move command
-    out.print(String.format(Locale.ENGLISH, "G00 X%f Y%f%s\n", x, properties.get(FLIP_YAXIS) == Boolean.TRUE ? getBedHeight()-y : y, parameters));
+    getCommandWriter().append("G00 X").append(x).append(" Y").append(properties.get(FLIP_YAXIS) == Boolean.TRUE ? getBedHeight()-y : y).append(parameters).append('\n').writeTo(out);
     parameters = "";
   }
   
@@ -156,7 +156,7 @@ public class IModelaMill extends LaserCutter
     moveHead(out, linedepth);
     //TODO: check if last command was also line and lies on the 
     //same line. If so, replace the last move command
-    out.print(String.format(Locale.ENGLISH, "G01 X%f Y%f%s\n", x, properties.get(FLIP_YAXIS) == Boolean.TRUE ? getBedHeight()-y : y, parameters));
+    getCommandWriter().append("G01 X").append(x).append(" Y").append(properties.get(FLIP_YAXIS) == Boolean.TRUE ? getBedHeight()-y : y).append(parameters).append('\n').writeTo(out);
     parameters = "";
   }
   
@@ -204,17 +204,21 @@ public class IModelaMill extends LaserCutter
     return black/count;
   }
   
-  private double getAverageGrey(Raster3dPart p, int cx, int cy, int toolDiameter)
+  /*
+   * line has to be at least p.getRasterWidth() bytes long and
+   * is used as scratch buffer for the raster lines
+   */
+  private double getAverageGrey(Raster3dPart p, int cx, int cy, int toolDiameter, byte[] line)
   {
     double count = toolDiameter*toolDiameter;
     double value = 0;
     for (int y = Math.max(cy-toolDiameter/2, 0); y < Math.min(cy+toolDiameter/2, p.getRasterHeight()); y++)
     {
-      List<Byte> line = p.getRasterLine(y);
+      p.getRasterLine(y, line);
       for (int x = Math.max(cx-toolDiameter/2, 0); x < Math.min(cx+toolDiameter/2, p.getRasterWidth()); x++)
       {
       
-        value += line.get(x);
+        value += line[x];
       }
     }
     return (value/count)/255;
@@ -268,6 +272,7 @@ public class IModelaMill extends LaserCutter
     int toolDiameterInPx = (int) Util.mm2px(prop.getToolDiameter(), dpi);
     applyProperty(out, prop);
     boolean leftToRight = true;
+    byte[] line = new byte[p.getRasterWidth()];
     Point offset = p.getRasterStart();
     move(out, Util.px2mm(offset.x, dpi), Util.px2mm(offset.y, dpi));
     for (int y = 0; y < p.getRasterHeight(); y+= toolDiameterInPx/2)
@@ -277,9 +282,9 @@ public class IModelaMill extends LaserCutter
         x += leftToRight ? 1 : -1)
       {
         //scale the depth according to the average grey value
-        linedepth = getAverageGrey(p, x, y, toolDiameterInPx)*prop.getDepth();
+        linedepth = getAverageGrey(p, x, y, toolDiameterInPx, line)*prop.getDepth();
         //skip intermediate line commands
-        while((leftToRight && x+1 < p.getRasterWidth()) || (!leftToRight && x-1 >= 0) && getAverageGrey(p, leftToRight ? x+1 : x-1, y, toolDiameterInPx) == linedepth)
+        while((leftToRight && x+1 < p.getRasterWidth()) || (!leftToRight && x-1 >= 0) && getAverageGrey(p, leftToRight ? x+1 : x-1, y, toolDiameterInPx, line) == linedepth)
         {
           x+= leftToRight ? 1 : -1;
         }
@@ -293,27 +298,27 @@ public class IModelaMill extends LaserCutter
   private void writeVectorCode(VectorPart p, PrintStream out)
   {
     double dpi = p.getDPI();
-    for (VectorCommand c : p.getCommandList())
+    for (int i = 0; i < p.getCommandCount(); i++)
     {
-      switch (c.getType())
+      switch (p.getCommandType(i))
       {
         case MOVETO:
         {
-          double x = Util.px2mm(c.getX(), dpi);
-          double y = getBedHeight() - Util.px2mm(c.getY(), dpi); //mill origin is bottom left, so we have to mirror y coordinates
+          double x = Util.px2mm(p.getX(i), dpi);
+          double y = getBedHeight() - Util.px2mm(p.getY(i), dpi); //mill origin is bottom left, so we have to mirror y coordinates
           move(out, x, y);
           break;
         }
         case LINETO:
         {
-          double x = Util.px2mm(c.getX(), dpi);
-          double y = getBedHeight() - Util.px2mm(c.getY(), dpi); //mill origin is bottom left, so we have to mirror y coordinates
+          double x = Util.px2mm(p.getX(i), dpi);
+          double y = getBedHeight() - Util.px2mm(p.getY(i), dpi); //mill origin is bottom left, so we have to mirror y coordinates
           line(out, x, y);
           break;
         }
         case SETPROPERTY:
         {
-          IModelaProperty pr = (IModelaProperty) c.getProperty();
+          IModelaProperty pr = (IModelaProperty) p.getProperty(i);
           applyProperty(out, pr);
           break;
         }
@@ -345,36 +350,79 @@ public class IModelaMill extends LaserCutter
     pl.taskChanged(this, "checking...");
     checkJob(job);
     pl.progressChanged(this, 20);
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
-    pl.taskChanged(this, "generating...");
-    writeInitializationCode(out);
-    double all = job.getParts().size();
-    int i = 1;
-    for (JobPart p : job.getParts())
+    String hostname = (String) properties.get(HOSTNAME);
+    pl.taskChanged(this, "connecting...");
+    //the code is sent while it is generated, except for printer://
+    //where it is spooled to a temporary file which is passed to lp
+    File tempFile = null;
+    OutputStream target;
+    if ("stdout".equals(hostname))
+    {
+      target = System.out;
+    }
+    else if (hostname.startsWith("file://"))
+    {
+      target = new FileOutputStream(new File(new URI(hostname)));
+    }
+    else if (hostname.startsWith("printer://"))
+    {
+      tempFile = File.createTempFile(hostname.substring(10), ".txt");
+      target = new FileOutputStream(tempFile);
+    }
+    else
+    {
+      NioSocketTransport s = new NioSocketTransport(hostname, (Integer) properties.get(PORT), 3000, 0);
+      target = s.getOutputStream();
+    }
+    PrintStream out = new PrintStream(new BufferedOutputStream(target), false, "US-ASCII");
+    try
     {
-      if (p instanceof VectorPart)
+      pl.taskChanged(this, "sending...");
+      writeInitializationCode(out);
+      double all = job.getParts().size();
+      int i = 1;
+      for (JobPart p : job.getParts())
       {
-        writeVectorCode((VectorPart) p, out);
+        if (p instanceof VectorPart)
+        {
+          writeVectorCode((VectorPart) p, out);
+        }
+        else if (p instanceof RasterPart)
+        {
+          writeRasterCode((RasterPart) p, out);
+        }
+        else if (p instanceof Raster3dPart)
+        {
+          writeRaster3dCode((Raster3dPart) p, out);
+        }
+        Util.checkError(out);
+        pl.progressChanged(this, (int) (20+70*i++/all));
       }
-      else if (p instanceof RasterPart)
+      writeFinalizationCode(out);
+      Util.checkError(out);
+    }
+    finally
+    {
+      if (target == System.out)
       {
-        writeRasterCode((RasterPart) p, out);
+        out.flush();
       }
-      else if (p instanceof Raster3dPart)
+      else
       {
-        writeRaster3dCode((Raster3dPart) p, out);
+        out.close();
       }
-      pl.progressChanged(this, (int) (20+30*i++/all));
     }
-    writeFinalizationCode(out);
-    pl.progressChanged(this, 50);
-    pl.taskChanged(this, "sending...");
-    sendGCode(result.toByteArray(), pl, warnings);
+    if (tempFile != null)
+    {
+      String printername = hostname.substring(10);
+      System.out.println("tempFile: "+ tempFile.getAbsolutePath());
+      Runtime.getRuntime().exec("/usr/bin/lp -d "+printername+" "+tempFile.getAbsolutePath());
+    }
     pl.progressChanged(this, 100);
     pl.taskChanged(this, "done");
   }
 
+
   @Override
   public List<Double> getResolutions()
   {
@@ -438,51 +486,4 @@ public class IModelaMill extends LaserCutter
     return properties.get(key);
   }
 
-  private void sendGCode(byte[] gcode, ProgressListener pl, List<String> warnings) throws IOException, URISyntaxException
-  {
-    String hostname = (String) properties.get(HOSTNAME);
-    pl.taskChanged(this, "connecting...");
-    if ("stdout".equals(hostname))
-    {
-      pl.taskChanged(this, "sending...");
-      System.out.write(gcode);
-    }
-    else if (hostname.startsWith("file://"))
-    {
-      PrintStream w = new PrintStream(new FileOutputStream(new File(new URI(hostname))));
-      pl.taskChanged(this, "sending...");
-      w.write(gcode);
-      w.close();
-    }
-    else if (hostname.startsWith("printer://"))
-    {
-        String printername = hostname.substring(10);
-        try
-        {
-            File tempFile = File.createTempFile(printername, ".txt");
-            PrintStream w = new PrintStream(new FileOutputStream(tempFile));
-            pl.taskChanged(this, "sending...");
-            
-            w.write(gcode);
-            System.out.println("tempFile: "+ tempFile.getAbsolutePath());
-            
-            Runtime.getRuntime().exec("/usr/bin/lp -d "+printername+" "+tempFile.getAbsolutePath());
-        }
-        catch(IOException ex)
-        {
-            System.err.println("Cannot create temp file: " + ex.getMessage());
-            
-        }
-        
-    }
-    else
-    {
-      Socket s = new Socket();
-      s.connect(new InetSocketAddress(hostname, (Integer) properties.get(PORT)), 3000);
-      pl.taskChanged(this, "sending...");
-      s.getOutputStream().write(gcode);
-      s.close();
-    }
-  }
-
 }
@@ -0,0 +1,180 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.drivers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Encodes LAOS commands in a compact binary form instead of
+ * decimal ASCII lines. The command set is the same.
+ *
+ * A file starts with the magic bytes "LAOSBIN" and a version byte (1).
+ * Each command is its opcode as unsigned varint, followed by its arguments:
+ * <pre>
+ * 0 x y, 1 x y     move, line: x and y as zigzag varint delta to the
+ *                  previous move or line (starting at 0,0)
+ * 2 z              focus: zigzag varint
+ * 7 key value      setting: unsigned varint key, zigzag varint value
+ * 9 type bits d... bitmap: unsigned varints type and bits, followed by
+ *                  (bits+31)/32 dwords of 4 bytes each, little endian
+ * 201..204 value   bounding box: zigzag varint
+ * </pre>
+ * Varints are 7 bits per byte, least significant group first, with the
+ * high bit set on all but the last byte. Zigzag maps 0,-1,1,-2,... to
+ * 0,1,2,3,...
+ *
+ * Like AsciiCommandWriter, a command is built into a reusable buffer
+ * and then written with writeTo.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+class LaosBinaryWriter
+{
+
+  public static final byte[] MAGIC = new byte[]{'L', 'A', 'O', 'S', 'B', 'I', 'N', 1};
+  private byte[] buffer = new byte[64];
+  private int length = 0;
+  private int lastX = 0;
+  private int lastY = 0;
+
+  private void ensureCapacity(int additional)
+  {
+    if (length + additional > buffer.length)
+    {
+      byte[] bigger = new byte[Math.max(buffer.length * 2, length + additional)];
+      System.arraycopy(buffer, 0, bigger, 0, length);
+      buffer = bigger;
+    }
+  }
+
+  private void appendVarint(int value)
+  {
+    ensureCapacity(5);
+    while ((value & ~0x7F) != 0)
+    {
+      buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[length++] = (byte) value;
+  }
+
+  private void appendSigned(int value)
+  {
+    appendVarint((value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * Appends the magic bytes and resets the position the
+   * coordinates are relative to. Has to start every file.
+   */
+  public LaosBinaryWriter header()
+  {
+    ensureCapacity(MAGIC.length);
+    System.arraycopy(MAGIC, 0, buffer, length, MAGIC.length);
+    length += MAGIC.length;
+    lastX = 0;
+    lastY = 0;
+    return this;
+  }
+
+  /**
+   * Appends a command with one argument (focus, bounding box)
+   */
+  public LaosBinaryWriter command(int opcode, int value)
+  {
+    appendVarint(opcode);
+    appendSigned(value);
+    return this;
+  }
+
+  /**
+   * Appends a command with two arguments (move, line, setting)
+   */
+  public LaosBinaryWriter command(int opcode, int a, int b)
+  {
+    appendVarint(opcode);
+    if (opcode == 0 || opcode == 1)
+    {
+      appendSigned(a - lastX);
+      appendSigned(b - lastY);
+      lastX = a;
+      lastY = b;
+    }
+    else
+    {
+      appendVarint(a);
+      appendSigned(b);
+    }
+    return this;
+  }
+
+  /**
+   * Appends a bitmap command with the first count dwords of the array
+   */
+  public LaosBinaryWriter bitmap(int type, int[] dwords, int count)
+  {
+    appendVarint(9);
+    appendVarint(type);
+    appendVarint(32 * count);
+    ensureCapacity(4 * count);
+    for (int i = 0; i < count; i++)
+    {
+      int d = dwords[i];
+      buffer[length++] = (byte) d;
+      buffer[length++] = (byte) (d >>> 8);
+      buffer[length++] = (byte) (d >>> 16);
+      buffer[length++] = (byte) (d >>> 24);
+    }
+    return this;
+  }
+
+  /**
+   * Returns the number of bytes of the current command
+   */
+  public int length()
+  {
+    return length;
+  }
+
+  /**
+   * Writes the current command to out and clears it
+   */
+  public void writeTo(OutputStream out) throws IOException
+  {
+    try
+    {
+      out.write(buffer, 0, length);
+    }
+    finally
+    {
+      length = 0;
+    }
+  }
+
+  /**
+   * Writes the current command to out and clears it
+   */
+  public void writeTo(PrintStream out)
+  {
+    out.write(buffer, 0, length);
+    length = 0;
+  }
+}
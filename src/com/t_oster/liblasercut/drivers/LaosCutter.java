@@ -26,20 +26,26 @@ import com.t_oster.liblasercut.LaserProperty;
 import com.t_oster.liblasercut.ProgressListener;
 import com.t_oster.liblasercut.Raster3dPart;
 import com.t_oster.liblasercut.RasterPart;
-import com.t_oster.liblasercut.VectorCommand;
 import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.AsciiCommandWriter;
+import com.t_oster.liblasercut.platform.NioSocketTransport;
 import com.t_oster.liblasercut.platform.Point;
+import com.t_oster.liblasercut.platform.StepTransform;
+import com.t_oster.liblasercut.platform.TeeOutputStream;
 import com.t_oster.liblasercut.platform.Util;
 import java.io.*;
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import org.apache.commons.net.DefaultDatagramSocketFactory;
 import org.apache.commons.net.tftp.TFTP;
 import org.apache.commons.net.tftp.TFTPClient;
+import org.apache.commons.net.tftp.TFTPPacket;
 
 /**
  * This class implements a driver for the LAOS Lasercutter board.
@@ -59,12 +65,15 @@ public class LaosCutter extends LaserCutter
   private static final String SETTING_FLIPY = "Y axis goes bottom to top (yes/no)";
   private static final String SETTING_MMPERSTEP = "mm per Step (for SimpleMode)";
   private static final String SETTING_TFTP = "Use TFTP instead of TCP";
+  private static final String SETTING_BINARY = "Use binary command encoding (needs firmware support)";
   private static final String SETTING_RASTER_WHITESPACE = "Additional space per Raster line";
   private static final String SETTING_DEBUGFILE = "Debug output file";
   private static final String SETTING_SUPPORTS_PURGE = "Supports purge";
   private static final String SETTING_SUPPORTS_VENTILATION = "Supports ventilation";
   private static final String SETTING_SUPPORTS_FREQUENCY = "Supports frequency";
   private static final String SETTING_SUPPORTS_FOCUS = "Supports focus (Z-axis movement)";
+  /* Size of the pipe between generating and sending a job via TFTP */
+  private static final int TFTP_PIPE_SIZE = 16 * TFTPPacket.SEGMENT_SIZE;
 
   private boolean supportsFrequency = false;
 
@@ -117,6 +126,7 @@ public class LaosCutter extends LaserCutter
   //only kept for backwards compatibility. unused
   private transient boolean unidir = false;
   private String debugFilename = "";
+  private transient LaosBinaryWriter binaryWriter;
 
   @Override
   public LaosCutterProperty getLaserPropertyForVectorPart()
@@ -187,6 +197,28 @@ public class LaosCutter extends LaserCutter
   {
     this.useTftp = useTftp;
   }
+  protected boolean useBinaryEncoding = false;
+
+  /**
+   * Get the value of useBinaryEncoding
+   *
+   * @return the value of useBinaryEncoding
+   */
+  public boolean isUseBinaryEncoding()
+  {
+    return useBinaryEncoding;
+  }
+
+  /**
+   * Set the value of useBinaryEncoding. If true, the commands are
+   * written in the format of LaosBinaryWriter instead of ASCII lines
+   *
+   * @param useBinaryEncoding new value of useBinaryEncoding
+   */
+  public void setUseBinaryEncoding(boolean useBinaryEncoding)
+  {
+    this.useBinaryEncoding = useBinaryEncoding;
+  }
   protected boolean flipXaxis = false;
 
   /**
@@ -300,43 +332,96 @@ public class LaosCutter extends LaserCutter
     return (int) (Util.px2mm(px, dpi) / this.mmPerStep);
   }
 
-  private byte[] generateVectorGCode(VectorPart vp, double resolution) throws UnsupportedEncodingException
+  /**
+   * Returns the conversion from pixels at the given resolution to steps
+   * of the cutter. It is created once per part, so the coordinates are
+   * converted with integer arithmetic and rounded to the nearest step.
+   */
+  private StepTransform stepTransform(double resolution)
+  {
+    return StepTransform.fromPixels(resolution, 1 / this.mmPerStep, isFlipXaxis(), bedWidth, isFlipYaxis(), bedHeight);
+  }
+
+  private void writeVectorGCode(VectorPart vp, double resolution, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
-    for (VectorCommand cmd : vp.getCommandList())
+    StepTransform steps = stepTransform(resolution);
+    for (int i = 0; i < vp.getCommandCount(); i++)
     {
-      switch (cmd.getType())
+      switch (vp.getCommandType(i))
       {
         case MOVETO:
-          move(out, cmd.getX(), cmd.getY(), resolution);
+          move(out, vp.getX(i), vp.getY(i), steps);
           break;
         case LINETO:
-          line(out, cmd.getX(), cmd.getY(), resolution);
+          line(out, vp.getX(i), vp.getY(i), steps);
           break;
         case SETPROPERTY:
         {
-          this.setCurrentProperty(out, cmd.getProperty());
+          this.setCurrentProperty(out, vp.getProperty(i));
           break;
         }
       }
     }
-    return result.toByteArray();
   }
 
-  private void move(PrintStream out, float x, float y, double resolution)
+  private LaosBinaryWriter getBinaryWriter()
+  {
+    if (binaryWriter == null)
+    {
+      binaryWriter = new LaosBinaryWriter();
+    }
+    return binaryWriter;
+  }
+
+  /**
+   * Writes the command "opcode value" in the selected encoding
+   */
+  private void command(PrintStream out, int opcode, int value)
+  {
+    if (useBinaryEncoding)
+    {
+      getBinaryWriter().command(opcode, value).writeTo(out);
+    }
+    else
+    {
+      getCommandWriter().append(opcode).append(' ').append(value).append('\n').writeTo(out);
+    }
+  }
+
+  /**
+   * Writes the command "opcode a b" in the selected encoding
+   */
+  private void command(PrintStream out, int opcode, int a, int b)
   {
-    out.printf("0 %d %d\n", px2steps(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), px2steps(isFlipYaxis() ? Util.mm2px(bedHeight, resolution) - y : y, resolution));
+    if (useBinaryEncoding)
+    {
+      getBinaryWriter().command(opcode, a, b).writeTo(out);
+    }
+    else
+    {
+      getCommandWriter().append(opcode).append(' ').append(a).append(' ').append(b).append('\n').writeTo(out);
+    }
+  }
+
+  private void move(PrintStream out, int x, int y, StepTransform steps)
+  {
+    command(out, 0, steps.x(x), steps.y(y));
   }
 
-  private void loadBitmapLine(PrintStream out, List<Long> dwords)
+  private void loadBitmapLine(PrintStream out, int[] dwords, int count)
   {
-    out.printf("9 %s %s ", "1", ""+(dwords.size()*32));
-    for(Long d:dwords)
+    if (useBinaryEncoding)
+    {
+      getBinaryWriter().bitmap(1, dwords, count).writeTo(out);
+      return;
+    }
+    AsciiCommandWriter w = getCommandWriter();
+    w.append("9 1 ").append(32 * count).append(' ');
+    for (int i = 0; i < count; i++)
     {
-      out.printf(" "+d);
+      w.append(' ').append(0xFFFFFFFFL & dwords[i]);
     }
-    out.printf("\n");
+    w.append('\n').writeTo(out);
   }
 
   private float currentPower = -1;
@@ -344,7 +429,7 @@ public class LaosCutter extends LaserCutter
   {
     if (currentPower != power)
     {
-      out.printf("7 101 %d\n", (int) (power * 100));
+      command(out, 7, 101, (int) (power * 100));
       currentPower = power;
     }
   }
@@ -354,7 +439,7 @@ public class LaosCutter extends LaserCutter
   {
     if (currentSpeed != speed)
     {
-      out.printf("7 100 %d\n", (int) (speed * 100));
+      command(out, 7, 100, (int) (speed * 100));
       currentSpeed = speed;
     }
   }
@@ -364,7 +449,7 @@ public class LaosCutter extends LaserCutter
   {
     if (currentFrequency != frequency)
     {
-      out.printf("7 102 %d\n", frequency);
+      command(out, 7, 102, frequency);
       currentFrequency = frequency;
     }
   }
@@ -374,7 +459,7 @@ public class LaosCutter extends LaserCutter
   {
     if (currentFocus != focus)
     {
-      out.printf(Locale.US, "2 %d\n", (int) (focus/this.mmPerStep));
+      command(out, 2, (int) (focus/this.mmPerStep));
       currentFocus = focus;
     }
   }
@@ -384,7 +469,7 @@ public class LaosCutter extends LaserCutter
   {
     if (currentVentilation == null || !currentVentilation.equals(ventilation))
     {
-      out.printf(Locale.US, "7 6 %d\n", ventilation ? 1 : 0);
+      command(out, 7, 6, ventilation ? 1 : 0);
       currentVentilation = ventilation;
     }
   }
@@ -394,7 +479,7 @@ public class LaosCutter extends LaserCutter
   {
     if (currentPurge == null || !currentPurge.equals(purge))
     {
-      out.printf(Locale.US, "7 7 %d\n", purge ? 1 : 0);
+      command(out, 7, 7, purge ? 1 : 0);
       currentPurge = purge;
     }
   }
@@ -429,90 +514,84 @@ public class LaosCutter extends LaserCutter
     }
   }
 
-  private void line(PrintStream out, float x, float y, double resolution)
+  private void line(PrintStream out, int x, int y, StepTransform steps)
   {
-    out.printf("1 %d %d\n", px2steps(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), px2steps(isFlipYaxis() ? Util.mm2px(bedHeight, resolution) - y : y, resolution));
+    command(out, 1, steps.x(x), steps.y(y));
   }
 
-  private byte[] generatePseudoRaster3dGCode(Raster3dPart rp, double resolution) throws UnsupportedEncodingException
+  private void writePseudoRaster3dGCode(Raster3dPart rp, double resolution, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
+    StepTransform steps = stepTransform(resolution);
     boolean dirRight = true;
     Point rasterStart = rp.getRasterStart();
     LaosEngraveProperty prop = rp.getLaserProperty() instanceof LaosEngraveProperty ? (LaosEngraveProperty) rp.getLaserProperty() : new LaosEngraveProperty(rp.getLaserProperty());
     this.setCurrentProperty(out, prop);
     float maxPower = this.currentPower;
     boolean bu = prop.isEngraveBottomUp();
+    byte[] bytes = null;
     for (int line = bu ? rp.getRasterHeight()-1 : 0; bu ? line >= 0 : line < rp.getRasterHeight(); line += bu ? -1 : 1 )
     {
       Point lineStart = rasterStart.clone();
       lineStart.y += line;
-      List<Byte> bytes = rp.getRasterLine(line);
-      //remove heading zeroes
-      while (bytes.size() > 0 && bytes.get(0) == 0)
-      {
-        bytes.remove(0);
-        lineStart.x += 1;
-      }
-      //remove trailing zeroes
-      while (bytes.size() > 0 && bytes.get(bytes.size() - 1) == 0)
-      {
-        bytes.remove(bytes.size() - 1);
-      }
-      if (bytes.size() > 0)
+      bytes = rp.getRasterLine(line, bytes);
+      //skip heading and trailing zeroes
+      int first = Util.firstNonZero(bytes, rp.getRasterWidth());
+      if (first >= 0)
       {
+        int last = Util.lastNonZero(bytes, rp.getRasterWidth());
+        int size = last - first + 1;
+        lineStart.x += first;
         if (dirRight)
         {
           //move to the first nonempyt point of the line
-          move(out, lineStart.x, lineStart.y, resolution);
-          byte old = bytes.get(0);
-          for (int pix = 0; pix < bytes.size(); pix++)
+          move(out, lineStart.x, lineStart.y, steps);
+          byte old = bytes[first];
+          for (int pix = 0; pix < size; pix++)
           {
-            if (bytes.get(pix) != old)
+            if (bytes[first + pix] != old)
             {
               if (old == 0)
               {
-                move(out, lineStart.x + pix, lineStart.y, resolution);
+                move(out, lineStart.x + pix, lineStart.y, steps);
               }
               else
               {
                 setPower(out, maxPower * (0xFF & old) / 255);
-                line(out, lineStart.x + pix - 1, lineStart.y, resolution);
-                move(out, lineStart.x + pix, lineStart.y, resolution);
+                line(out, lineStart.x + pix - 1, lineStart.y, steps);
+                move(out, lineStart.x + pix, lineStart.y, steps);
               }
-              old = bytes.get(pix);
+              old = bytes[first + pix];
             }
           }
           //last point is also not "white"
-          setPower(out, maxPower * (0xFF & bytes.get(bytes.size() - 1)) / 255);
-          line(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
+          setPower(out, maxPower * (0xFF & bytes[last]) / 255);
+          line(out, lineStart.x + size - 1, lineStart.y, steps);
         }
         else
         {
           //move to the last nonempty point of the line
-          move(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
-          byte old = bytes.get(bytes.size() - 1);
-          for (int pix = bytes.size() - 1; pix >= 0; pix--)
+          move(out, lineStart.x + size - 1, lineStart.y, steps);
+          byte old = bytes[last];
+          for (int pix = size - 1; pix >= 0; pix--)
           {
-            if (bytes.get(pix) != old || pix == 0)
+            if (bytes[first + pix] != old || pix == 0)
             {
               if (old == 0)
               {
-                move(out, lineStart.x + pix, lineStart.y, resolution);
+                move(out, lineStart.x + pix, lineStart.y, steps);
               }
               else
               {
                 setPower(out, maxPower * (0xFF & old) / 255);
-                line(out, lineStart.x + pix + 1, lineStart.y, resolution);
-                move(out, lineStart.x + pix, lineStart.y, resolution);
+                line(out, lineStart.x + pix + 1, lineStart.y, steps);
+                move(out, lineStart.x + pix, lineStart.y, steps);
               }
-              old = bytes.get(pix);
+              old = bytes[first + pix];
             }
           }
           //last point is also not "white"
-          setPower(out, maxPower * (0xFF & bytes.get(0)) / 255);
-          line(out, lineStart.x, lineStart.y, resolution);
+          setPower(out, maxPower * (0xFF & bytes[first]) / 255);
+          line(out, lineStart.x, lineStart.y, steps);
         }
       }
       if (!prop.isEngraveUnidirectional())
@@ -520,7 +599,6 @@ public class LaosCutter extends LaserCutter
         dirRight = !dirRight;
       }
     }
-    return result.toByteArray();
   }
 
   /**
@@ -540,90 +618,145 @@ public class LaosCutter extends LaserCutter
    */
   public List<Long> byteLineToDwords(List<Byte> line, boolean outputLeftToRight)
   {
-    List<Long> result = new ArrayList<Long>();
-    int s = line.size();
-    for (int i=0;i<s;i++)
+    byte[] bytes = new byte[line.size()];
+    int i = 0;
+    for (Byte b : line)
     {
-      line.set(i, (byte) (Integer.reverse(0xFF&line.get(i))>>>24));
+      bytes[i++] = b;
     }
-    for(int i=0; i<s; i+=4)
+    return byteLineToDwords(bytes, 0, bytes.length, outputLeftToRight);
+  }
+
+  /**
+   * Same as byteLineToDwords(List, boolean) but takes the raster-line
+   * from line[offset] to line[offset+length-1]. The input is not modified.
+   * @param line
+   * @param offset
+   * @param length
+   * @param outputLeftToRight
+   * @return
+   */
+  public List<Long> byteLineToDwords(byte[] line, int offset, int length, boolean outputLeftToRight)
+  {
+    int[] dwords = new int[(length + 3) / 4];
+    int count = byteLineToDwords(line, offset, length, outputLeftToRight, dwords);
+    List<Long> result = new ArrayList<Long>(count);
+    for (int i = 0; i < count; i++)
     {
-      result.add(
-        (((long) (i+3 < s ? 0xFF&line.get(i+3) : 0))<<24)
-        + (((long) (i+2 < s ? 0xFF&line.get(i+2) : 0))<<16)
-        + (((long) (i+1 < s ? 0xFF&line.get(i+1) : 0))<<8)
-        + ((long) (0xFF&line.get(i)))
-        );
+      result.add(0xFFFFFFFFL & dwords[i]);
     }
-    if (!outputLeftToRight)
+    return result;
+  }
+
+  /**
+   * Same as byteLineToDwords(byte[], int, int, boolean) but writes the
+   * dwords into result, which has to hold at least (length+3)/4 ints.
+   * The ints are to be read as unsigned.
+   * @return the number of dwords written to result
+   */
+  public int byteLineToDwords(byte[] line, int offset, int length, boolean outputLeftToRight, int[] result)
+  {
+    ByteBuffer words = ByteBuffer.wrap(line);
+    int count = (length + 3) / 4;
+    int full = length / 4;
+    for (int i = 0; i < count; i++)
     {
-      Collections.reverse(result);
-      for(int i=0;i<result.size();i++)
+      //4 bytes with the leftmost byte in the highest bits
+      int word;
+      if (i < full)
       {
-        result.set(i, Long.reverse(result.get(i)) >>> 32);
+        word = words.getInt(offset + 4 * i);
+      }
+      else
+      {
+        word = 0;
+        for (int k = 4 * i; k < 4 * i + 4; k++)
+        {
+          word = (word << 8) | (k < length ? 0xFF & line[offset + k] : 0);
+        }
+      }
+      //reversing the whole word puts the leftmost bit into the LSB, which
+      //is the left-to-right representation. The right-to-left one is the
+      //bit reversed left-to-right dword, which is the word itself
+      if (outputLeftToRight)
+      {
+        result[i] = Integer.reverse(word);
+      }
+      else
+      {
+        result[count - 1 - i] = word;
       }
     }
-    return result;
+    return count;
   }
 
-  private byte[] generateLaosRasterCode(RasterPart rp, double resolution) throws UnsupportedEncodingException, IOException
+  private void writeLaosRasterCode(RasterPart rp, double resolution, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
+    StepTransform steps = stepTransform(resolution);
     boolean dirRight = true;
     Point rasterStart = rp.getRasterStart();
     LaosEngraveProperty prop = rp.getLaserProperty() instanceof LaosEngraveProperty ? (LaosEngraveProperty) rp.getLaserProperty() : new LaosEngraveProperty(rp.getLaserProperty());
     this.setCurrentProperty(out, prop);
     boolean bu = prop.isEngraveBottomUp();
+    byte[] bytes = null;
+    byte[] padded = new byte[0];
+    int[] dwords = new int[0];
     for (int line = bu ? rp.getRasterHeight()-1 : 0; bu ? line >= 0 : line < rp.getRasterHeight(); line += bu ? -1 : 1)
     {
       Point lineStart = rasterStart.clone();
       lineStart.y += line;
-      List<Byte> bytes = rp.getRasterLine(line);
-      //remove heading zeroes
-      while (bytes.size() > 0 && bytes.get(0) == 0)
-      {
-        lineStart.x += 8;
-        bytes.remove(0);
-      }
-      //remove trailing zeroes
-      while (bytes.size() > 0 && bytes.get(bytes.size()-1) == 0)
-      {
-        bytes.remove(bytes.size()-1);
-      }
-      if (bytes.size() > 0)
+      //skip heading and trailing zeroes
+      int first = rp.getFirstNonZeroByte(line);
+      if (first >= 0)
       {
+        int size = rp.getLastNonZeroByte(line) - first + 1;
+        lineStart.x += 8 * first;
         //add space on the left side
         int space = (int) Util.mm2px(this.getAddSpacePerRasterLine(), resolution);
+        int padLeft = 0;
         while (space > 0 && lineStart.x >= 8)
         {
-          bytes.add(0, (byte) 0);
+          padLeft++;
           space -= 8;
           lineStart.x -=8;
         }
         //add space on the right side
         space = (int) Util.mm2px(this.getAddSpacePerRasterLine(), resolution);
         int max = (int) Util.mm2px(this.getBedWidth(), resolution);
-        while (space > 0 && lineStart.x+(8*bytes.size()) < max-8)
+        int padRight = 0;
+        while (space > 0 && lineStart.x+(8*(padLeft+size+padRight)) < max-8)
         {
-          bytes.add((byte) 0);
+          padRight++;
           space -= 8;
         }
+        int length = padLeft + size + padRight;
+        if (padded.length < length)
+        {
+          padded = new byte[length];
+        }
+        bytes = rp.getRasterLine(line, bytes);
+        Arrays.fill(padded, 0, padLeft, (byte) 0);
+        System.arraycopy(bytes, first, padded, padLeft, size);
+        Arrays.fill(padded, padLeft + size, length, (byte) 0);
+        if (dwords.length < (length + 3) / 4)
+        {
+          dwords = new int[(length + 3) / 4];
+        }
         if (dirRight)
         {
           //move to the first point of the line
-          move(out, lineStart.x, lineStart.y, resolution);
-          List<Long> dwords = this.byteLineToDwords(bytes, true);
-          loadBitmapLine(out, dwords);
-          line(out, lineStart.x + (dwords.size()*32), lineStart.y, resolution);
+          move(out, lineStart.x, lineStart.y, steps);
+          int count = this.byteLineToDwords(padded, 0, length, true, dwords);
+          loadBitmapLine(out, dwords, count);
+          line(out, lineStart.x + (count*32), lineStart.y, steps);
         }
         else
         {
           //move to the first point of the line
-          List<Long> dwords = this.byteLineToDwords(bytes, false);
-          move(out, lineStart.x+(dwords.size()*32), lineStart.y, resolution);
-          loadBitmapLine(out, dwords);
-          line(out, lineStart.x, lineStart.y, resolution);
+          int count = this.byteLineToDwords(padded, 0, length, false, dwords);
+          move(out, lineStart.x+(count*32), lineStart.y, steps);
+          loadBitmapLine(out, dwords, count);
+          line(out, lineStart.x, lineStart.y, steps);
         }
       }
       if (!prop.isEngraveUnidirectional())
@@ -631,52 +764,269 @@ public class LaosCutter extends LaserCutter
         dirRight = !dirRight;
       }
     }
-    return result.toByteArray();
   }
   
-  private byte[] generateInitializationCode() throws UnsupportedEncodingException
-  {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
-    return result.toByteArray();
-  }
-
-  private byte[] generateShutdownCode() throws UnsupportedEncodingException
+  private void writeShutdownCode(PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
     this.setFocus(out, 0f);
     this.setVentilation(out, false);
     this.setPurge(out, false);
-    return result.toByteArray();
   }
 
-  protected void writeJobCode(LaserJob job, OutputStream out, ProgressListener pl) throws UnsupportedEncodingException, IOException
+  protected void writeJobCode(LaserJob job, OutputStream target, ProgressListener pl) throws UnsupportedEncodingException, IOException
   {
-    out.write(this.generateInitializationCode());
+    //the code is written as it is generated, so nothing but the
+    //current line is kept in memory
+    PrintStream out = new PrintStream(target, false, "US-ASCII");
+    if (useBinaryEncoding)
+    {
+      getBinaryWriter().header().writeTo(out);
+    }
     pl.progressChanged(this, 20);
-    out.write(this.generateBoundingBoxCode(job));
+    this.writeBoundingBoxCode(job, out);
     int i = 0;
     int max = job.getParts().size();
     for (JobPart p : job.getParts())
     {
       if (p instanceof Raster3dPart)
       {
-        out.write(this.generatePseudoRaster3dGCode((Raster3dPart) p, p.getDPI()));
+        this.writePseudoRaster3dGCode((Raster3dPart) p, p.getDPI(), out);
       }
       else if (p instanceof RasterPart)
       {
-        out.write(this.generateLaosRasterCode((RasterPart) p, p.getDPI()));
+        this.writeLaosRasterCode((RasterPart) p, p.getDPI(), out);
       }
       else if (p instanceof VectorPart)
       {
-        out.write(this.generateVectorGCode((VectorPart) p, p.getDPI()));
+        this.writeVectorGCode((VectorPart) p, p.getDPI(), out);
       }
+      Util.checkError(out);
       i++;
       pl.progressChanged(this, 20 + (int) (i*(double) 60/max));
     }
-    out.write(this.generateShutdownCode());
-    out.close();
+    this.writeShutdownCode(out);
+    Util.checkError(out);
+    target.close();
+  }
+
+  /**
+   * The socket of the TFTP client. TFTPClient.sendFile resends the last
+   * block forever if the server does not answer any more, so receiving
+   * fails after maxTimeouts timeouts in a row. It also fails if the
+   * sending thread is interrupted (e.g. by SendJobHandle.cancel), for
+   * which it waits in slices of INTERRUPT_POLL ms.
+   */
+  private static class TftpSocket extends DatagramSocket
+  {
+
+    private static final int INTERRUPT_POLL = 100;
+    private final int maxTimeouts;
+    private int timeouts = 0;
+    private int timeout = 0;
+
+    TftpSocket(int maxTimeouts) throws SocketException
+    {
+      this.maxTimeouts = maxTimeouts;
+      super.setSoTimeout(INTERRUPT_POLL);
+    }
+
+    @Override
+    public synchronized void setSoTimeout(int timeout) throws SocketException
+    {
+      this.timeout = timeout;
+      super.setSoTimeout(timeout > 0 ? Math.min(timeout, INTERRUPT_POLL) : INTERRUPT_POLL);
+    }
+
+    @Override
+    public synchronized int getSoTimeout()
+    {
+      return timeout;
+    }
+
+    @Override
+    public void receive(DatagramPacket p) throws IOException
+    {
+      long deadline = System.currentTimeMillis() + timeout;
+      while (true)
+      {
+        //not InterruptedIOExceptions, which TFTPClient would catch
+        if (Thread.interrupted())
+        {
+          throw new IOException("Interrupted while waiting for the TFTP server");
+        }
+        try
+        {
+          super.receive(p);
+          timeouts = 0;
+          return;
+        }
+        catch (SocketTimeoutException e)
+        {
+          if (timeout == 0 || System.currentTimeMillis() < deadline)
+          {
+            continue;
+          }
+          if (++timeouts >= maxTimeouts)
+          {
+            throw new IOException("The TFTP server did not answer within " + timeouts + " timeouts");
+          }
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the client for sendJobViaTftp
+   */
+  protected TFTPClient createTftpClient()
+  {
+    final TFTPClient tftp = new TFTPClient();
+    tftp.setDefaultTimeout(5000);
+    tftp.setDatagramSocketFactory(new DefaultDatagramSocketFactory()
+    {
+      @Override
+      public DatagramSocket createDatagramSocket() throws SocketException
+      {
+        return new TftpSocket(tftp.getMaxTimeouts());
+      }
+    });
+    return tftp;
+  }
+
+  /**
+   * Generates the job in a second thread and sends it via TFTP while it is
+   * generated. Both are connected by a pipe of TFTP_PIPE_SIZE bytes,
+   * so the job is never kept in memory completely.
+   * If a debug file is set, the job is written to it as well.
+   * If the thread is interrupted, sending stops, the pipe is closed and
+   * the generator stops at its next write.
+   */
+  private void sendJobViaTftp(final LaserJob job, final ProgressListener pl) throws Exception
+  {
+    final Exception[] failure = new Exception[1];
+    //flush after every block, otherwise the reading side only
+    //notices new data once per second
+    PipedOutputStream pipe = new PipedOutputStream()
+    {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+        super.write(b, off, len);
+        flush();
+      }
+    };
+    PipedInputStream data = new PipedInputStream(pipe, TFTP_PIPE_SIZE)
+    {
+      //if generating failed, the file must not be sent as if it was complete
+      private int checkEnd(int result) throws IOException
+      {
+        synchronized (failure)
+        {
+          if (result == -1 && failure[0] != null)
+          {
+            throw new IOException("Error while generating the job");
+          }
+        }
+        return result;
+      }
+
+      private void checkInterrupted() throws IOException
+      {
+        if (Thread.interrupted())
+        {
+          throw new InterruptedIOException("Interrupted while sending the job");
+        }
+      }
+
+      @Override
+      public synchronized int read() throws IOException
+      {
+        checkInterrupted();
+        return checkEnd(super.read());
+      }
+
+      @Override
+      public synchronized int read(byte[] b, int off, int len) throws IOException
+      {
+        checkInterrupted();
+        return checkEnd(super.read(b, off, len));
+      }
+    };
+    pl.taskChanged(this, "connecting");
+    TFTPClient tftp = createTftpClient();
+    //open a local UDP socket
+    tftp.open();
+    Thread generator = null;
+    try
+    {
+      OutputStream target = pipe;
+      if (debugFilename != null && !"".equals(debugFilename))
+      {
+        target = new TeeOutputStream(pipe, new FileOutputStream(new File(debugFilename)));
+      }
+      final OutputStream out = new BufferedOutputStream(target);
+      generator = new Thread("LAOS job generator")
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            writeJobCode(job, out, pl);
+          }
+          catch (Exception e)
+          {
+            //if sending failed, the closed pipe is not the cause
+            synchronized (failure)
+            {
+              if (failure[0] == null)
+              {
+                failure[0] = e;
+              }
+            }
+          }
+          finally
+          {
+            try
+            {
+              out.close();
+            }
+            catch (IOException e)
+            {
+              //the sending side already noticed
+            }
+          }
+        }
+      };
+      generator.start();
+      pl.taskChanged(this, "sending");
+      tftp.sendFile(job.getName().replace(" ", "") +".lgc", TFTP.BINARY_MODE, data, this.getHostname(), this.getPort());
+    }
+    catch (IOException e)
+    {
+      synchronized (failure)
+      {
+        if (failure[0] == null)
+        {
+          failure[0] = e;
+        }
+      }
+    }
+    finally
+    {
+      tftp.close();
+      //stops the generator if sending failed
+      data.close();
+      if (generator != null)
+      {
+        generator.join();
+      }
+    }
+    if (failure[0] != null)
+    {
+      throw failure[0];
+    }
   }
 
   @Override
@@ -689,45 +1039,20 @@ public class LaosCutter extends LaserCutter
     currentPurge = false;
     currentVentilation = false;
     pl.progressChanged(this, 0);
-    BufferedOutputStream out;
-    ByteArrayOutputStream buffer = null;
     pl.taskChanged(this, "checking job");
     checkJob(job);
     job.applyStartPoint();
     if (!useTftp)
     {
       pl.taskChanged(this, "connecting");
-      Socket connection = new Socket();
-      connection.connect(new InetSocketAddress(hostname, port), 3000);
-      out = new BufferedOutputStream(connection.getOutputStream());
+      NioSocketTransport connection = new NioSocketTransport(hostname, port, 3000, 0);
+      BufferedOutputStream out = new BufferedOutputStream(connection.getOutputStream());
       pl.taskChanged(this, "sending");
+      this.writeJobCode(job, out, pl);
     }
     else
     {
-      buffer = new ByteArrayOutputStream();
-      out = new BufferedOutputStream(buffer);
-      pl.taskChanged(this, "buffering");
-    }
-    this.writeJobCode(job, out, pl);
-    if (this.isUseTftp())
-    {
-      pl.taskChanged(this, "connecting");
-      TFTPClient tftp = new TFTPClient();
-      tftp.setDefaultTimeout(5000);
-      //open a local UDP socket
-      tftp.open();
-      pl.taskChanged(this, "sending");
-      ByteArrayInputStream bain = new ByteArrayInputStream(buffer.toByteArray());
-      tftp.sendFile(job.getName().replace(" ", "") +".lgc", TFTP.BINARY_MODE, bain, this.getHostname(), this.getPort());
-      tftp.close();
-      bain.close();
-      if (debugFilename != null && !"".equals(debugFilename))
-      {
-        pl.taskChanged(this, "writing "+debugFilename);
-        FileOutputStream o = new FileOutputStream(new File(debugFilename));
-        o.write(buffer.toByteArray());
-        o.close();
-      }
+      this.sendJobViaTftp(job, pl);
       pl.taskChanged(this, "sent.");
     }
     pl.progressChanged(this, 100);
@@ -811,6 +1136,7 @@ public class LaosCutter extends LaserCutter
     SETTING_SUPPORTS_FOCUS,
     SETTING_SUPPORTS_FREQUENCY,
     SETTING_TFTP,
+    SETTING_BINARY,
     SETTING_RASTER_WHITESPACE,
     SETTING_DEBUGFILE
   };
@@ -880,6 +1206,10 @@ public class LaosCutter extends LaserCutter
     {
       return (Boolean) this.isUseTftp();
     }
+    else if (SETTING_BINARY.equals(attribute))
+    {
+      return (Boolean) this.isUseBinaryEncoding();
+    }
     return null;
   }
 
@@ -942,6 +1272,10 @@ public class LaosCutter extends LaserCutter
     {
       this.setUseTftp((Boolean) value);
     }
+    else if (SETTING_BINARY.equals(attribute))
+    {
+      this.setUseBinaryEncoding((Boolean) value);
+    }
   }
 
   @Override
@@ -957,6 +1291,7 @@ public class LaosCutter extends LaserCutter
     clone.flipYaxis = flipYaxis;
     clone.mmPerStep = mmPerStep;
     clone.useTftp = useTftp;
+    clone.useBinaryEncoding = useBinaryEncoding;
     clone.addSpacePerRasterLine = addSpacePerRasterLine;
     clone.supportsFrequency = supportsFrequency;
     clone.supportsPurge = supportsPurge;
@@ -967,15 +1302,12 @@ public class LaosCutter extends LaserCutter
 
   /**
    * Calculates the smallest bounding box of all job-parts
-   * and generates the laos bounding-box commands
+   * and writes the laos bounding-box commands
    * @param job
-   * @return
-   * @throws UnsupportedEncodingException 
+   * @param out
    */
-  private byte[] generateBoundingBoxCode(LaserJob job) throws UnsupportedEncodingException
+  private void writeBoundingBoxCode(LaserJob job, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
     if (job.getParts().size() > 0)
     {
       JobPart p = job.getParts().get(0);
@@ -992,12 +1324,11 @@ public class LaosCutter extends LaserCutter
         yMax = Math.max(yMax, Util.px2mm(jp.getMaxY(),jp.getDPI()));
         maxDPI = Math.max(maxDPI, jp.getDPI());
       }
-      out.printf("201 %d\n", px2steps(Util.mm2px(isFlipXaxis() ? bedWidth - xMax : xMin,maxDPI), maxDPI));
-      out.printf("202 %d\n", px2steps(Util.mm2px(isFlipXaxis() ? bedWidth - xMin : xMax,maxDPI), maxDPI));
-      out.printf("203 %d\n", px2steps(Util.mm2px(isFlipYaxis() ? bedWidth - yMax : yMin,maxDPI), maxDPI));
-      out.printf("204 %d\n", px2steps(Util.mm2px(isFlipYaxis() ? bedWidth - xMin : yMax,maxDPI), maxDPI));
+      command(out, 201, px2steps(Util.mm2px(isFlipXaxis() ? bedWidth - xMax : xMin,maxDPI), maxDPI));
+      command(out, 202, px2steps(Util.mm2px(isFlipXaxis() ? bedWidth - xMin : xMax,maxDPI), maxDPI));
+      command(out, 203, px2steps(Util.mm2px(isFlipYaxis() ? bedWidth - yMax : yMin,maxDPI), maxDPI));
+      command(out, 204, px2steps(Util.mm2px(isFlipYaxis() ? bedWidth - xMin : yMax,maxDPI), maxDPI));
     }
-    return result.toByteArray();
   }
 
 }
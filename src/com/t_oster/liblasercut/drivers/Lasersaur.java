@@ -20,11 +20,12 @@ package com.t_oster.liblasercut.drivers;
 
 import com.t_oster.liblasercut.*;
 import com.t_oster.liblasercut.platform.Point;
+import com.t_oster.liblasercut.platform.StepTransform;
 import com.t_oster.liblasercut.platform.Util;
+import com.t_oster.liblasercut.vectoroptimizers.ArcFitter;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
 import java.util.*;
 import purejavacomm.CommPort;
 import purejavacomm.CommPortIdentifier;
@@ -43,6 +44,9 @@ public class Lasersaur extends LaserCutter {
   private static final String SETTING_BEDHEIGHT = "Laserbed height";
   private static final String SETTING_FLIPX = "X axis goes right to left (yes/no)";
   private static final String SETTING_RASTER_WHITESPACE = "Additional space per Raster line (mm)";
+  private static final String SETTING_RASTER_GAP_BRIDGING = "Burn through raster gaps up to (px)";
+  private static final String SETTING_RELATIVE_VECTORS = "Relative coordinates for vectors (G91)";
+  private static final String SETTING_ARC_TOLERANCE = "Send curves as arcs (G2/G3) with tolerance (mm, 0 = off)";
   private static final String SETTING_SEEK_RATE = "Max. Seek Rate (mm/min)";
   private static final String SETTING_LASER_RATE = "Max. Laser Rate (mm/min)";
 
@@ -69,6 +73,73 @@ public class Lasersaur extends LaserCutter {
   public void setAddSpacePerRasterLine(double addSpacePerRasterLine) {
     this.addSpacePerRasterLine = addSpacePerRasterLine;
   }
+  private int rasterGapBridging = 0;
+
+  /**
+   * Get the value of rasterGapBridging
+   *
+   * @return the value of rasterGapBridging
+   */
+  public int getRasterGapBridging() {
+    return rasterGapBridging;
+  }
+
+  /**
+   * Set the value of rasterGapBridging. White gaps of at most this many
+   * pixels inside a raster line are burned through instead of moving
+   * across them, which saves two commands per gap.
+   *
+   * @param rasterGapBridging new value of rasterGapBridging
+   */
+  public void setRasterGapBridging(int rasterGapBridging) {
+    this.rasterGapBridging = rasterGapBridging;
+  }
+
+  private boolean relativeVectors = false;
+
+  /**
+   * Get the value of relativeVectors
+   *
+   * @return the value of relativeVectors
+   */
+  public boolean isRelativeVectors() {
+    return relativeVectors;
+  }
+
+  /**
+   * Set the value of relativeVectors. If true, vector parts are sent in
+   * relative coordinates (G91) with micrometer precision.
+   *
+   * @param relativeVectors new value of relativeVectors
+   */
+  public void setRelativeVectors(boolean relativeVectors) {
+    this.relativeVectors = relativeVectors;
+  }
+
+  private double arcTolerance = 0;
+
+  /**
+   * Get the value of arcTolerance
+   *
+   * @return the value of arcTolerance
+   */
+  public double getArcTolerance() {
+    return arcTolerance;
+  }
+
+  /**
+   * Set the value of arcTolerance. If greater than 0, runs of vector lines
+   * which lie on a circular arc within this tolerance (in mm) are sent as
+   * one G2/G3 command. Needs a firmware with arc support. The arcs are
+   * fitted anew for every job without changing it, only arcs marked in
+   * the part by the application (VectorPart.setArc) are used as they are.
+   *
+   * @param arcTolerance new value of arcTolerance
+   */
+  public void setArcTolerance(double arcTolerance) {
+    this.arcTolerance = arcTolerance;
+  }
+
   private double seekRate = 2000;
 
   /**
@@ -146,36 +217,68 @@ public class Lasersaur extends LaserCutter {
     this.comPort = comPort;
   }
 
-  private byte[] generateVectorGCode(VectorPart vp, double resolution) throws UnsupportedEncodingException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
-    for (VectorCommand cmd : vp.getCommandList()) {
-      switch (cmd.getType()) {
+  private void writeVectorGCode(VectorPart vp, double resolution, PrintStream out) {
+    RelativeGCodeWriter relative = null;
+    if (relativeVectors) {
+      relative = new RelativeGCodeWriter(StepTransform.fromPixels(resolution, 1000, isFlipXaxis(), bedWidth, false, bedHeight));
+    }
+    //arcs marked by the application are used, otherwise they are
+    //fitted for this pass only, so the part is not changed
+    Map<Integer, VectorArc> arcs = null;
+    GCodeArcWriter arcWriter = null;
+    if (arcTolerance > 0) {
+      if (vp.hasArcs()) {
+        arcs = vp.getArcs();
+      } else {
+        ArcFitter fitter = new ArcFitter();
+        fitter.setTolerance(arcTolerance);
+        arcs = fitter.findArcs(vp);
+      }
+      arcWriter = new GCodeArcWriter(resolution, isFlipXaxis(), bedWidth);
+    }
+    for (int i = 0; i < vp.getCommandCount(); i++) {
+      switch (vp.getCommandType(i)) {
         case MOVETO:
-          int x = cmd.getX();
-          int y = cmd.getY();
-          move(out, x, y, resolution);
+          int x = vp.getX(i);
+          int y = vp.getY(i);
+          if (relative != null) {
+            relative.move(out, x, y);
+          } else {
+            move(out, x, y, resolution);
+          }
           break;
         case LINETO:
-          x = cmd.getX();
-          y = cmd.getY();
-          line(out, x, y, resolution);
+          VectorArc arc = arcs != null ? arcs.get(i) : null;
+          if (arc != null) {
+            arcWriter.write(out, getCommandWriter(), relative, vp, i, arc);
+            i = arc.getEnd();
+            break;
+          }
+          x = vp.getX(i);
+          y = vp.getY(i);
+          if (relative != null) {
+            relative.line(out, x, y);
+          } else {
+            line(out, x, y, resolution);
+          }
           break;
         case SETPROPERTY:
-          PowerSpeedFocusFrequencyProperty p = (PowerSpeedFocusFrequencyProperty) cmd.getProperty();
+          PowerSpeedFocusFrequencyProperty p = (PowerSpeedFocusFrequencyProperty) vp.getProperty(i);
           setPower(out, p.getPower());
           setSpeed(out, p.getSpeed());
           break;
       }
     }
-    return result.toByteArray();
+    if (relative != null) {
+      relative.finish(out);
+    }
   }
   private int currentPower = -1;
   private int currentSpeed = -1;
 
   private void setSpeed(PrintStream out, int speedInPercent) {
     if (speedInPercent != currentSpeed) {
-      out.printf(Locale.US, "G1 F%i\n", (int) ((double) speedInPercent * this.getLaserRate() / 100));
+      getCommandWriter().append("G1 F").append((int) ((double) speedInPercent * this.getLaserRate() / 100)).append('\n').writeTo(out);
       currentSpeed = speedInPercent;
     }
 
@@ -183,46 +286,40 @@ public class Lasersaur extends LaserCutter {
 
   private void setPower(PrintStream out, int powerInPercent) {
     if (powerInPercent != currentPower) {
-      out.printf(Locale.US, "S%i\n", (int) (255d * powerInPercent / 100));
+      getCommandWriter().append('S').append((int) (255d * powerInPercent / 100)).append('\n').writeTo(out);
       currentPower = powerInPercent;
     }
   }
 
   private void move(PrintStream out, int x, int y, double resolution) {
-    out.printf(Locale.US, "G0 X%f Y%f\n", Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), Util.px2mm(y, resolution));
+    getCommandWriter().append("G0 X").append(Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution)).append(" Y").append(Util.px2mm(y, resolution)).append('\n').writeTo(out);
   }
 
   private void line(PrintStream out, int x, int y, double resolution) {
-    out.printf(Locale.US, "G1 X%f Y%f\n", Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), Util.px2mm(y, resolution));
+    getCommandWriter().append("G1 X").append(Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution)).append(" Y").append(Util.px2mm(y, resolution)).append('\n').writeTo(out);
   }
 
-  private byte[] generatePseudoRaster3dGCode(Raster3dPart rp, double resolution) throws UnsupportedEncodingException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
+  private void writePseudoRaster3dGCode(Raster3dPart rp, double resolution, PrintStream out) {
     boolean dirRight = true;
     Point rasterStart = rp.getRasterStart();
     PowerSpeedFocusProperty prop = (PowerSpeedFocusProperty) rp.getLaserProperty();
     setSpeed(out, prop.getSpeed());
+    byte[] bytes = null;
     for (int line = 0; line < rp.getRasterHeight(); line++) {
       Point lineStart = rasterStart.clone();
       lineStart.y += line;
-      List<Byte> bytes = rp.getRasterLine(line);
-      //remove heading zeroes
-      while (bytes.size() > 0 && bytes.get(0) == 0) {
-        bytes.remove(0);
-        lineStart.x += 1;
-      }
-      //remove trailing zeroes
-      while (bytes.size() > 0 && bytes.get(bytes.size() - 1) == 0) {
-        bytes.remove(bytes.size() - 1);
-      }
-      if (bytes.size() > 0) {
+      bytes = rp.getRasterLine(line, bytes);
+      //skip heading and trailing zeroes
+      int first = Util.firstNonZero(bytes, rp.getRasterWidth());
+      if (first >= 0) {
+        int size = Util.lastNonZero(bytes, rp.getRasterWidth()) - first + 1;
+        lineStart.x += first;
         if (dirRight) {
           //move to the first nonempyt point of the line
           move(out, lineStart.x, lineStart.y, resolution);
-          byte old = bytes.get(0);
-          for (int pix = 0; pix < bytes.size(); pix++) {
-            if (bytes.get(pix) != old) {
+          byte old = bytes[first];
+          for (int pix = 0; pix < size; pix++) {
+            if (bytes[first + pix] != old) {
               if (old == 0) {
                 move(out, lineStart.x + pix, lineStart.y, resolution);
               } else {
@@ -230,18 +327,18 @@ public class Lasersaur extends LaserCutter {
                 line(out, lineStart.x + pix - 1, lineStart.y, resolution);
                 move(out, lineStart.x + pix, lineStart.y, resolution);
               }
-              old = bytes.get(pix);
+              old = bytes[first + pix];
             }
           }
           //last point is also not "white"
-          setPower(out, prop.getPower() * (0xFF & bytes.get(bytes.size() - 1)) / 255);
-          line(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
+          setPower(out, prop.getPower() * (0xFF & bytes[first + size - 1]) / 255);
+          line(out, lineStart.x + size - 1, lineStart.y, resolution);
         } else {
           //move to the last nonempty point of the line
-          move(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
-          byte old = bytes.get(bytes.size() - 1);
-          for (int pix = bytes.size() - 1; pix >= 0; pix--) {
-            if (bytes.get(pix) != old || pix == 0) {
+          move(out, lineStart.x + size - 1, lineStart.y, resolution);
+          byte old = bytes[first + size - 1];
+          for (int pix = size - 1; pix >= 0; pix--) {
+            if (bytes[first + pix] != old || pix == 0) {
               if (old == 0) {
                 move(out, lineStart.x + pix, lineStart.y, resolution);
               } else {
@@ -249,118 +346,77 @@ public class Lasersaur extends LaserCutter {
                 line(out, lineStart.x + pix + 1, lineStart.y, resolution);
                 move(out, lineStart.x + pix, lineStart.y, resolution);
               }
-              old = bytes.get(pix);
+              old = bytes[first + pix];
             }
           }
           //last point is also not "white"
-          setPower(out, prop.getPower() * (0xFF & bytes.get(0)) / 255);
+          setPower(out, prop.getPower() * (0xFF & bytes[first]) / 255);
           line(out, lineStart.x, lineStart.y, resolution);
         }
       }
       dirRight = !dirRight;
     }
-    return result.toByteArray();
   }
 
-  private byte[] generatePseudoRasterGCode(RasterPart rp, double resolution) throws UnsupportedEncodingException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
+  private void writePseudoRasterGCode(RasterPart rp, double resolution, PrintStream out) {
     boolean dirRight = true;
     Point rasterStart = rp.getRasterStart();
     PowerSpeedFocusProperty prop = (PowerSpeedFocusProperty) rp.getLaserProperty();
     setSpeed(out, prop.getSpeed());
     setPower(out, prop.getPower());
+    int[] runs = new int[rp.getRasterWidth() + 1];
+    double space = Util.mm2px(this.addSpacePerRasterLine, resolution);
+    int maxX = (int) Util.mm2px(bedWidth, resolution);
     for (int line = 0; line < rp.getRasterHeight(); line++) {
-      Point lineStart = rasterStart.clone();
-      lineStart.y += line;
-      List<Byte> bytes = new LinkedList<Byte>();
-      boolean lookForStart = true;
-      for (int x = 0; x < rp.getRasterWidth(); x++) {
-        if (lookForStart) {
-          if (rp.isBlack(x, line)) {
-            lookForStart = false;
-            bytes.add((byte) 255);
-          } else {
-            lineStart.x += 1;
-          }
-        } else {
-          bytes.add(rp.isBlack(x, line) ? (byte) 255 : (byte) 0);
-        }
-      }
-      //remove trailing zeroes
-      while (bytes.size() > 0 && bytes.get(bytes.size() - 1) == 0) {
-        bytes.remove(bytes.size() - 1);
-      }
-      if (bytes.size() > 0) {
+      //empty lines and margins are skipped, small gaps are burned through
+      int count = rp.isLineEmpty(line) ? 0 : rp.getBlackRuns(line, rasterGapBridging, runs);
+      if (count > 0) {
+        int y = rasterStart.y + line;
+        //first and last black pixel of the line
+        int first = rasterStart.x + runs[0];
+        int last = rasterStart.x + runs[2 * count - 1] - 1;
         if (dirRight) {
           //add some space to the left
-          move(out, Math.max(0, (int) (lineStart.x - Util.mm2px(this.addSpacePerRasterLine, resolution))), lineStart.y, resolution);
-          //move to the first nonempyt point of the line
-          move(out, lineStart.x, lineStart.y, resolution);
-          byte old = bytes.get(0);
-          for (int pix = 0; pix < bytes.size(); pix++) {
-            if (bytes.get(pix) != old) {
-              if (old == 0) {
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              } else {
-                setPower(out, prop.getPower() * (0xFF & old) / 255);
-                line(out, lineStart.x + pix - 1, lineStart.y, resolution);
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              }
-              old = bytes.get(pix);
-            }
+          move(out, Math.max(0, (int) (first - space)), y, resolution);
+          move(out, first, y, resolution);
+          for (int k = 0; k < count - 1; k++) {
+            setPower(out, prop.getPower());
+            line(out, rasterStart.x + runs[2 * k + 1] - 1, y, resolution);
+            move(out, rasterStart.x + runs[2 * k + 2], y, resolution);
           }
-          //last point is also not "white"
-          setPower(out, prop.getPower() * (0xFF & bytes.get(bytes.size() - 1)) / 255);
-          line(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
+          setPower(out, prop.getPower());
+          line(out, last, y, resolution);
           //add some space to the right
-          move(out, Math.min((int) Util.mm2px(bedWidth, resolution), (int) (lineStart.x + bytes.size() - 1 + Util.mm2px(this.addSpacePerRasterLine, resolution))), lineStart.y, resolution);
+          move(out, Math.min(maxX, (int) (last + space)), y, resolution);
         } else {
           //add some space to the right
-          move(out, Math.min((int) Util.mm2px(bedWidth, resolution), (int) (lineStart.x + bytes.size() - 1 + Util.mm2px(this.addSpacePerRasterLine, resolution))), lineStart.y, resolution);
-          //move to the last nonempty point of the line
-          move(out, lineStart.x + bytes.size() - 1, lineStart.y, resolution);
-          byte old = bytes.get(bytes.size() - 1);
-          for (int pix = bytes.size() - 1; pix >= 0; pix--) {
-            if (bytes.get(pix) != old || pix == 0) {
-              if (old == 0) {
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              } else {
-                setPower(out, prop.getPower() * (0xFF & old) / 255);
-                line(out, lineStart.x + pix + 1, lineStart.y, resolution);
-                move(out, lineStart.x + pix, lineStart.y, resolution);
-              }
-              old = bytes.get(pix);
-            }
+          move(out, Math.min(maxX, (int) (last + space)), y, resolution);
+          move(out, last, y, resolution);
+          for (int k = count - 1; k > 0; k--) {
+            setPower(out, prop.getPower());
+            line(out, rasterStart.x + runs[2 * k], y, resolution);
+            move(out, rasterStart.x + runs[2 * k - 1] - 1, y, resolution);
           }
-          //last point is also not "white"
-          setPower(out, prop.getPower() * (0xFF & bytes.get(0)) / 255);
-          line(out, lineStart.x, lineStart.y, resolution);
+          setPower(out, prop.getPower());
+          line(out, first, y, resolution);
           //add some space to the left
-          move(out, Math.max(0, (int) (lineStart.x - Util.mm2px(this.addSpacePerRasterLine, resolution))), lineStart.y, resolution);
+          move(out, Math.max(0, (int) (first - space)), y, resolution);
         }
       }
       dirRight = !dirRight;
     }
-    return result.toByteArray();
   }
 
-  private byte[] generateInitializationCode() throws UnsupportedEncodingException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
+  private void writeInitializationCode(PrintStream out) {
     out.print("G54\n");//use table offset
     out.print("G21\n");//units to mm
     out.print("G90\n");//following coordinates are absolute
     out.print("G0 X0 Y0\n");//move to 0 0
-    return result.toByteArray();
   }
 
-  private byte[] generateShutdownCode() throws UnsupportedEncodingException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, "US-ASCII");
+  private void writeShutdownCode(PrintStream out) {
     //back to origin and shutdown
     out.print("G0 X0 Y0\n");//move to 0 0
-    return result.toByteArray();
   }
 
   @Override
@@ -368,7 +424,6 @@ public class Lasersaur extends LaserCutter {
     pl.progressChanged(this, 0);
     this.currentPower = -1;
     this.currentSpeed = -1;
-    BufferedOutputStream out;
     pl.taskChanged(this, "checking job");
     checkJob(job);
     job.applyStartPoint();
@@ -402,32 +457,39 @@ public class Lasersaur extends LaserCutter {
     SerialPort port = (SerialPort) tmp;
     port.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
     port.setSerialPortParams(9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
-    out = new BufferedOutputStream(port.getOutputStream());
-    pl.taskChanged(this, "sending");
-    out.write(this.generateInitializationCode());
-    pl.progressChanged(this, 20);
-    int i = 0;
-    int max = job.getParts().size();
-    for (JobPart p : job.getParts())
-    {
-      if (p instanceof Raster3dPart)
-      {
-        out.write(this.generatePseudoRaster3dGCode((Raster3dPart) p, p.getDPI()));
-      }
-      else if (p instanceof RasterPart)
-      {
-        out.write(this.generatePseudoRasterGCode((RasterPart) p, p.getDPI()));
-      }
-      else if (p instanceof VectorPart)
+    //the code is sent while it is generated
+    PrintStream out = new PrintStream(new BufferedOutputStream(port.getOutputStream()), false, "US-ASCII");
+    try {
+      pl.taskChanged(this, "sending");
+      this.writeInitializationCode(out);
+      pl.progressChanged(this, 20);
+      int i = 0;
+      int max = job.getParts().size();
+      for (JobPart p : job.getParts())
       {
-        out.write(this.generateVectorGCode((VectorPart) p, p.getDPI()));
+        if (p instanceof Raster3dPart)
+        {
+          this.writePseudoRaster3dGCode((Raster3dPart) p, p.getDPI(), out);
+        }
+        else if (p instanceof RasterPart)
+        {
+          this.writePseudoRasterGCode((RasterPart) p, p.getDPI(), out);
+        }
+        else if (p instanceof VectorPart)
+        {
+          this.writeVectorGCode((VectorPart) p, p.getDPI(), out);
+        }
+        Util.checkError(out);
+        i++;
+        pl.progressChanged(this, 20 + (int) (i*(double) 60/max));
       }
-      i++;
-      pl.progressChanged(this, 20 + (int) (i*(double) 60/max));
+      this.writeShutdownCode(out);
+      Util.checkError(out);
+    }
+    finally {
+      out.close();
+      port.close();
     }
-    out.write(this.generateShutdownCode());
-    out.close();
-    port.close();
     pl.taskChanged(this, "sent.");
     pl.progressChanged(this, 100);
   }
@@ -490,6 +552,9 @@ public class Lasersaur extends LaserCutter {
     SETTING_LASER_RATE,
     SETTING_SEEK_RATE,
     SETTING_RASTER_WHITESPACE,
+    SETTING_RASTER_GAP_BRIDGING,
+    SETTING_RELATIVE_VECTORS,
+    SETTING_ARC_TOLERANCE,
   };
 
   @Override
@@ -501,6 +566,12 @@ public class Lasersaur extends LaserCutter {
   public Object getProperty(String attribute) {
     if (SETTING_RASTER_WHITESPACE.equals(attribute)) {
       return this.getAddSpacePerRasterLine();
+    } else if (SETTING_RASTER_GAP_BRIDGING.equals(attribute)) {
+      return this.getRasterGapBridging();
+    } else if (SETTING_RELATIVE_VECTORS.equals(attribute)) {
+      return this.isRelativeVectors();
+    } else if (SETTING_ARC_TOLERANCE.equals(attribute)) {
+      return this.getArcTolerance();
     } else if (SETTING_COMPORT.equals(attribute)) {
       return this.getComPort();
     } else if (SETTING_FLIPX.equals(attribute)) {
@@ -521,6 +592,12 @@ public class Lasersaur extends LaserCutter {
   public void setProperty(String attribute, Object value) {
     if (SETTING_RASTER_WHITESPACE.equals(attribute)) {
       this.setAddSpacePerRasterLine((Double) value);
+    } else if (SETTING_RASTER_GAP_BRIDGING.equals(attribute)) {
+      this.setRasterGapBridging((Integer) value);
+    } else if (SETTING_RELATIVE_VECTORS.equals(attribute)) {
+      this.setRelativeVectors((Boolean) value);
+    } else if (SETTING_ARC_TOLERANCE.equals(attribute)) {
+      this.setArcTolerance((Double) value);
     } else if (SETTING_COMPORT.equals(attribute)) {
       this.setComPort((String) value);
     } else if (SETTING_LASER_RATE.equals(attribute)) {
@@ -545,7 +622,10 @@ public class Lasersaur extends LaserCutter {
     clone.bedHeight = bedHeight;
     clone.bedWidth = bedWidth;
     clone.flipXaxis = flipXaxis;
+    clone.relativeVectors = relativeVectors;
+    clone.arcTolerance = arcTolerance;
     clone.addSpacePerRasterLine = addSpacePerRasterLine;
+    clone.rasterGapBridging = rasterGapBridging;
     return clone;
   }
 }
@@ -0,0 +1,109 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.drivers;
+
+import com.t_oster.liblasercut.platform.AsciiCommandWriter;
+import com.t_oster.liblasercut.platform.StepTransform;
+import java.io.PrintStream;
+
+/**
+ * Writes the G0/G1 moves and G2/G3 arcs of one job part in relative
+ * coordinates.
+ * The first move goes to its absolute position, then the mode is
+ * switched to G91 and every further move only contains the axes which
+ * change, as the distance from the previous point. finish() switches
+ * back to G90.
+ * Points are converted to whole micrometers with a StepTransform, so
+ * the distances add up exactly and there is no drift.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+class RelativeGCodeWriter {
+
+  private final StepTransform transform;
+  private final AsciiCommandWriter w = new AsciiCommandWriter(3, true);
+  private boolean relative = false;
+  private int lastX;
+  private int lastY;
+
+  /**
+   * @param transform the transformation from pixels to micrometers
+   */
+  RelativeGCodeWriter(StepTransform transform) {
+    this.transform = transform;
+  }
+
+  public void move(PrintStream out, int x, int y) {
+    write(out, "G0", x, y, false, 0, 0);
+  }
+
+  public void line(PrintStream out, int x, int y) {
+    write(out, "G1", x, y, false, 0, 0);
+  }
+
+  /**
+   * Writes an arc (G2 or G3) to the point (x,y), where i and j are the
+   * distance (in mm) from the current point to the center
+   */
+  public void arc(PrintStream out, int x, int y, double i, double j, boolean clockwise) {
+    write(out, clockwise ? "G2" : "G3", x, y, true, i, j);
+  }
+
+  private void write(PrintStream out, String command, int px, int py, boolean arc, double i, double j) {
+    int x = transform.x(px);
+    int y = transform.y(py);
+    if (!relative) {
+      w.append(command).append(" X").append(x / 1000d).append(" Y").append(y / 1000d);
+      appendCenter(arc, i, j);
+      w.append("\nG91\n");
+      relative = true;
+    } else if (x != lastX || y != lastY) {
+      w.append(command);
+      if (x != lastX) {
+        w.append(" X").append((x - lastX) / 1000d);
+      }
+      if (y != lastY) {
+        w.append(" Y").append((y - lastY) / 1000d);
+      }
+      appendCenter(arc, i, j);
+      w.append('\n');
+    }
+    //moves of less than a micrometer are left out, an arc without
+    //distance would even be a full circle
+    w.writeTo(out);
+    lastX = x;
+    lastY = y;
+  }
+
+  private void appendCenter(boolean arc, double i, double j) {
+    if (arc) {
+      w.append(" I").append(i).append(" J").append(j);
+    }
+  }
+
+  /**
+   * Switches back to absolute coordinates if necessary
+   */
+  public void finish(PrintStream out) {
+    if (relative) {
+      out.print("G90\n");
+      relative = false;
+    }
+  }
+}
@@ -26,7 +26,6 @@ import com.t_oster.liblasercut.LaserJob;
 import com.t_oster.liblasercut.LaserProperty;
 import com.t_oster.liblasercut.PowerSpeedFocusFrequencyProperty;
 import com.t_oster.liblasercut.ProgressListener;
-import com.t_oster.liblasercut.VectorCommand;
 import com.t_oster.liblasercut.VectorPart;
 import com.t_oster.liblasercut.platform.Util;
 import java.util.Arrays;
@@ -77,11 +76,11 @@ public class SampleDriver extends LaserCutter
       {
         //so, we know it's a VectorPart. We cast it, so we get the real interface
         VectorPart vp = (VectorPart) p;
-        //A VectorPart consists of a command List. So let's iterate over this list
-        for (VectorCommand cmd : vp.getCommandList())
+        //A VectorPart consists of a list of commands. So let's iterate over them by index
+        for (int i = 0; i < vp.getCommandCount(); i++)
         {
           //There are three types of commands: MOVETO, LINETO and SETPROPERTY
-          switch (cmd.getType())
+          switch (vp.getCommandType(i))
           {
             case LINETO:
             {
@@ -89,8 +88,8 @@ public class SampleDriver extends LaserCutter
                * Move the laserhead (laser on) from the current position to the x/y position of this command. All coordinates are in dots respecting
                * to the job resolution
                */
-              double x = Util.px2mm(cmd.getX(), p.getDPI());
-              double y = Util.px2mm(cmd.getY(), p.getDPI());
+              double x = Util.px2mm(vp.getX(i), p.getDPI());
+              double y = Util.px2mm(vp.getY(i), p.getDPI());
               System.out.printf("G01 X%f Y%f\n", x, y);
               break;
             }
@@ -99,8 +98,8 @@ public class SampleDriver extends LaserCutter
               /**
                * Move the laserhead (laser off) from the current position to the x/y position of this command. All coordinates are in mm
                */
-              double x = Util.px2mm(cmd.getX(), p.getDPI());
-              double y = Util.px2mm(cmd.getY(), p.getDPI());
+              double x = Util.px2mm(vp.getX(i), p.getDPI());
+              double y = Util.px2mm(vp.getY(i), p.getDPI());
               System.out.printf("G00 X%f Y%f\n", x, y);
               break;
             }
@@ -109,7 +108,7 @@ public class SampleDriver extends LaserCutter
               /**
                * Change properties of current laser-actions (e.g. speed, frequency, power... whatever your driver supports)
                */
-              LaserProperty prop = cmd.getProperty();
+              LaserProperty prop = vp.getProperty(i);
               System.out.println("Changing Device Parameters:");
               for (String key : prop.getPropertyKeys())
               {
@@ -130,13 +130,13 @@ public class PhotoPrint {
         prev.add(cbCut);
         prev.add(filter);
         prev.add(new JLabel("Width: "+outImg.getWidth()+" Height: "+outImg.getHeight()+ " ("+Util.px2mm(outImg.getWidth(), dpi)+"x"+Util.px2mm(outImg.getHeight(), dpi)+"mm)"));
+        final BufferedImageAdapter ad = new BufferedImageAdapter(scaledImg, false, true);
         final ActionListener list = new ActionListener() {
 
             public void actionPerformed(ActionEvent ae) {
                 lab.setText("dithering...");
                 lab.repaint();
                 DitherAlgorithm da = (DitherAlgorithm) cbDa.getSelectedItem();
-                BufferedImageAdapter ad = new BufferedImageAdapter(scaledImg);
                 ad.setColorShift(filter.getValue());
                 BlackWhiteRaster bw = new BlackWhiteRaster(ad, da);
                 for (int y = 0; y < bw.getHeight(); y++) {
@@ -0,0 +1,305 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.platform;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Formats ASCII commands like G-code into a reusable byte buffer.
+ * A command is built with the append methods and then written to
+ * a stream with writeTo, which also clears the buffer:
+ * <pre>
+ * w.append("G1 X").append(x).append(" Y").append(y).append('\n').writeTo(out);
+ * </pre>
+ * In contrast to printf no format string is parsed and nothing is
+ * allocated per command. Doubles are written with a fixed number of
+ * decimal places and rounded half-up like printf's %f does, so with
+ * the default settings append(d) produces the same text as "%f".
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class AsciiCommandWriter
+{
+
+  private static final long[] POW10 = new long[]{
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+  };
+  private byte[] buffer = new byte[64];
+  private int length = 0;
+  private int precision;
+  private boolean trimTrailingZeros;
+
+  /**
+   * Creates a writer, which formats doubles like printf's %f:
+   * 6 decimal places, trailing zeros are kept
+   */
+  public AsciiCommandWriter()
+  {
+    this(6, false);
+  }
+
+  /**
+   * @param precision the number of decimal places for doubles (0 to 9)
+   * @param trimTrailingZeros if true, trailing zeros of the decimal
+   * places and a trailing decimal point are left out
+   */
+  public AsciiCommandWriter(int precision, boolean trimTrailingZeros)
+  {
+    setPrecision(precision);
+    this.trimTrailingZeros = trimTrailingZeros;
+  }
+
+  public int getPrecision()
+  {
+    return precision;
+  }
+
+  public void setPrecision(int precision)
+  {
+    if (precision < 0 || precision >= POW10.length)
+    {
+      throw new IllegalArgumentException("Precision has to be between 0 and " + (POW10.length - 1));
+    }
+    this.precision = precision;
+  }
+
+  public boolean isTrimTrailingZeros()
+  {
+    return trimTrailingZeros;
+  }
+
+  public void setTrimTrailingZeros(boolean trimTrailingZeros)
+  {
+    this.trimTrailingZeros = trimTrailingZeros;
+  }
+
+  private void ensureCapacity(int additional)
+  {
+    if (length + additional > buffer.length)
+    {
+      byte[] bigger = new byte[Math.max(buffer.length * 2, length + additional)];
+      System.arraycopy(buffer, 0, bigger, 0, length);
+      buffer = bigger;
+    }
+  }
+
+  /**
+   * Appends the given text. Only ASCII characters are supported.
+   */
+  public AsciiCommandWriter append(String text)
+  {
+    int n = text.length();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++)
+    {
+      buffer[length++] = (byte) text.charAt(i);
+    }
+    return this;
+  }
+
+  public AsciiCommandWriter append(char c)
+  {
+    ensureCapacity(1);
+    buffer[length++] = (byte) c;
+    return this;
+  }
+
+  public AsciiCommandWriter append(int value)
+  {
+    return append((long) value);
+  }
+
+  public AsciiCommandWriter append(long value)
+  {
+    if (value < 0)
+    {
+      if (value == Long.MIN_VALUE)
+      {
+        return append(Long.toString(value));
+      }
+      append('-');
+      value = -value;
+    }
+    appendDigits(value, 1);
+    return this;
+  }
+
+  /**
+   * Appends the decimal digits of the non-negative value,
+   * padded with zeros to at least minDigits digits
+   */
+  private void appendDigits(long value, int minDigits)
+  {
+    int digits = 1;
+    for (long v = value / 10; v != 0; v /= 10)
+    {
+      digits++;
+    }
+    digits = Math.max(digits, minDigits);
+    ensureCapacity(digits);
+    for (int i = length + digits - 1; i >= length; i--)
+    {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+  }
+
+  /**
+   * Appends the value with getPrecision() decimal places
+   */
+  public AsciiCommandWriter append(double value)
+  {
+    if (Double.isNaN(value) || Double.isInfinite(value))
+    {
+      return append(Double.toString(value));
+    }
+    boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+    double abs = Math.abs(value);
+    double scaled = abs * POW10[precision];
+    long units;
+    if (scaled < 1e12 && Math.abs(scaled - Math.floor(scaled) - 0.5) > 1e-3)
+    {
+      units = (long) (scaled + 0.5);
+    }
+    else
+    {
+      //large values and values close to a tie are rounded exactly like
+      //printf does, which rounds the shortest decimal representation
+      BigDecimal rounded = new BigDecimal(Double.toString(abs)).setScale(precision, RoundingMode.HALF_UP);
+      if (rounded.precision() > 18)
+      {
+        return appendDecimal(negative, rounded.toPlainString());
+      }
+      units = rounded.unscaledValue().longValue();
+    }
+    int start = length;
+    if (negative)
+    {
+      append('-');
+    }
+    long intPart = units / POW10[precision];
+    appendDigits(intPart, 1);
+    if (precision > 0)
+    {
+      append('.');
+      appendDigits(units - intPart * POW10[precision], precision);
+    }
+    if (trimTrailingZeros)
+    {
+      trim(start, negative);
+    }
+    return this;
+  }
+
+  private AsciiCommandWriter appendDecimal(boolean negative, String plain)
+  {
+    int start = length;
+    if (negative)
+    {
+      append('-');
+    }
+    append(plain);
+    if (trimTrailingZeros)
+    {
+      trim(start, negative);
+    }
+    return this;
+  }
+
+  /**
+   * Removes the trailing zeros and decimal point of the number starting
+   * at start. A negative zero loses its sign.
+   */
+  private void trim(int start, boolean negative)
+  {
+    if (precision == 0)
+    {
+      return;
+    }
+    while (buffer[length - 1] == '0')
+    {
+      length--;
+    }
+    if (buffer[length - 1] == '.')
+    {
+      length--;
+    }
+    if (negative && length == start + 2 && buffer[start + 1] == '0')
+    {
+      buffer[start] = '0';
+      length = start + 1;
+    }
+  }
+
+  /**
+   * Returns the number of bytes of the current command
+   */
+  public int length()
+  {
+    return length;
+  }
+
+  /**
+   * Discards the current command
+   */
+  public void reset()
+  {
+    length = 0;
+  }
+
+  /**
+   * Writes the current command to out and clears it
+   */
+  public void writeTo(OutputStream out) throws IOException
+  {
+    try
+    {
+      out.write(buffer, 0, length);
+    }
+    finally
+    {
+      length = 0;
+    }
+  }
+
+  /**
+   * Writes the current command to out and clears it
+   */
+  public void writeTo(PrintStream out)
+  {
+    out.write(buffer, 0, length);
+    length = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++)
+    {
+      chars[i] = (char) buffer[i];
+    }
+    return new String(chars);
+  }
+}
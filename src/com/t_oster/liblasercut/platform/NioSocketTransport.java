@@ -0,0 +1,335 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.platform;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+
+/**
+ * A TCP connection on a non-blocking SocketChannel, which is accessed
+ * through an InputStream and an OutputStream, so drivers can keep their
+ * stream based code.
+ *
+ * Unlike a java.net.Socket, all waiting (connecting, reading, writing)
+ * happens in a Selector, so it is ended by interrupting the waiting thread
+ * (e.g. by cancelling a SendJobHandle) or by closing the transport from
+ * another thread, and it is limited by a timeout.
+ * One thread may read while another one writes.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class NioSocketTransport implements Closeable
+{
+
+  private final String hostname;
+  private final SocketChannel channel;
+  private final Selector readSelector;
+  private final Selector writeSelector;
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+  private volatile int timeout;
+  private volatile boolean closed = false;
+  private boolean eof = false;
+  private final InputStream in = new ChannelInputStream();
+  private final OutputStream out = new ChannelOutputStream();
+
+  /**
+   * Opens a connection
+   * @param hostname
+   * @param port
+   * @param connectTimeout the time in ms to wait for the connection, 0 means forever
+   * @param timeout the time in ms to wait for data to read or for room
+   * to write, 0 means forever
+   * @throws IOException if the connection could not be established
+   */
+  public NioSocketTransport(String hostname, int port, int connectTimeout, int timeout) throws IOException
+  {
+    this.hostname = hostname;
+    this.timeout = timeout;
+    readBuffer.flip();
+    channel = SocketChannel.open();
+    Selector rs = null;
+    Selector ws = null;
+    try
+    {
+      channel.configureBlocking(false);
+      rs = Selector.open();
+      ws = Selector.open();
+      channel.register(rs, SelectionKey.OP_READ);
+      SelectionKey writeKey = channel.register(ws, SelectionKey.OP_CONNECT);
+      boolean connected;
+      try
+      {
+        connected = channel.connect(new InetSocketAddress(hostname, port));
+      }
+      catch (UnresolvedAddressException e)
+      {
+        throw new UnknownHostException(hostname);
+      }
+      while (!connected)
+      {
+        await(ws, connectTimeout, "connecting to ");
+        connected = channel.finishConnect();
+      }
+      writeKey.interestOps(SelectionKey.OP_WRITE);
+    }
+    catch (IOException e)
+    {
+      channel.close();
+      if (rs != null)
+      {
+        rs.close();
+      }
+      if (ws != null)
+      {
+        ws.close();
+      }
+      throw e;
+    }
+    readSelector = rs;
+    writeSelector = ws;
+  }
+
+  /**
+   * Waits until the channel is ready for the operation registered
+   * in the selector
+   */
+  private void await(Selector selector, int timeout, String action) throws IOException
+  {
+    long deadline = System.currentTimeMillis() + timeout;
+    while (true)
+    {
+      long remaining = deadline - System.currentTimeMillis();
+      if (timeout > 0 && remaining <= 0)
+      {
+        throw new SocketTimeoutException("Timeout " + action + hostname);
+      }
+      int ready;
+      try
+      {
+        ready = selector.select(timeout > 0 ? remaining : 0);
+        selector.selectedKeys().clear();
+      }
+      catch (ClosedSelectorException e)
+      {
+        throw new AsynchronousCloseException();
+      }
+      if (Thread.interrupted())
+      {
+        close();
+        throw new InterruptedIOException("Interrupted " + action + hostname);
+      }
+      if (closed)
+      {
+        throw new AsynchronousCloseException();
+      }
+      if (ready > 0)
+      {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads what is available into the read buffer.
+   * @param block if true, waits until at least one byte or the end of
+   * the stream has been read
+   * @return false if the end of the stream is reached
+   */
+  private boolean fill(boolean block) throws IOException
+  {
+    if (eof)
+    {
+      return false;
+    }
+    readBuffer.clear();
+    int read;
+    try
+    {
+      while ((read = channel.read(readBuffer)) == 0 && block)
+      {
+        await(readSelector, timeout, "waiting for data from ");
+      }
+    }
+    finally
+    {
+      readBuffer.flip();
+    }
+    if (read < 0)
+    {
+      eof = true;
+      return false;
+    }
+    return true;
+  }
+
+  private class ChannelInputStream extends InputStream
+  {
+
+    @Override
+    public int read() throws IOException
+    {
+      if (!readBuffer.hasRemaining() && !fill(true))
+      {
+        return -1;
+      }
+      return readBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (len == 0)
+      {
+        return 0;
+      }
+      if (!readBuffer.hasRemaining() && !fill(true))
+      {
+        return -1;
+      }
+      len = Math.min(len, readBuffer.remaining());
+      readBuffer.get(b, off, len);
+      return len;
+    }
+
+    /**
+     * Returns the number of bytes which can be read without blocking.
+     * Never blocks itself.
+     */
+    @Override
+    public int available() throws IOException
+    {
+      if (!readBuffer.hasRemaining())
+      {
+        fill(false);
+      }
+      return readBuffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      NioSocketTransport.this.close();
+    }
+  }
+
+  private class ChannelOutputStream extends OutputStream
+  {
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      while (buffer.hasRemaining())
+      {
+        if (channel.write(buffer) == 0)
+        {
+          await(writeSelector, timeout, "sending to ");
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      NioSocketTransport.this.close();
+    }
+  }
+
+  /**
+   * Returns the stream to read from the connection. Closing it closes
+   * the connection.
+   */
+  public InputStream getInputStream()
+  {
+    return in;
+  }
+
+  /**
+   * Returns the unbuffered stream to write to the connection. Closing it
+   * closes the connection.
+   */
+  public OutputStream getOutputStream()
+  {
+    return out;
+  }
+
+  public int getTimeout()
+  {
+    return timeout;
+  }
+
+  /**
+   * Sets the time in ms to wait for data to read or for room to write,
+   * 0 means forever. Applies to the next wait.
+   */
+  public void setTimeout(int timeout)
+  {
+    this.timeout = timeout;
+  }
+
+  public boolean isClosed()
+  {
+    return closed;
+  }
+
+  /**
+   * Closes the connection. May be called from any thread, a thread waiting
+   * for the connection gets an AsynchronousCloseException.
+   */
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    closed = true;
+    try
+    {
+      channel.close();
+    }
+    finally
+    {
+      //null if closed while connecting
+      if (readSelector != null)
+      {
+        readSelector.close();
+        writeSelector.close();
+      }
+    }
+  }
+}
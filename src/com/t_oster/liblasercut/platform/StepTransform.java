@@ -0,0 +1,82 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.platform;
+
+/**
+ * An affine transformation from pixels to integer machine units
+ * (e.g. micrometers or motor steps), computed in 32.32 fixed point.
+ * It is set up once per job part, so converting a vertex needs no
+ * floating point arithmetic and no repeated flip calculations:
+ * <pre>
+ * unitX = round(scaleX * px + offsetX)
+ * unitY = round(scaleY * py + offsetY)
+ * </pre>
+ * Because every point is rounded on its own, relative moves between
+ * the results add up exactly to the absolute positions.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class StepTransform
+{
+
+  private static final int SHIFT = 32;
+  private static final double ONE = 1L << SHIFT;
+  private final long scaleX;
+  private final long offsetX;
+  private final long scaleY;
+  private final long offsetY;
+
+  /**
+   * @param scaleX units per pixel in x direction (negative to flip)
+   * @param offsetX units added in x direction
+   * @param scaleY units per pixel in y direction (negative to flip)
+   * @param offsetY units added in y direction
+   */
+  public StepTransform(double scaleX, double offsetX, double scaleY, double offsetY)
+  {
+    this.scaleX = Math.round(scaleX * ONE);
+    this.scaleY = Math.round(scaleY * ONE);
+    //the half for rounding is added once here instead of per point
+    this.offsetX = Math.round(offsetX * ONE) + (1L << (SHIFT - 1));
+    this.offsetY = Math.round(offsetY * ONE) + (1L << (SHIFT - 1));
+  }
+
+  /**
+   * Creates the transformation from pixels at the given resolution to
+   * unitsPerMm units per mm, where a flipped axis counts from the other
+   * end of the bed.
+   */
+  public static StepTransform fromPixels(double dpi, double unitsPerMm, boolean flipX, double bedWidth, boolean flipY, double bedHeight)
+  {
+    double scale = Util.px2mm(1, dpi) * unitsPerMm;
+    return new StepTransform(
+      flipX ? -scale : scale, flipX ? bedWidth * unitsPerMm : 0,
+      flipY ? -scale : scale, flipY ? bedHeight * unitsPerMm : 0);
+  }
+
+  public int x(int px)
+  {
+    return (int) ((px * scaleX + offsetX) >> SHIFT);
+  }
+
+  public int y(int py)
+  {
+    return (int) ((py * scaleY + offsetY) >> SHIFT);
+  }
+}
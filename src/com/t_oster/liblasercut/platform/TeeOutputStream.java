@@ -0,0 +1,78 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.platform;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream which writes everything to two underlying streams,
+ * e.g. to the connection to a lasercutter and to a debug file.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class TeeOutputStream extends OutputStream
+{
+
+  private OutputStream first;
+  private OutputStream second;
+
+  public TeeOutputStream(OutputStream first, OutputStream second)
+  {
+    this.first = first;
+    this.second = second;
+  }
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    first.write(b);
+    second.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    first.write(b, off, len);
+    second.write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException
+  {
+    first.flush();
+    second.flush();
+  }
+
+  /**
+   * Closes both streams, the second one even if closing the first fails
+   */
+  @Override
+  public void close() throws IOException
+  {
+    try
+    {
+      first.close();
+    }
+    finally
+    {
+      second.close();
+    }
+  }
+}
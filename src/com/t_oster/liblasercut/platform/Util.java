@@ -22,6 +22,9 @@
  */
 package com.t_oster.liblasercut.platform;
 
+import java.io.IOException;
+import java.io.PrintStream;
+
 /**
  *
  * @author oster
@@ -77,4 +80,49 @@ public class Util {
     public static Byte reverseBitwise(Byte get) {
         return (byte) (Integer.reverse(get) >>> (Integer.SIZE - Byte.SIZE));
     }
+
+    /**
+     * Returns the index of the first byte in data[0..length-1] which
+     * is not 0, or -1 if there is none
+     * @param data
+     * @param length
+     * @return
+     */
+    public static int firstNonZero(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            if (data[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the last byte in data[0..length-1] which
+     * is not 0, or -1 if there is none
+     * @param data
+     * @param length
+     * @return
+     */
+    public static int lastNonZero(byte[] data, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (data[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Throws an IOException if writing to out failed. PrintStream
+     * swallows the exceptions of the underlying stream, so drivers
+     * call this after writing each part of a job.
+     * @param out
+     * @throws IOException
+     */
+    public static void checkError(PrintStream out) throws IOException {
+        if (out.checkError()) {
+            throw new IOException("Error while sending the job");
+        }
+    }
 }
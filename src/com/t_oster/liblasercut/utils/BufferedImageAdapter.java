@@ -22,20 +22,36 @@
  */
 package com.t_oster.liblasercut.utils;
 
-import com.t_oster.liblasercut.GreyscaleRaster;
+import com.t_oster.liblasercut.BulkGreyscaleRaster;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 
 /**
  *
  * @author Thomas Oster <thomas.oster@rwth-aachen.de>
  */
-public class BufferedImageAdapter implements GreyscaleRaster
+public class BufferedImageAdapter implements BulkGreyscaleRaster
 {
 
   private BufferedImage img;
   private int colorShift = 0;
   private boolean invertColors = false;
+  /**
+   * maps the luminance of a pixel to the grey value including
+   * colorShift and inversion
+   */
+  private int[] greyTable;
+  /**
+   * luminance of all pixels, row by row. Only used with fast conversion
+   */
+  private byte[] luminance = null;
 
   public BufferedImageAdapter(BufferedImage img)
   {
@@ -43,30 +59,240 @@ public class BufferedImageAdapter implements GreyscaleRaster
   }
   
   public BufferedImageAdapter(BufferedImage img, boolean invertColors)
+  {
+    this(img, invertColors, false);
+  }
+
+  public BufferedImageAdapter(BufferedImage img, boolean invertColors, boolean fastConversion)
   {
     this.img = img;
     this.invertColors = invertColors;
+    this.updateGreyTable();
+    this.setFastConversion(fastConversion);
   }
 
   public void setColorShift(int cs){
       this.colorShift = cs;
+      this.updateGreyTable();
   }
 
   public int getColorShift(){
       return this.colorShift;
   }
 
+  /**
+   * If enabled, the luminance of the whole image is computed once with
+   * integer arithmetic and kept in memory. For TYPE_BYTE_GRAY, TYPE_INT_RGB
+   * and TYPE_3BYTE_BGR images the pixel data is read directly, other
+   * types are read row by row.
+   * Changing the color shift afterwards is cheap, but changes to the image,
+   * which are not made through this adapter, are not noticed.
+   * The result may differ by one from the default conversion, which uses
+   * floating point arithmetic.
+   */
+  public void setFastConversion(boolean fastConversion)
+  {
+    this.luminance = fastConversion ? computeLuminance() : null;
+  }
+
+  public boolean isFastConversion()
+  {
+    return this.luminance != null;
+  }
+
+  private void updateGreyTable()
+  {
+    int[] table = new int[256];
+    for (int i = 0; i < 256; i++)
+    {
+      int value = Math.max(Math.min(colorShift + i, 255), 0);
+      table[i] = invertColors ? 255 - value : value;
+    }
+    this.greyTable = table;
+  }
+
+  private static int getLuminance(int rgb)
+  {
+    int r = (rgb >> 16) & 0xFF;
+    int g = (rgb >> 8) & 0xFF;
+    int b = rgb & 0xFF;
+    return (int) (0.3 * r + 0.59 * g + 0.11 * b);
+  }
+
+  private static int getLuminance(int r, int g, int b)
+  {
+    return (30 * r + 59 * g + 11 * b) / 100;
+  }
+
+  private byte[] computeLuminance()
+  {
+    int width = img.getWidth();
+    int height = img.getHeight();
+    byte[] result = new byte[width * height];
+    WritableRaster raster = img.getRaster();
+    DataBuffer db = raster.getDataBuffer();
+    SampleModel sm = raster.getSampleModel();
+    // position of the image (sub image) inside the data buffer
+    int tx = -raster.getSampleModelTranslateX();
+    int ty = -raster.getSampleModelTranslateY();
+    boolean direct = db.getNumBanks() == 1;
+    if (direct && img.getType() == BufferedImage.TYPE_INT_RGB
+      && db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel)
+    {
+      int[] data = ((DataBufferInt) db).getData();
+      SinglePixelPackedSampleModel spsm = (SinglePixelPackedSampleModel) sm;
+      for (int y = 0; y < height; y++)
+      {
+        int src = db.getOffset() + spsm.getOffset(tx, ty + y);
+        int dst = y * width;
+        for (int x = 0; x < width; x++)
+        {
+          int rgb = data[src + x];
+          result[dst + x] = (byte) getLuminance((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+        }
+      }
+    }
+    else if (direct && img.getType() == BufferedImage.TYPE_3BYTE_BGR
+      && db instanceof DataBufferByte && sm instanceof ComponentSampleModel)
+    {
+      byte[] data = ((DataBufferByte) db).getData();
+      ComponentSampleModel csm = (ComponentSampleModel) sm;
+      int pixelStride = csm.getPixelStride();
+      int[] bandOffsets = csm.getBandOffsets();
+      for (int y = 0; y < height; y++)
+      {
+        int src = db.getOffset() + csm.getOffset(tx, ty + y, 0) - bandOffsets[0];
+        int dst = y * width;
+        for (int x = 0; x < width; x++)
+        {
+          int r = 0xFF & data[src + bandOffsets[0]];
+          int g = 0xFF & data[src + bandOffsets[1]];
+          int b = 0xFF & data[src + bandOffsets[2]];
+          result[dst + x] = (byte) getLuminance(r, g, b);
+          src += pixelStride;
+        }
+      }
+    }
+    else if (direct && img.getType() == BufferedImage.TYPE_BYTE_GRAY
+      && db instanceof DataBufferByte && sm instanceof ComponentSampleModel)
+    {
+      byte[] data = ((DataBufferByte) db).getData();
+      ComponentSampleModel csm = (ComponentSampleModel) sm;
+      int pixelStride = csm.getPixelStride();
+      // the stored grey values are linear, so they have to be
+      // converted to sRGB like getRGB does
+      byte[] greyToLuminance = new byte[256];
+      for (int i = 0; i < 256; i++)
+      {
+        int rgb = img.getColorModel().getRGB(i);
+        greyToLuminance[i] = (byte) getLuminance((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+      }
+      for (int y = 0; y < height; y++)
+      {
+        int src = db.getOffset() + csm.getOffset(tx, ty + y);
+        int dst = y * width;
+        for (int x = 0; x < width; x++)
+        {
+          result[dst + x] = greyToLuminance[0xFF & data[src]];
+          src += pixelStride;
+        }
+      }
+    }
+    else
+    {
+      int[] rgbs = new int[width];
+      for (int y = 0; y < height; y++)
+      {
+        img.getRGB(0, y, width, 1, rgbs, 0, width);
+        int dst = y * width;
+        for (int x = 0; x < width; x++)
+        {
+          int rgb = rgbs[x];
+          result[dst + x] = (byte) getLuminance((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+        }
+      }
+    }
+    return result;
+  }
+
   public int getGreyScale(int x, int line)
   {
-    Color c = new Color(img.getRGB(x, line));
-    int value = colorShift+(int) (0.3 * c.getRed() + 0.59 * c.getGreen() + 0.11 * c.getBlue());
-    return invertColors ? 255-Math.max(Math.min(value, 255), 0) : Math.max(Math.min(value, 255), 0);
+    if (luminance != null)
+    {
+      return greyTable[0xFF & luminance[line * img.getWidth() + x]];
+    }
+    return greyTable[getLuminance(img.getRGB(x, line))];
   }
 
   public void setGreyScale(int x, int y, int grey)
   {
     Color c = new Color(grey, grey, grey);
     img.setRGB(x, y, c.getRGB());
+    if (luminance != null)
+    {
+      luminance[y * img.getWidth() + x] = (byte) grey;
+    }
+  }
+
+  public void getRow(int y, int[] dst)
+  {
+    int width = img.getWidth();
+    int[] table = greyTable;
+    if (luminance != null)
+    {
+      int offset = y * width;
+      for (int x = 0; x < width; x++)
+      {
+        dst[x] = table[0xFF & luminance[offset + x]];
+      }
+    }
+    else
+    {
+      img.getRGB(0, y, width, 1, dst, 0, width);
+      for (int x = 0; x < width; x++)
+      {
+        dst[x] = table[getLuminance(dst[x])];
+      }
+    }
+  }
+
+  public void getRow(int y, byte[] dst)
+  {
+    int width = img.getWidth();
+    int[] table = greyTable;
+    if (luminance != null)
+    {
+      int offset = y * width;
+      for (int x = 0; x < width; x++)
+      {
+        dst[x] = (byte) table[0xFF & luminance[offset + x]];
+      }
+    }
+    else
+    {
+      int[] rgbs = new int[width];
+      img.getRGB(0, y, width, 1, rgbs, 0, width);
+      for (int x = 0; x < width; x++)
+      {
+        dst[x] = (byte) table[getLuminance(rgbs[x])];
+      }
+    }
+  }
+
+  public void setRow(int y, int[] src)
+  {
+    for (int x = 0; x < img.getWidth(); x++)
+    {
+      this.setGreyScale(x, y, src[x]);
+    }
+  }
+
+  public void setRow(int y, byte[] src)
+  {
+    for (int x = 0; x < img.getWidth(); x++)
+    {
+      this.setGreyScale(x, y, 0xFF & src[x]);
+    }
   }
 
   public int getWidth()
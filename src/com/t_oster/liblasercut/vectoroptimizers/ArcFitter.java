@@ -0,0 +1,222 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.VectorArc;
+import com.t_oster.liblasercut.VectorCommand;
+import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.Util;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds runs of LINETO commands, which lie on a circular arc (like the
+ * flattened curves from ShapeConverter), so drivers can send one arc
+ * command (G2/G3) instead of many short lines. The arcs are either
+ * returned (findArcs) or marked in the part (fit), the commands
+ * themselves are not changed.
+ * A run is an arc, if every point and the middle of every line is at most
+ * the tolerance away from the circle and the run turns in one direction
+ * by at most 180 degrees. Runs are extended greedily, so a part is
+ * processed in O(n log n).
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class ArcFitter
+{
+
+  //integer coordinates are up to half a diagonal pixel off the curve
+  private static final double MIN_TOLERANCE = 0.71;
+  //an arc has to replace at least this many lines
+  static final int MIN_LINES = 3;
+  private static final double MAX_RADIUS = 1e6;
+  private double tolerance = 0.05;
+  //result of the last successful check
+  private double centerX;
+  private double centerY;
+  private boolean clockwise;
+
+  /**
+   * Sets the maximal distance (in mm) between the lines and the arc.
+   * It is at least the rounding error of the pixel coordinates.
+   */
+  public void setTolerance(double tolerance)
+  {
+    this.tolerance = tolerance;
+  }
+
+  public double getTolerance()
+  {
+    return this.tolerance;
+  }
+
+  /**
+   * Replaces all arcs of the given part with the ones found in it
+   * @return the number of arcs found
+   */
+  public int fit(VectorPart vp)
+  {
+    vp.clearArcs();
+    Map<Integer, VectorArc> arcs = findArcs(vp);
+    for (Map.Entry<Integer, VectorArc> e : arcs.entrySet())
+    {
+      vp.setArc(e.getKey(), e.getValue());
+    }
+    return arcs.size();
+  }
+
+  /**
+   * Finds the arcs in the given part without changing it
+   * @return the arcs by the index of their first LINETO (like VectorPart.getArc)
+   */
+  public Map<Integer, VectorArc> findArcs(VectorPart vp)
+  {
+    Map<Integer, VectorArc> result = new HashMap<Integer, VectorArc>();
+    double tol = Math.max(MIN_TOLERANCE, Util.mm2px(tolerance, vp.getDPI()));
+    int n = vp.getCommandCount();
+    int i = 0;
+    while (i < n)
+    {
+      if (vp.getCommandType(i) == VectorCommand.CmdType.SETPROPERTY)
+      {
+        i++;
+        continue;
+      }
+      //points from i to last are connected by lines
+      int last = i;
+      while (last + 1 < n && vp.getCommandType(last + 1) == VectorCommand.CmdType.LINETO)
+      {
+        last++;
+      }
+      findArcs(vp, i, last, tol, result);
+      i = last + 1;
+    }
+    return result;
+  }
+
+  private void findArcs(VectorPart vp, int first, int last, double tol, Map<Integer, VectorArc> result)
+  {
+    int a = first;
+    while (a + MIN_LINES <= last)
+    {
+      if (!isArc(vp, a, a + MIN_LINES, tol))
+      {
+        a++;
+        continue;
+      }
+      //double the length while it fits, then search the longest one
+      int good = a + MIN_LINES;
+      int bad = last + 1;
+      while (good < last)
+      {
+        int e = Math.min(last, a + 2 * (good - a));
+        if (isArc(vp, a, e, tol))
+        {
+          good = e;
+        }
+        else
+        {
+          bad = e;
+          break;
+        }
+      }
+      while (bad - good > 1)
+      {
+        int e = (good + bad) / 2;
+        if (isArc(vp, a, e, tol))
+        {
+          good = e;
+        }
+        else
+        {
+          bad = e;
+        }
+      }
+      isArc(vp, a, good, tol);
+      result.put(a + 1, new VectorArc(good, centerX, centerY, clockwise));
+      a = good;
+    }
+  }
+
+  /**
+   * Checks if the points from a to e lie on the circle through the
+   * points a, (a+e)/2 and e and stores its center and direction
+   */
+  private boolean isArc(VectorPart vp, int a, int e, double tol)
+  {
+    int m = (a + e) / 2;
+    double ax = vp.getX(a);
+    double ay = vp.getY(a);
+    double bx = vp.getX(m) - ax;
+    double by = vp.getY(m) - ay;
+    double cx = vp.getX(e) - ax;
+    double cy = vp.getY(e) - ay;
+    double d = 2 * (bx * cy - by * cx);
+    if (d == 0 || cx * cx + cy * cy < 4 * tol * tol)
+    {
+      return false;
+    }
+    //circumcenter relative to a
+    double ux = (cy * (bx * bx + by * by) - by * (cx * cx + cy * cy)) / d;
+    double uy = (bx * (cx * cx + cy * cy) - cx * (bx * bx + by * by)) / d;
+    double r = Math.sqrt(ux * ux + uy * uy);
+    if (r > MAX_RADIUS)
+    {
+      return false;
+    }
+    boolean cw = d < 0;
+    double sweep = 0;
+    double px = -ux;
+    double py = -uy;
+    for (int i = a + 1; i <= e; i++)
+    {
+      double qx = vp.getX(i) - ax - ux;
+      double qy = vp.getY(i) - ay - uy;
+      double dist = Math.sqrt(qx * qx + qy * qy);
+      if (Math.abs(dist - r) > tol)
+      {
+        return false;
+      }
+      double cross = px * qy - py * qx;
+      if (cw ? cross > 0 : cross < 0)
+      {
+        return false;
+      }
+      //distance of the middle of the line to the circle. The lines of a
+      //flattened curve are already up to the flatness away from it, so
+      //they may deviate more than the points
+      double mx = (px + qx) / 2;
+      double my = (py + qy) / 2;
+      if (r - Math.sqrt(mx * mx + my * my) > 2 * tol)
+      {
+        return false;
+      }
+      sweep += Math.atan2(Math.abs(cross), px * qx + py * qy);
+      if (sweep > Math.PI)
+      {
+        return false;
+      }
+      px = qx;
+      py = qy;
+    }
+    centerX = ax + ux;
+    centerY = ay + uy;
+    clockwise = cw;
+    return true;
+  }
+}
@@ -18,17 +18,316 @@
  **/
 package com.t_oster.liblasercut.vectoroptimizers;
 
+import com.t_oster.liblasercut.LaserProperty;
+import com.t_oster.liblasercut.platform.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This VectorOptimizer removes all duplicate (identical) Elements
- * and sorts the remaining (unique) elements with a NearestVectorOptimizer
+ * and sorts the remaining (unique) elements with a NearestVectorOptimizer.
+ * Elements are also considered identical if one is the reverse of the other.
+ * Of several identical elements, the last one is kept.
+ * Straight segments with the same property, which lie on the same line
+ * (within a tolerance) and overlap, are merged into one segment.
  * @author René Bohne
  */
 public class DeleteDuplicatePathsOptimizer extends VectorOptimizer
 {
 
+  private double tolerance = 0;
+
+  /**
+   * Sets the tolerance (in pixels) for merging overlapping straight segments.
+   * Two segments are considered to be on the same line, if the end points
+   * of each segment are at most this far away from the line through the
+   * other one. With a tolerance of 0 only exactly collinear segments are merged.
+   */
+  public void setTolerance(double tolerance)
+  {
+    this.tolerance = tolerance;
+  }
+
+  public double getTolerance()
+  {
+    return this.tolerance;
+  }
+
+  /**
+   * The points of an element in the order, which is lexicographically smaller
+   * of both directions, so an element and its reverse have the same key.
+   */
+  private static class PathKey
+  {
+
+    private LaserProperty prop;
+    private int[] coords;
+    private int hash;
+
+    PathKey(Element e)
+    {
+      prop = e.prop;
+      coords = new int[2 * (e.moves.size() + 1)];
+      coords[0] = e.start.x;
+      coords[1] = e.start.y;
+      int i = 2;
+      for (Point p : e.moves)
+      {
+        coords[i++] = p.x;
+        coords[i++] = p.y;
+      }
+      int n = coords.length;
+      for (int j = 0; j < n; j += 2)
+      {
+        int diff = coords[j] != coords[n - 2 - j] ? coords[j] - coords[n - 2 - j] : coords[j + 1] - coords[n - 1 - j];
+        if (diff < 0)
+        {
+          break;
+        }
+        else if (diff > 0)
+        {
+          int[] reverse = new int[n];
+          for (int k = 0; k < n; k += 2)
+          {
+            reverse[k] = coords[n - 2 - k];
+            reverse[k + 1] = coords[n - 1 - k];
+          }
+          coords = reverse;
+          break;
+        }
+      }
+      hash = Arrays.hashCode(coords);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof PathKey))
+      {
+        return false;
+      }
+      PathKey k = (PathKey) o;
+      return hash == k.hash && Arrays.equals(coords, k.coords)
+        && (prop == null ? k.prop == null : prop.equals(k.prop));
+    }
+  }
+
+  /**
+   * Checks if p is within the tolerance of the line through a and b
+   */
+  private boolean isOnLine(Point a, Point b, Point p)
+  {
+    long dx = b.x - a.x;
+    long dy = b.y - a.y;
+    long cross = dx * (p.y - a.y) - dy * (p.x - a.x);
+    return cross == 0 || (double) cross * cross <= tolerance * tolerance * (dx * dx + dy * dy);
+  }
+
+  /**
+   * Checks if both straight segments have the same property, lie on the
+   * same line and overlap (touching is not enough)
+   */
+  private boolean overlap(Element a, Element b)
+  {
+    if (a.prop == null ? b.prop != null : !a.prop.equals(b.prop))
+    {
+      return false;
+    }
+    Point a0 = a.start;
+    Point a1 = a.getEnd();
+    Point b0 = b.start;
+    Point b1 = b.getEnd();
+    if (!isOnLine(a0, a1, b0) || !isOnLine(a0, a1, b1) || !isOnLine(b0, b1, a0) || !isOnLine(b0, b1, a1))
+    {
+      return false;
+    }
+    //project b onto a, where a goes from 0 to len
+    long dx = a1.x - a0.x;
+    long dy = a1.y - a0.y;
+    long len = dx * dx + dy * dy;
+    long p0 = dx * (b0.x - a0.x) + dy * (b0.y - a0.y);
+    long p1 = dx * (b1.x - a0.x) + dy * (b1.y - a0.y);
+    return Math.max(0, Math.min(p0, p1)) < Math.min(len, Math.max(p0, p1));
+  }
+
+  private static int find(int[] parent, int i)
+  {
+    while (parent[i] != i)
+    {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * Adds segment i to all grid cells, which it crosses or passes within
+   * the tolerance. The cells are visited column by column, so a long
+   * diagonal segment only occupies about 2*length/cellSize cells instead
+   * of all cells of its bounding box.
+   */
+  private void addToGrid(Map<Long, List<Integer>> grid, int i, Point a, Point b, double cellSize)
+  {
+    if (a.x > b.x)
+    {
+      Point t = a;
+      a = b;
+      b = t;
+    }
+    int x0 = (int) Math.floor((a.x - tolerance) / cellSize);
+    int x1 = (int) Math.floor((b.x + tolerance) / cellSize);
+    for (int x = x0; x <= x1; x++)
+    {
+      //the part of the segment within this column (widened by the tolerance)
+      double ya = a.y;
+      double yb = b.y;
+      if (b.x != a.x)
+      {
+        double slope = (double) (b.y - a.y) / (b.x - a.x);
+        double from = Math.max(a.x, x * cellSize - tolerance);
+        double to = Math.min(b.x, (x + 1) * cellSize + tolerance);
+        ya = a.y + slope * (from - a.x);
+        yb = a.y + slope * (to - a.x);
+      }
+      int y0 = (int) Math.floor((Math.min(ya, yb) - tolerance) / cellSize);
+      int y1 = (int) Math.floor((Math.max(ya, yb) + tolerance) / cellSize);
+      for (int y = y0; y <= y1; y++)
+      {
+        //multiplying with an odd constant is a bijection, but unlike the
+        //plain key it does not hash all cells of a diagonal to x^y
+        Long cell = (((long) x << 32) | (y & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        List<Integer> content = grid.get(cell);
+        if (content == null)
+        {
+          content = new ArrayList<Integer>();
+          grid.put(cell, content);
+        }
+        content.add(i);
+      }
+    }
+  }
+
+  /**
+   * Merges straight segments, which lie on the same line and overlap.
+   * Candidates are found with a grid over the cells, which the segments
+   * cross. The merged segment replaces the last one of the segments
+   * and keeps its direction.
+   */
+  private List<Element> mergeCollinearSegments(List<Element> e)
+  {
+    Element[] elements = e.toArray(new Element[e.size()]);
+    List<Integer> segments = new ArrayList<Integer>();
+    double length = 0;
+    for (int i = 0; i < elements.length; i++)
+    {
+      if (elements[i].moves.size() == 1 && !elements[i].start.equals(elements[i].getEnd()))
+      {
+        segments.add(i);
+        length += dist(elements[i].start, elements[i].getEnd());
+      }
+    }
+    if (segments.size() < 2)
+    {
+      return e;
+    }
+    //about one cell per segment
+    double cellSize = Math.max(Math.max(1, 2 * tolerance), length / segments.size());
+    Map<Long, List<Integer>> grid = new HashMap<Long, List<Integer>>();
+    for (int i : segments)
+    {
+      addToGrid(grid, i, elements[i].start, elements[i].getEnd(), cellSize);
+    }
+    int[] parent = new int[elements.length];
+    for (int i = 0; i < parent.length; i++)
+    {
+      parent[i] = i;
+    }
+    for (List<Integer> content : grid.values())
+    {
+      for (int j = 1; j < content.size(); j++)
+      {
+        for (int k = 0; k < j; k++)
+        {
+          int a = find(parent, content.get(j));
+          int b = find(parent, content.get(k));
+          if (a != b && overlap(elements[content.get(j)], elements[content.get(k)]))
+          {
+            parent[Math.min(a, b)] = Math.max(a, b);
+          }
+        }
+      }
+    }
+    //the root of each cluster is its last segment
+    Map<Integer, List<Integer>> clusters = new HashMap<Integer, List<Integer>>();
+    for (int i : segments)
+    {
+      int root = find(parent, i);
+      if (root != i)
+      {
+        List<Integer> cluster = clusters.get(root);
+        if (cluster == null)
+        {
+          cluster = new ArrayList<Integer>();
+          clusters.put(root, cluster);
+        }
+        cluster.add(i);
+      }
+    }
+    for (Map.Entry<Integer, List<Integer>> cluster : clusters.entrySet())
+    {
+      Element keep = elements[cluster.getKey()];
+      long dx = keep.getEnd().x - keep.start.x;
+      long dy = keep.getEnd().y - keep.start.y;
+      Point min = keep.start;
+      Point max = keep.getEnd();
+      long minPos = dx * min.x + dy * min.y;
+      long maxPos = dx * max.x + dy * max.y;
+      for (int i : cluster.getValue())
+      {
+        for (Point p : new Point[]{elements[i].start, elements[i].getEnd()})
+        {
+          long pos = dx * p.x + dy * p.y;
+          if (pos < minPos)
+          {
+            minPos = pos;
+            min = p;
+          }
+          if (pos > maxPos)
+          {
+            maxPos = pos;
+            max = p;
+          }
+        }
+        elements[i] = null;
+      }
+      keep.start = min;
+      keep.moves = new LinkedList<Point>();
+      keep.moves.add(max);
+    }
+    List<Element> result = new LinkedList<Element>();
+    for (Element element : elements)
+    {
+      if (element != null)
+      {
+        result.add(element);
+      }
+    }
+    return result;
+  }
+
   @Override
   protected List<Element> sort(List<Element> e)
   {
@@ -37,33 +336,21 @@ public class DeleteDuplicatePathsOptimizer extends VectorOptimizer
     {
       return result;
     }
-    
-    List<Element> doubleEntries = new LinkedList<Element>();
-    
-    for(int i=0;i<e.size();i++)
+
+    //go backwards, so the last of several identical elements is kept
+    Set<PathKey> known = new HashSet<PathKey>();
+    LinkedList<Element> unique = new LinkedList<Element>();
+    for (ListIterator<Element> it = e.listIterator(e.size()); it.hasPrevious();)
     {
-      for(int j=0;j<e.size();j++)
+      Element element = it.previous();
+      if (known.add(new PathKey(element)))
       {
-        if(i!=j)
-        {
-         if(e.get(i).equals(e.get(j)))
-         {
-           if(!doubleEntries.contains(e.get(j)))
-           {
-            doubleEntries.add(e.get(i));
-           }
-         }
-        }
+        unique.addFirst(element);
       }
     }
-    
-    for(Element doubleEntry : doubleEntries)
-    {
-      e.remove(doubleEntry);
-    }
-    
+
     NearestVectorOptimizer vo = new NearestVectorOptimizer();
-    result = vo.sort(e);
+    result = vo.sort(mergeCollinearSegments(unique));
     
     return result;
   }
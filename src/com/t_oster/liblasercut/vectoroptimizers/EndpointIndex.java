@@ -0,0 +1,311 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.platform.Point;
+
+/**
+ * A k-d tree over the start and end points of a list of elements, which
+ * supports removing elements and finding the nearest start or end point(s)
+ * of the remaining elements in O(log n).
+ *
+ * Points are identified by 2 * element for the start and 2 * element + 1
+ * for the end of an element. If several points have the same distance,
+ * the one with the smallest id wins, so the result does not depend on
+ * the layout of the tree.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+class EndpointIndex
+{
+
+  private int size;
+  private int[] xs;
+  private int[] ys;
+  private int[] ids;
+  //position of each id in the tree or -1
+  private int[] positions;
+  //number of remaining points in the subtree of each node
+  private int[] alive;
+  private boolean[] removed;
+  //state of the current search, the best points found so far ordered by distance
+  private long[] bestDists = new long[1];
+  private int[] bestIds = new int[1];
+  private int found;
+  private int skipElement;
+
+  /**
+   * Creates an index over the given points. End points which are equal
+   * to the start point of their element are left out.
+   */
+  EndpointIndex(Point[] starts, Point[] ends)
+  {
+    int max = 2 * starts.length;
+    xs = new int[max];
+    ys = new int[max];
+    ids = new int[max];
+    positions = new int[max];
+    for (int i = 0; i < starts.length; i++)
+    {
+      add(2 * i, starts[i]);
+      if (!starts[i].equals(ends[i]))
+      {
+        add(2 * i + 1, ends[i]);
+      }
+    }
+    alive = new int[size];
+    removed = new boolean[size];
+    build(0, size, 0);
+    for (int i = 0; i < max; i++)
+    {
+      positions[i] = -1;
+    }
+    for (int i = 0; i < size; i++)
+    {
+      positions[ids[i]] = i;
+    }
+  }
+
+  private void add(int id, Point p)
+  {
+    xs[size] = p.x;
+    ys[size] = p.y;
+    ids[size] = id;
+    size++;
+  }
+
+  static int getElement(int id)
+  {
+    return id >> 1;
+  }
+
+  static boolean isEnd(int id)
+  {
+    return (id & 1) == 1;
+  }
+
+  /**
+   * Removes the start and end point of the given element
+   */
+  void remove(int element)
+  {
+    removePoint(2 * element);
+    removePoint(2 * element + 1);
+  }
+
+  private void removePoint(int id)
+  {
+    int p = positions[id];
+    if (p < 0 || removed[p])
+    {
+      return;
+    }
+    removed[p] = true;
+    int lo = 0;
+    int hi = size;
+    while (true)
+    {
+      int mid = (lo + hi) >>> 1;
+      alive[mid]--;
+      if (p == mid)
+      {
+        return;
+      }
+      else if (p < mid)
+      {
+        hi = mid;
+      }
+      else
+      {
+        lo = mid + 1;
+      }
+    }
+  }
+
+  /**
+   * Returns the id of the remaining point nearest to (x,y)
+   * or -1 if all points have been removed
+   */
+  int getNearest(int x, int y)
+  {
+    if (bestIds.length != 1)
+    {
+      bestDists = new long[1];
+      bestIds = new int[1];
+    }
+    return search(x, y, -1) == 0 ? -1 : bestIds[0];
+  }
+
+  /**
+   * Stores the ids of the remaining points nearest to (x,y) in result,
+   * ordered by distance. Points of the given element are skipped.
+   *
+   * @return the number of points found, at most result.length
+   */
+  int getNearest(int x, int y, int skipElement, int[] result)
+  {
+    if (bestIds.length != result.length)
+    {
+      bestDists = new long[result.length];
+      bestIds = new int[result.length];
+    }
+    int count = search(x, y, skipElement);
+    System.arraycopy(bestIds, 0, result, 0, count);
+    return count;
+  }
+
+  private int search(int x, int y, int skipElement)
+  {
+    this.found = 0;
+    this.skipElement = skipElement;
+    search(0, size, 0, x, y);
+    return found;
+  }
+
+  private void add(long d, int id)
+  {
+    int k = bestIds.length;
+    if (found == k && (d > bestDists[k - 1] || (d == bestDists[k - 1] && id > bestIds[k - 1])))
+    {
+      return;
+    }
+    int i = found < k ? found++ : k - 1;
+    while (i > 0 && (d < bestDists[i - 1] || (d == bestDists[i - 1] && id < bestIds[i - 1])))
+    {
+      bestDists[i] = bestDists[i - 1];
+      bestIds[i] = bestIds[i - 1];
+      i--;
+    }
+    bestDists[i] = d;
+    bestIds[i] = id;
+  }
+
+  /**
+   * Points further away than this can not be among the best points anymore
+   */
+  private long getBound()
+  {
+    return found < bestIds.length ? Long.MAX_VALUE : bestDists[found - 1];
+  }
+
+  private void search(int lo, int hi, int depth, int x, int y)
+  {
+    if (lo >= hi)
+    {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    if (alive[mid] == 0)
+    {
+      return;
+    }
+    if (!removed[mid] && getElement(ids[mid]) != skipElement)
+    {
+      long dx = (long) x - xs[mid];
+      long dy = (long) y - ys[mid];
+      add(dx * dx + dy * dy, ids[mid]);
+    }
+    long diff = (depth & 1) == 0 ? (long) x - xs[mid] : (long) y - ys[mid];
+    if (diff < 0)
+    {
+      search(lo, mid, depth + 1, x, y);
+      if (diff * diff <= getBound())
+      {
+        search(mid + 1, hi, depth + 1, x, y);
+      }
+    }
+    else
+    {
+      search(mid + 1, hi, depth + 1, x, y);
+      if (diff * diff <= getBound())
+      {
+        search(lo, mid, depth + 1, x, y);
+      }
+    }
+  }
+
+  private void build(int lo, int hi, int depth)
+  {
+    if (lo >= hi)
+    {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    select(lo, hi - 1, mid, (depth & 1) == 0 ? xs : ys);
+    alive[mid] = hi - lo;
+    build(lo, mid, depth + 1);
+    build(mid + 1, hi, depth + 1);
+  }
+
+  /**
+   * Partially sorts the points between lo and hi (inclusive) by the
+   * given coordinate, so that the k-th point is at its place and
+   * all points before (after) it are smaller (greater) or equal.
+   */
+  private void select(int lo, int hi, int k, int[] key)
+  {
+    while (hi > lo)
+    {
+      int pivot = key[(lo + hi) >>> 1];
+      int lt = lo;
+      int gt = hi;
+      int i = lo;
+      while (i <= gt)
+      {
+        if (key[i] < pivot)
+        {
+          swap(lt++, i++);
+        }
+        else if (key[i] > pivot)
+        {
+          swap(i, gt--);
+        }
+        else
+        {
+          i++;
+        }
+      }
+      if (k < lt)
+      {
+        hi = lt - 1;
+      }
+      else if (k > gt)
+      {
+        lo = gt + 1;
+      }
+      else
+      {
+        return;
+      }
+    }
+  }
+
+  private void swap(int a, int b)
+  {
+    int t = xs[a];
+    xs[a] = xs[b];
+    xs[b] = t;
+    t = ys[a];
+    ys[a] = ys[b];
+    ys[b] = t;
+    t = ids[a];
+    ids[a] = ids[b];
+    ids[b] = t;
+  }
+}
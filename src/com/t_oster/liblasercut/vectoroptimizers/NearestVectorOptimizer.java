@@ -23,6 +23,11 @@ import java.util.LinkedList;
 import java.util.List;
 
 /**
+ * Always continues with the element whose start or end point is nearest
+ * to the end of the previous element. The elements are looked up in an
+ * EndpointIndex, so this runs in O(n log n) instead of O(n^2).
+ * If several points have the same distance, the element which comes first
+ * in the file wins and start points are preferred over end points.
  *
  * @author Thomas Oster <thomas.oster@rwth-aachen.de>
  */
@@ -37,49 +42,32 @@ public class NearestVectorOptimizer extends VectorOptimizer
     {
       return result;
     }
+    Element[] elements = e.toArray(new Element[e.size()]);
+    Point[] starts = new Point[elements.length];
+    Point[] ends = new Point[elements.length];
+    for (int i = 0; i < elements.length; i++)
+    {
+      starts[i] = elements[i].start;
+      ends[i] = elements[i].getEnd();
+    }
+    EndpointIndex index = new EndpointIndex(starts, ends);
 
-    result.add(e.remove(0));
-    while (!e.isEmpty())
+    Element current = elements[0];
+    index.remove(0);
+    result.add(current);
+    for (int i = 1; i < elements.length; i++)
     {
-      Point end = result.get(result.size() - 1).getEnd();
+      Point end = current.getEnd();
       //find nearest element
-      int next = 0;
+      int next = index.getNearest(end.x, end.y);
+      current = elements[EndpointIndex.getElement(next)];
+      index.remove(EndpointIndex.getElement(next));
       //invert element direction if endpoint is nearer
-      boolean invert = false;
-      double dst = -1;
-      for (int i = 1; i < e.size(); i++)
-      {
-        //check distance to startpoint
-        double nd = dist(e.get(i).start, end);
-        if (nd < dst || dst == -1)
-        {
-          next = i;
-          dst = nd;
-          invert = false;
-        }
-        if (!e.get(i).start.equals(e.get(i).getEnd()))
-        {
-          //check distance to endpoint
-          nd = dist(e.get(i).getEnd(), end);
-          if (nd < dst || dst == -1)
-          {
-            next = i;
-            dst = nd;
-            invert = true;
-          }
-        }
-      }
-      //add next
-      if (invert)
-      {
-        Element m = e.remove(next);
-        m.invert();
-        result.add(m);
-      }
-      else
+      if (EndpointIndex.isEnd(next))
       {
-        result.add(e.remove(next));
+        current.invert();
       }
+      result.add(current);
     }
     return result;
   }
@@ -0,0 +1,276 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.LaserProperty;
+import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.Point;
+import com.t_oster.liblasercut.platform.Util;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes vertices, which do not change the shape of a path by more than
+ * a given tolerance: repeated points, points on the straight line between
+ * their neighbours and (with a tolerance greater than 0) points which are
+ * closer to the simplified path than the tolerance (Douglas-Peucker).
+ * Start and end point of each path are always kept, so closed paths stay
+ * closed. The elements are ordered by another VectorOptimizer afterwards.
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class SimplifyingVectorOptimizer extends VectorOptimizer
+{
+
+  private VectorOptimizer order;
+  private double tolerance = 0;
+  private Map<LaserProperty, Double> tolerances = new HashMap<LaserProperty, Double>();
+  private double dpi = 500;
+  private int inputVertices = 0;
+  private int outputVertices = 0;
+
+  /**
+   * Creates a simplifier, which keeps the order of the file
+   */
+  public SimplifyingVectorOptimizer()
+  {
+    this(new FileVectorOptimizer());
+  }
+
+  /**
+   * Creates a simplifier, which sorts the simplified elements
+   * with the given optimizer
+   */
+  public SimplifyingVectorOptimizer(VectorOptimizer order)
+  {
+    this.order = order;
+  }
+
+  /**
+   * Sets the tolerance (in mm) for all properties, which have no
+   * tolerance of their own. A good value is the step size of the machine.
+   * With a tolerance of 0 only repeated and exactly collinear points
+   * are removed.
+   */
+  public void setTolerance(double tolerance)
+  {
+    this.tolerance = tolerance;
+  }
+
+  public double getTolerance()
+  {
+    return this.tolerance;
+  }
+
+  /**
+   * Sets the tolerance (in mm) for the parts cut with the given property,
+   * e.g. a larger one for fast engraving. A negative value removes it.
+   */
+  public void setTolerance(LaserProperty prop, double tolerance)
+  {
+    if (tolerance < 0)
+    {
+      tolerances.remove(prop);
+    }
+    else
+    {
+      tolerances.put(prop, tolerance);
+    }
+  }
+
+  public double getTolerance(LaserProperty prop)
+  {
+    Double result = tolerances.get(prop);
+    return result != null ? result : this.tolerance;
+  }
+
+  /**
+   * Number of vertices (start points and line ends) before the last
+   * call of optimize
+   */
+  public int getInputVertexCount()
+  {
+    return inputVertices;
+  }
+
+  /**
+   * Number of vertices after the last call of optimize
+   */
+  public int getOutputVertexCount()
+  {
+    return outputVertices;
+  }
+
+  /**
+   * The fraction of vertices removed by the last call of optimize,
+   * between 0 (nothing removed) and 1
+   */
+  public double getReductionRatio()
+  {
+    return inputVertices == 0 ? 0 : 1 - (double) outputVertices / inputVertices;
+  }
+
+  @Override
+  public VectorPart optimize(VectorPart vp)
+  {
+    dpi = vp.getDPI();
+    inputVertices = 0;
+    outputVertices = 0;
+    return super.optimize(vp);
+  }
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    for (Element el : e)
+    {
+      simplify(el, Util.mm2px(getTolerance(el.prop), dpi));
+    }
+    return order.sort(e);
+  }
+
+  private void simplify(Element e, double tolerance)
+  {
+    int n = e.moves.size() + 1;
+    inputVertices += n;
+    int[] x = new int[n];
+    int[] y = new int[n];
+    //remove repeated and exactly collinear points in one pass
+    x[0] = e.start.x;
+    y[0] = e.start.y;
+    int count = 1;
+    for (Point p : e.moves)
+    {
+      if (p.x == x[count - 1] && p.y == y[count - 1])
+      {
+        continue;
+      }
+      if (count >= 2 && isBetween(x[count - 2], y[count - 2], x[count - 1], y[count - 1], p.x, p.y))
+      {
+        count--;
+      }
+      x[count] = p.x;
+      y[count] = p.y;
+      count++;
+    }
+    boolean[] keep = new boolean[count];
+    keep[0] = true;
+    keep[count - 1] = true;
+    if (tolerance > 0 && count > 2)
+    {
+      douglasPeucker(x, y, count, tolerance * tolerance, keep);
+    }
+    else
+    {
+      for (int i = 1; i < count - 1; i++)
+      {
+        keep[i] = true;
+      }
+    }
+    List<Point> moves = new LinkedList<Point>();
+    for (int i = 1; i < count; i++)
+    {
+      if (keep[i])
+      {
+        moves.add(new Point(x[i], y[i]));
+      }
+    }
+    if (moves.isEmpty())
+    {
+      //a path of zero length still burns a dot
+      moves.add(new Point(x[0], y[0]));
+    }
+    e.moves = moves;
+    outputVertices += moves.size() + 1;
+  }
+
+  /**
+   * true if b lies on the segment from a to c
+   */
+  private static boolean isBetween(long ax, long ay, long bx, long by, long cx, long cy)
+  {
+    long cross = (bx - ax) * (cy - by) - (by - ay) * (cx - bx);
+    long dot = (bx - ax) * (cx - bx) + (by - ay) * (cy - by);
+    return cross == 0 && dot >= 0;
+  }
+
+  /**
+   * Marks the points, which have to be kept. Uses an explicit stack
+   * instead of recursion, so long paths can not overflow the call stack.
+   */
+  private static void douglasPeucker(int[] x, int[] y, int count, double sqTolerance, boolean[] keep)
+  {
+    int[] stack = new int[2 * count];
+    int top = 0;
+    stack[top++] = 0;
+    stack[top++] = count - 1;
+    while (top > 0)
+    {
+      int last = stack[--top];
+      int first = stack[--top];
+      double max = sqTolerance;
+      int index = -1;
+      for (int i = first + 1; i < last; i++)
+      {
+        double d = sqSegmentDistance(x[i], y[i], x[first], y[first], x[last], y[last]);
+        if (d > max)
+        {
+          max = d;
+          index = i;
+        }
+      }
+      if (index != -1)
+      {
+        keep[index] = true;
+        stack[top++] = first;
+        stack[top++] = index;
+        stack[top++] = index;
+        stack[top++] = last;
+      }
+    }
+  }
+
+  /**
+   * squared distance of p to the segment from a to b. Using the segment
+   * instead of the line keeps the tips of paths, which turn back.
+   */
+  private static double sqSegmentDistance(double px, double py, double ax, double ay, double bx, double by)
+  {
+    double dx = bx - ax;
+    double dy = by - ay;
+    if (dx != 0 || dy != 0)
+    {
+      double t = ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy);
+      if (t > 1)
+      {
+        ax = bx;
+        ay = by;
+      }
+      else if (t > 0)
+      {
+        ax += dx * t;
+        ay += dy * t;
+      }
+    }
+    dx = px - ax;
+    dy = py - ay;
+    return dx * dx + dy * dy;
+  }
+}
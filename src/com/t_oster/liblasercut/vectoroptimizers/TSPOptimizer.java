@@ -19,252 +19,371 @@
 package com.t_oster.liblasercut.vectoroptimizers;
 
 import com.t_oster.liblasercut.platform.Point;
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import scpsolver.constraints.LinearEqualsConstraint;
-import scpsolver.constraints.LinearSmallerThanEqualsConstraint;
-import scpsolver.lpsolver.LinearProgramSolver;
-import scpsolver.lpsolver.SolverFactory;
-import scpsolver.problems.LinearProgram;
 
 /**
+ * Tries to minimize the travel distance between the elements.
+ * The order of the NearestVectorOptimizer is improved with 2-opt
+ * (reversing a part of the tour) and Or-opt (moving up to three
+ * consecutive elements to another place, possibly reversed) until
+ * no more improvement is found or the time limit is reached.
+ * Candidate moves are only checked against the nearest start and end
+ * points of each element, so every pass takes about O(n) steps
+ * (plus the cost of applying the improving moves).
+ * The first element stays first, so the result is never worse than
+ * the one of the NearestVectorOptimizer.
+ *
  * @author Patrick Schmidt <patrick.schmidt1@rwth-aachen.de>
  */
 public class TSPOptimizer extends VectorOptimizer
 {
+
+  private static final int NEIGHBOURS = 8;
+  private static final int MAX_SEGMENT_LENGTH = 3;
+  private static final double EPSILON = 1e-7;
+
+  private long timeLimit = 2000;
+  private double nearestLength = 0;
+  private double length = 0;
+
+  //state of the current optimization
+  private Point[] starts;
+  private Point[] ends;
+  //element at each position of the tour
+  private int[] order;
+  //position of each element in the tour
+  private int[] position;
+  //true if the element is travelled from its end to its start
+  private boolean[] flipped;
+  //nearest start and end points of other elements (as in EndpointIndex)
+  private int[][] neighbours;
+
+  /**
+   * Sets the maximum time in milliseconds, which is spent on
+   * improving the tour
+   */
+  public void setTimeLimit(long milliseconds)
+  {
+    this.timeLimit = milliseconds;
+  }
+
+  public long getTimeLimit()
+  {
+    return this.timeLimit;
+  }
+
+  /**
+   * Returns the travel distance (in pixels) of the last sorted
+   * list as the NearestVectorOptimizer ordered it
+   */
+  public double getNearestLength()
+  {
+    return this.nearestLength;
+  }
+
+  /**
+   * Returns the travel distance (in pixels) of the last sorted list
+   */
+  public double getLength()
+  {
+    return this.length;
+  }
+
+  /**
+   * Returns the travel distance saved compared to the
+   * NearestVectorOptimizer (between 0 and 1)
+   */
+  public double getImprovement()
+  {
+    return nearestLength > 0 ? 1 - length / nearestLength : 0;
+  }
+
   @Override
   protected List<Element> sort(List<Element> e)
   {
-    if (e.size() <= 1)
+    long deadline = System.currentTimeMillis() + timeLimit;
+    Element[] elements = new NearestVectorOptimizer().sort(e).toArray(new Element[0]);
+    int n = elements.length;
+    starts = new Point[n];
+    ends = new Point[n];
+    order = new int[n];
+    position = new int[n];
+    flipped = new boolean[n];
+    for (int i = 0; i < n; i++)
     {
-      return e;
+      starts[i] = elements[i].start;
+      ends[i] = elements[i].getEnd();
+      order[i] = i;
+      position[i] = i;
     }
+    nearestLength = getTourLength();
+    findNeighbours();
 
-    // Use the start and end point of each element as a city
-    int nCities = 2 * e.size();
-    Point[] cities = new Point[nCities];
-    int city_idx = 0;
-    for (Element element : e)
-    {
-      cities[city_idx] = element.start;
-      city_idx++;
-      cities[city_idx] = element.getEnd();
-      city_idx++;
-    }
-    
-    // Variables:
-    // booleans Xij for 0 <= i, j < n  (edge ij is part of our tour)
-    // integers Ui  for 1 <= i    < n  (i is visited before j, if Ui < Uj)
-    //               X_ij  for  i != j           U_i
-    int nVariables = nCities*nCities - nCities + nCities - 1;
-    
-    System.out.println(nCities + " cities");
-    System.out.println(nVariables + " variables");
-    
-    // Objective function: Minimize total length
-    double[] objectiveCoefficients = new double[nVariables];
-    for (int i = 0; i < nCities; i++)
+    boolean improved = true;
+    while (improved && System.currentTimeMillis() < deadline)
     {
-      for (int j = 0; j < nCities; j++)
+      improved = false;
+      for (int el = 0; el < n && System.currentTimeMillis() < deadline; el++)
       {
-        if (i != j)
+        while (twoOpt(position[el]) || orOpt(position[el]))
         {
-          // TODO: Wrong for i even and j=i+1
-          objectiveCoefficients[XijIndex(i, j, nCities)] = dist(cities[i], cities[j]);
+          improved = true;
         }
       }
     }
-    
-    LinearProgram lp = new LinearProgram(objectiveCoefficients);
-    lp.setMinProblem(true);
-    
-    // Constrain Xij to booleans and Ui to integers
-    for (int varIdx = 0; varIdx < nVariables; varIdx++)
+    length = getTourLength();
+
+    List<Element> result = new LinkedList<Element>();
+    for (int i = 0; i < n; i++)
     {
-      if (varIdx < nCities * nCities - nCities)
+      Element el = elements[order[i]];
+      if (flipped[order[i]])
       {
-        lp.setBinary(varIdx);
+        el.invert();
       }
-      else
+      result.add(el);
+    }
+    starts = null;
+    ends = null;
+    order = null;
+    position = null;
+    flipped = null;
+    neighbours = null;
+    return result;
+  }
+
+  private void findNeighbours()
+  {
+    int n = order.length;
+    EndpointIndex index = new EndpointIndex(starts, ends);
+    neighbours = new int[2 * n][];
+    int[] found = new int[NEIGHBOURS];
+    for (int i = 0; i < n; i++)
+    {
+      for (int end = 0; end < 2; end++)
       {
-        lp.setInteger(varIdx);
+        Point p = end == 0 ? starts[i] : ends[i];
+        int count = index.getNearest(p.x, p.y, i, found);
+        neighbours[2 * i + end] = new int[count];
+        System.arraycopy(found, 0, neighbours[2 * i + end], 0, count);
       }
     }
-    
-    // Constraints: All cuts have to be part of the tour
-    for (int i = 0; i < nCities-1; i += 2)
+  }
+
+  /**
+   * The point where the tour enters the element at position p or null
+   * if p is behind the end of the tour
+   */
+  private Point head(int p)
+  {
+    if (p >= order.length)
     {
-      int j = i+1;
-      double[] coeffs = new double[nVariables];
-      coeffs[XijIndex(i, j, nCities)] = 1;
-      lp.addConstraint(new LinearEqualsConstraint(coeffs, 1, "Include cuts"));
+      return null;
     }
-    
-    // Constraints: Each city needs one incoming and one outgoing edge
-    for (int i = 0; i < nCities; i++)
+    return flipped[order[p]] ? ends[order[p]] : starts[order[p]];
+  }
+
+  /**
+   * The point where the tour leaves the element at position p
+   */
+  private Point tail(int p)
+  {
+    return flipped[order[p]] ? starts[order[p]] : ends[order[p]];
+  }
+
+  /**
+   * Distance between a and b, 0 if one of them is null
+   */
+  private double d(Point a, Point b)
+  {
+    return a == null || b == null ? 0 : dist(a, b);
+  }
+
+  private double getTourLength()
+  {
+    double result = 0;
+    for (int p = 0; p + 1 < order.length; p++)
     {
-      double[] coeffsIn = new double[nVariables];
-      double[] coeffsOut = new double[nVariables];
-      
-      for (int j = 0; j < nCities; j++)
+      result += dist(tail(p), head(p + 1));
+    }
+    return result;
+  }
+
+  /**
+   * Checks, if the neighbour point with the given id is the head (or tail)
+   * of its element in the current tour
+   */
+  private boolean isHead(int id)
+  {
+    int el = EndpointIndex.getElement(id);
+    return EndpointIndex.isEnd(id) == flipped[el] || starts[el].equals(ends[el]);
+  }
+
+  private boolean isTail(int id)
+  {
+    int el = EndpointIndex.getElement(id);
+    return EndpointIndex.isEnd(id) != flipped[el] || starts[el].equals(ends[el]);
+  }
+
+  /**
+   * Tries to find an improving 2-opt move, which connects the element
+   * at position p to one of its neighbours, and applies it
+   */
+  private boolean twoOpt(int p)
+  {
+    int[] tailNeighbours = neighbours[2 * order[p] + (flipped[order[p]] ? 0 : 1)];
+    for (int id : tailNeighbours)
+    {
+      if (isTail(id))
       {
-        if (i != j)
+        //connect tail(p) to tail(q) by reversing the part between
+        int q = position[EndpointIndex.getElement(id)];
+        if (tryReverse(Math.min(p, q) + 1, Math.max(p, q)))
         {
-          coeffsIn[XijIndex(j, i, nCities)] = 1;
-          coeffsOut[XijIndex(i, j, nCities)] = 1;
+          return true;
         }
       }
-      
-      lp.addConstraint(new LinearEqualsConstraint(coeffsIn, 1, "One in"));
-      lp.addConstraint(new LinearEqualsConstraint(coeffsOut, 1, "One out"));
     }
-    
-    // Constraints: The result has to be a single cycle
-    for (int i = 1; i < nCities; i++)
+    if (p > 0)
     {
-      for (int j = 1; j < nCities; j++)
+      int[] headNeighbours = neighbours[2 * order[p] + (flipped[order[p]] ? 1 : 0)];
+      for (int id : headNeighbours)
       {
-        if (i != j)
+        if (isHead(id))
         {
-          double[] coeffs = new double[nVariables];
-          coeffs[UiIndex(i, nCities)] = 1;
-          coeffs[UiIndex(j, nCities)] = -1;
-          coeffs[XijIndex(i, j, nCities)] = nCities;
-
-          lp.addConstraint(new LinearSmallerThanEqualsConstraint(coeffs, nCities - 1, "Single tour"));
+          //connect head(p) to head(q) by reversing the part between
+          int q = position[EndpointIndex.getElement(id)];
+          if (q > 0 && tryReverse(Math.min(p, q), Math.max(p, q) - 1))
+          {
+            return true;
+          }
         }
       }
     }
-    
-    System.out.println(lp.getConstraints().size() + " constraints");
-    
-    // Solve
-    LinearProgramSolver solver = SolverFactory.newDefault();
-    double[] solution = solver.solve(lp);
-    
-    System.out.println("Adjacency matrix:");
-    for (int i = 0; i < nCities; i++)
+    return false;
+  }
+
+  /**
+   * Reverses the tour from position a to b (inclusive),
+   * if this makes the tour shorter
+   */
+  private boolean tryReverse(int a, int b)
+  {
+    if (a > b || a < 1)
     {
-      for (int j = 0; j < nCities; j++)
+      return false;
+    }
+    double delta = d(tail(a - 1), tail(b)) + d(head(a), head(b + 1))
+      - d(tail(a - 1), head(a)) - d(tail(b), head(b + 1));
+    if (delta > -EPSILON)
+    {
+      return false;
+    }
+    for (int i = a, j = b; i <= j; i++, j--)
+    {
+      int t = order[i];
+      order[i] = order[j];
+      order[j] = t;
+      position[order[i]] = i;
+      position[order[j]] = j;
+      flipped[order[i]] = !flipped[order[i]];
+      if (i != j)
       {
-        if (i != j)
-        {
-          System.out.print((int)solution[XijIndex(i, j, nCities)] + " ");
-        }
-        else
-        {
-          System.out.print(0 + " ");
-        }
+        flipped[order[j]] = !flipped[order[j]];
       }
-      System.out.print("\n");
     }
-    
-    // Derive resulting element order
-    List<Element> result = new LinkedList<Element>();
-    boolean[] citiesVisited = new boolean[nCities];
-    Arrays.fill(citiesVisited, false);
-    
-    // Start at beginning of first element (city 0)
-    Element currElement = e.get(0);
-    result.add(currElement);
-    citiesVisited[0] = true;
-    
-    // Jump to end of first element (city 1)
-    int i = 1;
-    citiesVisited[1] = true;
-    
-    boolean success = false;
-    while(!success)
+    return true;
+  }
+
+  /**
+   * Tries to move a part of up to MAX_SEGMENT_LENGTH elements starting
+   * at position p next to a neighbour of its first or last element
+   */
+  private boolean orOpt(int p)
+  {
+    if (p == 0)
+    {
+      return false;
+    }
+    for (int len = 1; len <= MAX_SEGMENT_LENGTH && p + len <= order.length; len++)
     {
-      // Find next city of the tour
-      boolean foundNextCity = false;
-      for (int j = 0; j < nCities; j++)
+      int last = p + len - 1;
+      int[] headNeighbours = neighbours[2 * order[p] + (flipped[order[p]] ? 1 : 0)];
+      for (int id : headNeighbours)
       {
-        if (i != j && !citiesVisited[j] && solution[XijIndex(i, j, nCities)] != 0)
+        int q = position[EndpointIndex.getElement(id)];
+        //head(p) after tail(q) or reversed with head(p) before head(q)
+        if ((isTail(id) && tryMove(p, last, q, false))
+          || (isHead(id) && tryMove(p, last, q - 1, true)))
         {
-          // Found next city on the tour (city j)
-          foundNextCity = true;
-          int elementIndex = j / 2;
-          currElement = e.get(elementIndex);
-          boolean invert = (j % 2 == 1);
-          int startCity = j;
-          int endCity = invert ? j-1 : j+1;
-          
-          if (invert)
-          {
-            currElement.invert();
-          }
-          
-          result.add(currElement);
-          
-          // Jump to the city at the end of our element
-          i = endCity;
-          
-          // Mark both visited
-          citiesVisited[startCity] = true;
-          citiesVisited[endCity] = true;
-          
-          break;
+          return true;
         }
       }
-      
-      if (!foundNextCity)
+      int[] tailNeighbours = neighbours[2 * order[last] + (flipped[order[last]] ? 0 : 1)];
+      for (int id : tailNeighbours)
       {
-        if (allVisited(citiesVisited))
-        {
-          System.out.println("TSP: Found valid tour.");
-          success = true;
-        }
-        else
+        int q = position[EndpointIndex.getElement(id)];
+        //tail(last) before head(q) or reversed with tail(last) after tail(q)
+        if ((isHead(id) && tryMove(p, last, q - 1, false))
+          || (isTail(id) && tryMove(p, last, q, true)))
         {
-          System.out.println("Invalid TSP Solution: Did not find the next city from city " + i + ".");
-          System.out.println("Aborting Optimization...");
-          success = false;
-          break;
+          return true;
         }
       }
     }
+    return false;
+  }
 
-    if (success)
+  /**
+   * Moves the part of the tour from position a to b (inclusive) behind
+   * position p (possibly reversed), if this makes the tour shorter
+   */
+  private boolean tryMove(int a, int b, int p, boolean reverse)
+  {
+    if (p < 0 || (p >= a - 1 && p <= b))
     {
-      return result;
+      return false;
     }
-    else
+    double gain = d(tail(a - 1), head(a)) + d(tail(b), head(b + 1))
+      - d(tail(a - 1), head(b + 1));
+    double cost = reverse
+      ? d(tail(p), tail(b)) + d(head(a), head(p + 1)) - d(tail(p), head(p + 1))
+      : d(tail(p), head(a)) + d(tail(b), head(p + 1)) - d(tail(p), head(p + 1));
+    if (cost - gain > -EPSILON)
     {
-      return new LinkedList<Element>();
+      return false;
     }
-  }
-  
-  protected int XijIndex(int i, int j, int n)
-  {
-    assert(i != j);
-    if (i < j)
+    int len = b - a + 1;
+    int[] part = new int[len];
+    for (int i = 0; i < len; i++)
     {
-      // Above diagonal
-      return i * (n-1) + j - 1;
+      part[i] = order[reverse ? b - i : a + i];
+      if (reverse)
+      {
+        flipped[part[i]] = !flipped[part[i]];
+      }
     }
-    else
+    if (p < a)
     {
-      // Below diagonal
-      return i * (n-1) + j;
+      //shift the elements between p and a to the back
+      System.arraycopy(order, p + 1, order, p + 1 + len, a - p - 1);
+      System.arraycopy(part, 0, order, p + 1, len);
+      for (int i = p + 1; i <= b; i++)
+      {
+        position[order[i]] = i;
+      }
     }
-  }
-  
-  protected int UiIndex(int i, int n)
-  {
-    return n*n - n + i - 1;
-  }
-
-  private boolean allVisited(boolean[] citiesVisited)
-  {
-    for (boolean visited : citiesVisited)
+    else
     {
-      if (!visited)
+      //shift the elements between b and p to the front
+      System.arraycopy(order, b + 1, order, a, p - b);
+      System.arraycopy(part, 0, order, p - len + 1, len);
+      for (int i = a; i <= p; i++)
       {
-        return false;
+        position[order[i]] = i;
       }
     }
     return true;
   }
-}
\ No newline at end of file
+}
@@ -19,7 +19,6 @@
 package com.t_oster.liblasercut.vectoroptimizers;
 
 import com.t_oster.liblasercut.LaserProperty;
-import com.t_oster.liblasercut.VectorCommand;
 import com.t_oster.liblasercut.VectorPart;
 import com.t_oster.liblasercut.platform.Point;
 import com.t_oster.liblasercut.platform.Rectangle;
@@ -152,13 +151,13 @@ public abstract class VectorOptimizer
     Point lastMove = null;
     LaserProperty lastProp = null;
     boolean stop = false;
-    for (VectorCommand cmd : vp.getCommandList())
+    for (int i = 0; i < vp.getCommandCount(); i++)
     {
-      switch (cmd.getType())
+      switch (vp.getCommandType(i))
       {
         case MOVETO:
         {
-          lastMove = new Point(cmd.getX(), cmd.getY());
+          lastMove = new Point(vp.getX(i), vp.getY(i));
           stop = true;
           break;
         }
@@ -175,12 +174,12 @@ public abstract class VectorOptimizer
             cur.start = lastMove;
             cur.prop = lastProp;
           }
-          cur.moves.add(new Point(cmd.getX(), cmd.getY()));
+          cur.moves.add(new Point(vp.getX(i), vp.getY(i)));
           break;
         }
         case SETPROPERTY:
         {
-          lastProp = cmd.getProperty();
+          lastProp = vp.getProperty(i);
           stop = true;
           break;
         }
@@ -104,4 +104,105 @@ public class BlackWhiteRasterTest
       }
     }
   }
+
+  @Test
+  public void testLineAccess()
+  {
+    java.util.Random r = new java.util.Random(42);
+    BlackWhiteRaster ras = new BlackWhiteRaster(203, 17);
+    byte[][] old = new byte[(ras.getWidth() + 7) / 8][ras.getHeight()];
+    for (int y = 0; y < ras.getHeight(); y++)
+    {
+      for (int x = 0; x < ras.getWidth(); x++)
+      {
+        if (r.nextBoolean())
+        {
+          ras.setBlack(x, y, true);
+          old[x / 8][y] |= 1 << (7 - x % 8);
+        }
+      }
+    }
+    BlackWhiteRaster copy = new BlackWhiteRaster(ras.getWidth(), ras.getHeight(), old);
+    byte[] line = new byte[ras.getBytesPerLine() + 1];
+    long[] words = new long[ras.getWordsPerLine()];
+    for (int y = 0; y < ras.getHeight(); y++)
+    {
+      ras.getLine(y, line, 1);
+      ras.getLineWords(y, words, 0);
+      for (int bx = 0; bx < ras.getBytesPerLine(); bx++)
+      {
+        assertEquals(old[bx][y], ras.getByte(bx, y));
+        assertEquals(old[bx][y], copy.getByte(bx, y));
+        assertEquals(old[bx][y], line[bx + 1]);
+        assertEquals(old[bx][y], (byte) (words[bx / 8] >>> (56 - 8 * (bx % 8))));
+      }
+      for (int x = 0; x < ras.getWidth(); x++)
+      {
+        assertEquals(copy.isBlack(x, y), ras.isBlack(x, y));
+      }
+    }
+    ras.setWord(ras.getWordsPerLine() - 1, 0, -1L);
+    assertTrue(ras.isBlack(ras.getWidth() - 1, 0));
+    assertEquals((byte) 0xE0, ras.getByte(ras.getBytesPerLine() - 1, 0));
+  }
+
+  @Test
+  public void testByteArrayPadding()
+  {
+    //width 13: the last byte of a line has 3 bits beyond the width
+    byte[][] bytes = new byte[2][3];
+    bytes[0][0] = (byte) 0x80;
+    bytes[1][1] = (byte) 0x07;
+    bytes[1][2] = (byte) 0xFF;
+    BlackWhiteRaster ras = new BlackWhiteRaster(13, 3, bytes);
+    int[] runs = new int[ras.getWidth() + 1];
+    assertEquals(1, ras.getBlackRuns(0, 0, runs));
+    assertArrayEquals(new int[]{0, 1}, java.util.Arrays.copyOf(runs, 2));
+    assertTrue(ras.isLineEmpty(1));
+    assertEquals(-1, ras.nextBlack(0, 1));
+    assertEquals(0, ras.getBlackRuns(1, 0, runs));
+    assertEquals(8, ras.nextBlack(0, 2));
+    assertEquals(13, ras.nextWhite(8, 2));
+    assertEquals(1, ras.getBlackRuns(2, 0, runs));
+    assertArrayEquals(new int[]{8, 13}, java.util.Arrays.copyOf(runs, 2));
+    assertEquals((byte) 0xF8, ras.getByte(1, 2));
+  }
+
+  @Test
+  public void testBlackRuns()
+  {
+    BlackWhiteRaster ras = new BlackWhiteRaster(200, 3);
+    //spans [3,5), [7,8), [64,130) and [133,200) in line 1
+    int[][] spans = new int[][]{{3, 5}, {7, 8}, {64, 130}, {133, 200}};
+    for (int[] span : spans)
+    {
+      for (int x = span[0]; x < span[1]; x++)
+      {
+        ras.setBlack(x, 1, true);
+      }
+    }
+    int[] runs = new int[ras.getWidth() + 1];
+    assertEquals(0, ras.getBlackRuns(0, 0, runs));
+    assertEquals(4, ras.getBlackRuns(1, 0, runs));
+    for (int i = 0; i < spans.length; i++)
+    {
+      assertEquals(spans[i][0], runs[2 * i]);
+      assertEquals(spans[i][1], runs[2 * i + 1]);
+    }
+    assertEquals(3, ras.getBlackRuns(1, 2, runs));
+    assertArrayEquals(new int[]{3, 8, 64, 130, 133, 200}, java.util.Arrays.copyOf(runs, 6));
+    assertEquals(2, ras.getBlackRuns(1, 3, runs));
+    assertArrayEquals(new int[]{3, 8, 64, 200}, java.util.Arrays.copyOf(runs, 4));
+    assertEquals(1, ras.getBlackRuns(1, 1000, runs));
+    assertArrayEquals(new int[]{3, 200}, java.util.Arrays.copyOf(runs, 2));
+    //worst case: every other pixel is black
+    for (int x = 0; x < ras.getWidth(); x += 2)
+    {
+      ras.setBlack(x, 2, true);
+    }
+    assertEquals(100, ras.getBlackRuns(2, 0, runs));
+    assertEquals(198, runs[198]);
+    assertEquals(1, ras.getBlackRuns(2, 1, runs));
+    assertArrayEquals(new int[]{0, 199}, java.util.Arrays.copyOf(runs, 2));
+  }
 }
@@ -0,0 +1,167 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut;
+
+import com.t_oster.liblasercut.dithering.FloydSteinberg;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class RunLengthBlackWhiteRasterTest
+{
+
+  private void assertSameContent(BlackWhiteRaster expected, BlackWhiteRaster result)
+  {
+    assertEquals(expected.getWidth(), result.getWidth());
+    assertEquals(expected.getHeight(), result.getHeight());
+    byte[] expectedLine = new byte[expected.getBytesPerLine()];
+    byte[] line = new byte[expected.getBytesPerLine() + 2];
+    long[] expectedWords = new long[expected.getWordsPerLine()];
+    long[] words = new long[expected.getWordsPerLine()];
+    for (int y = 0; y < expected.getHeight(); y++)
+    {
+      for (int x = 0; x < expected.getWidth(); x++)
+      {
+        assertEquals("pixel " + x + "," + y, expected.isBlack(x, y), result.isBlack(x, y));
+        assertEquals("nextBlack " + x + "," + y, expected.nextBlack(x, y), result.nextBlack(x, y));
+        assertEquals("nextWhite " + x + "," + y, expected.nextWhite(x, y), result.nextWhite(x, y));
+      }
+      for (int bx = 0; bx < expected.getBytesPerLine(); bx++)
+      {
+        assertEquals(expected.getByte(bx, y), result.getByte(bx, y));
+      }
+      for (int wx = 0; wx < expected.getWordsPerLine(); wx++)
+      {
+        assertEquals(expected.getWord(wx, y), result.getWord(wx, y));
+      }
+      expected.getLine(y, expectedLine, 0);
+      line[0] = 42;
+      result.getLine(y, line, 1);
+      assertEquals(42, line[0]);
+      for (int i = 0; i < expectedLine.length; i++)
+      {
+        assertEquals(expectedLine[i], line[i + 1]);
+      }
+      expected.getLineWords(y, expectedWords, 0);
+      result.getLineWords(y, words, 0);
+      assertArrayEquals(expectedWords, words);
+      assertEquals(expected.getFirstNonZeroByte(y), result.getFirstNonZeroByte(y));
+      assertEquals(expected.getLastNonZeroByte(y), result.getLastNonZeroByte(y));
+      assertEquals(expected.isLineEmpty(y), result.isLineEmpty(y));
+    }
+  }
+
+  @Test
+  public void testRandomEdits()
+  {
+    Random r = new Random(4711);
+    for (int[] size : new int[][]{{1, 1}, {7, 3}, {64, 2}, {130, 5}, {500, 4}})
+    {
+      int width = size[0];
+      int height = size[1];
+      BlackWhiteRaster expected = new BlackWhiteRaster(width, height);
+      RunLengthBlackWhiteRaster result = new RunLengthBlackWhiteRaster(width, height);
+      assertSameContent(expected, result);
+      for (int i = 0; i < 20 * width * height; i++)
+      {
+        int x = r.nextInt(width);
+        int y = r.nextInt(height);
+        //mostly black, so some long spans are built and cut again
+        boolean black = r.nextInt(3) != 0;
+        expected.setBlack(x, y, black);
+        result.setBlack(x, y, black);
+      }
+      assertSameContent(expected, result);
+      for (int i = 0; i < 10 * height; i++)
+      {
+        int wx = r.nextInt(expected.getWordsPerLine());
+        int y = r.nextInt(height);
+        long word = r.nextInt(4) == 0 ? -1L : r.nextLong();
+        expected.setWord(wx, y, word);
+        result.setWord(wx, y, word);
+      }
+      assertSameContent(expected, result);
+      for (int y = 0; y < height; y++)
+      {
+        int from = r.nextInt(width);
+        int to = from + r.nextInt(width - from + 1);
+        boolean black = r.nextBoolean();
+        result.setSpan(y, from, to, black);
+        for (int x = from; x < to; x++)
+        {
+          expected.setBlack(x, y, black);
+        }
+      }
+      assertSameContent(expected, result);
+      assertSameContent(expected, new RunLengthBlackWhiteRaster(expected));
+    }
+  }
+
+  @Test
+  public void testSpans()
+  {
+    RunLengthBlackWhiteRaster ras = new RunLengthBlackWhiteRaster(100, 3);
+    assertTrue(ras.isLineEmpty(1));
+    ras.setSpan(1, 10, 20, true);
+    ras.setSpan(1, 30, 40, true);
+    assertEquals(2, ras.getSpanCount(1));
+    ras.setBlack(20, 1, true);
+    ras.setSpan(1, 21, 30, true);
+    assertEquals(1, ras.getSpanCount(1));
+    ras.setBlack(25, 1, false);
+    assertEquals(2, ras.getSpanCount(1));
+    assertEquals(10, ras.nextBlack(0, 1));
+    assertEquals(25, ras.nextWhite(10, 1));
+    assertEquals(26, ras.nextBlack(25, 1));
+    assertEquals(40, ras.nextWhite(26, 1));
+    assertEquals(-1, ras.nextBlack(40, 1));
+    ras.setSpan(1, 0, 100, false);
+    assertTrue(ras.isLineEmpty(1));
+    assertEquals(0, ras.getSpanCount(0));
+    assertEquals(0, ras.getSpanCount(2));
+  }
+
+  @Test
+  public void testDithering()
+  {
+    final int width = 211;
+    final int height = 47;
+    ByteGreyscaleRaster image = new ByteGreyscaleRaster(width, height);
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        //a dark disc on white
+        double dx = x - width / 2;
+        double dy = y - height / 2;
+        image.setGreyScale(x, y, dx * dx + 16 * dy * dy < 1600 ? (int) (Math.abs(dx) * 2) : 255);
+      }
+    }
+    BlackWhiteRaster expected = new BlackWhiteRaster(image, new FloydSteinberg());
+    FloydSteinberg parallel = new FloydSteinberg();
+    parallel.setThreads(3);
+    RunLengthBlackWhiteRaster result = new RunLengthBlackWhiteRaster(image, parallel);
+    assertSameContent(expected, result);
+    assertTrue(result.isLineEmpty(0));
+  }
+}
@@ -0,0 +1,212 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class SendJobHandleTest
+{
+
+  /**
+   * A cutter which reports some progress and then waits until it is
+   * released, interrupted or told to fail
+   */
+  private static class BlockingCutter extends LaserCutter
+  {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile boolean interrupted = false;
+    volatile boolean fail = false;
+    final List<String> order = new LinkedList<String>();
+
+    @Override
+    public void sendJob(LaserJob job, ProgressListener pl, List<String> warnings) throws IllegalJobException, Exception
+    {
+      synchronized (order)
+      {
+        order.add(job.getName());
+      }
+      pl.taskChanged(this, "sending");
+      pl.progressChanged(this, 50);
+      warnings.add("warning of " + job.getName());
+      started.countDown();
+      try
+      {
+        release.await();
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+        throw e;
+      }
+      if (fail)
+      {
+        throw new IOException("failed");
+      }
+      pl.progressChanged(this, 100);
+    }
+
+    @Override
+    public List<Double> getResolutions()
+    {
+      return Arrays.asList(new Double[]{500d});
+    }
+
+    @Override
+    public double getBedWidth()
+    {
+      return 100;
+    }
+
+    @Override
+    public double getBedHeight()
+    {
+      return 100;
+    }
+
+    @Override
+    public String getModelName()
+    {
+      return "Blocking";
+    }
+
+    @Override
+    public LaserCutter clone()
+    {
+      return new BlockingCutter();
+    }
+
+    public String[] getPropertyKeys()
+    {
+      return new String[0];
+    }
+
+    public void setProperty(String key, Object value)
+    {
+    }
+
+    public Object getProperty(String key)
+    {
+      return null;
+    }
+  }
+
+  private LaserJob job(String name)
+  {
+    return new LaserJob(name, name, "test");
+  }
+
+  @Test
+  public void testProgressAndResult() throws Exception
+  {
+    BlockingCutter cutter = new BlockingCutter();
+    final List<String> events = new LinkedList<String>();
+    SendJobHandle handle = cutter.sendJobAsync(job("a"), new ProgressListener()
+    {
+      public void progressChanged(Object source, int percent)
+      {
+        events.add(percent + "%");
+      }
+
+      public void taskChanged(Object source, String taskName)
+      {
+        events.add(taskName);
+      }
+    });
+    final CountDownLatch done = new CountDownLatch(1);
+    handle.addDoneListener(new Runnable()
+    {
+      public void run()
+      {
+        done.countDown();
+      }
+    });
+    assertTrue(cutter.started.await(5, TimeUnit.SECONDS));
+    assertFalse(handle.isDone());
+    assertEquals("sending", handle.getTaskName());
+    assertEquals(50, handle.getProgress());
+    assertEquals(Arrays.asList("warning of a"), handle.getWarnings());
+    cutter.release.countDown();
+    assertEquals(Arrays.asList("warning of a"), handle.get(5, TimeUnit.SECONDS));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(100, handle.getProgress());
+    assertEquals(Arrays.asList("sending", "50%", "100%"), events);
+  }
+
+  @Test
+  public void testFailure() throws Exception
+  {
+    BlockingCutter cutter = new BlockingCutter();
+    cutter.fail = true;
+    cutter.release.countDown();
+    SendJobHandle handle = cutter.sendJobAsync(job("a"));
+    try
+    {
+      handle.get(5, TimeUnit.SECONDS);
+      fail("no exception");
+    }
+    catch (ExecutionException e)
+    {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception
+  {
+    BlockingCutter cutter = new BlockingCutter();
+    SendJobHandle first = cutter.sendJobAsync(job("a"));
+    //jobs for one cutter are sent one after the other
+    SendJobHandle second = cutter.sendJobAsync(job("b"));
+    assertTrue(cutter.started.await(5, TimeUnit.SECONDS));
+    assertEquals("queued", second.getTaskName());
+    assertTrue(second.cancel(true));
+    assertTrue(first.cancel(true));
+    assertTrue(first.isCancelled());
+    try
+    {
+      first.get();
+      fail("no exception");
+    }
+    catch (CancellationException e)
+    {
+      //expected
+    }
+    //the sending thread has been interrupted
+    SendJobHandle third = cutter.sendJobAsync(job("c"));
+    cutter.release.countDown();
+    third.get(5, TimeUnit.SECONDS);
+    assertTrue(cutter.interrupted);
+    assertEquals(Arrays.asList("a", "c"), cutter.order);
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class VectorPartTest
+{
+
+  @Test
+  public void testCommands()
+  {
+    PowerSpeedFocusProperty first = new PowerSpeedFocusProperty();
+    PowerSpeedFocusProperty second = new PowerSpeedFocusProperty();
+    second.setPower(42);
+    VectorPart vp = new VectorPart(first, 500);
+    for (int i = 0; i < 1000; i++)
+    {
+      if (i == 500)
+      {
+        vp.setProperty(second);
+      }
+      vp.moveto(i, -i);
+      vp.lineto(2 * i, 3 * i);
+    }
+    assertEquals(2002, vp.getCommandCount());
+    assertEquals(VectorCommand.CmdType.SETPROPERTY, vp.getCommandType(0));
+    assertSame(first, vp.getProperty(0));
+    assertEquals(VectorCommand.CmdType.SETPROPERTY, vp.getCommandType(1001));
+    assertSame(second, vp.getProperty(1001));
+    assertEquals(VectorCommand.CmdType.MOVETO, vp.getCommandType(1002));
+    assertEquals(500, vp.getX(1002));
+    assertEquals(-500, vp.getY(1002));
+    assertEquals(VectorCommand.CmdType.LINETO, vp.getCommandType(2001));
+    assertEquals(1998, vp.getX(2001));
+    assertEquals(2997, vp.getY(2001));
+    assertEquals(0, vp.getMinX());
+    assertEquals(-999, vp.getMinY());
+    assertEquals(1998, vp.getMaxX());
+    assertEquals(2997, vp.getMaxY());
+
+    VectorCommand[] cmds = vp.getCommandList();
+    assertEquals(vp.getCommandCount(), cmds.length);
+    for (int i = 0; i < cmds.length; i++)
+    {
+      assertEquals(vp.getCommandType(i), cmds[i].getType());
+      if (cmds[i].getType() == VectorCommand.CmdType.SETPROPERTY)
+      {
+        assertSame(vp.getProperty(i), cmds[i].getProperty());
+      }
+      else
+      {
+        assertEquals(vp.getX(i), cmds[i].getX());
+        assertEquals(vp.getY(i), cmds[i].getY());
+      }
+    }
+  }
+
+  @Test
+  public void testApplyStartPoint()
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 254);
+    vp.moveto(100, 200);
+    vp.lineto(5, 7);
+    LaserJob job = new LaserJob("test", "test", "test");
+    job.addPart(vp);
+    //10mm at 254 dpi are 100 pixels
+    job.setStartPoint(10, 1.05);
+    job.applyStartPoint();
+    assertEquals(0, vp.getX(1));
+    assertEquals(189, vp.getY(1));
+    assertEquals(-95, vp.getX(2));
+    assertEquals(-3, vp.getY(2));
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.dithering;
+
+import com.t_oster.liblasercut.BlackWhiteRaster;
+import com.t_oster.liblasercut.ByteGreyscaleRaster;
+import com.t_oster.liblasercut.GreyscaleRaster;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class DitheringAlgorithmTest
+{
+
+  private GreyscaleRaster createImage(final int width, final int height)
+  {
+    final int[] data = new int[width * height];
+    java.util.Random r = new java.util.Random(4711);
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        data[y * width + x] = (int) (127 + 120 * Math.sin(x / 13.0) * Math.cos(y / 7.0)) + r.nextInt(9) - 4;
+      }
+    }
+    return new GreyscaleRaster()
+    {
+      public int getWidth()
+      {
+        return width;
+      }
+
+      public int getHeight()
+      {
+        return height;
+      }
+
+      public int getGreyScale(int x, int y)
+      {
+        return data[y * width + x];
+      }
+
+      public void setGreyScale(int x, int y, int grey)
+      {
+        data[y * width + x] = grey;
+      }
+    };
+  }
+
+  private void assertSameResult(DitheringAlgorithm alg, GreyscaleRaster image)
+  {
+    alg.setThreads(1);
+    BlackWhiteRaster serial = alg.dither(image);
+    for (int threads : new int[]{2, 3, 8})
+    {
+      DitheringAlgorithm parallel = alg.clone();
+      parallel.setThreads(threads);
+      assertEquals(threads, parallel.getThreads());
+      BlackWhiteRaster result = parallel.dither(image);
+      for (int y = 0; y < image.getHeight(); y++)
+      {
+        for (int x = 0; x < image.getWidth(); x++)
+        {
+          assertEquals(alg + " with " + threads + " threads differs at " + x + "," + y, serial.isBlack(x, y), result.isBlack(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBulkAccess()
+  {
+    GreyscaleRaster image = createImage(67, 31);
+    ByteGreyscaleRaster copy = new ByteGreyscaleRaster(image);
+    int[] row = new int[image.getWidth()];
+    byte[] bytes = new byte[image.getWidth()];
+    for (int y = 0; y < image.getHeight(); y++)
+    {
+      copy.getRow(y, row);
+      copy.getRow(y, bytes);
+      for (int x = 0; x < image.getWidth(); x++)
+      {
+        assertEquals(image.getGreyScale(x, y), copy.getGreyScale(x, y));
+        assertEquals(image.getGreyScale(x, y), row[x]);
+        assertEquals((byte) image.getGreyScale(x, y), bytes[x]);
+      }
+    }
+    for (DitheringAlgorithm alg : new DitheringAlgorithm[]{new FloydSteinberg(), new Average(), new Ordered(), new Grid()})
+    {
+      BlackWhiteRaster expected = alg.dither(image);
+      BlackWhiteRaster result = alg.dither(copy);
+      for (int y = 0; y < image.getHeight(); y++)
+      {
+        for (int x = 0; x < image.getWidth(); x++)
+        {
+          assertEquals(alg.toString(), expected.isBlack(x, y), result.isBlack(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testParallelDithering()
+  {
+    for (int[] size : new int[][]{{1, 1}, {2, 5}, {5, 2}, {131, 97}, {700, 3}})
+    {
+      GreyscaleRaster image = createImage(size[0], size[1]);
+      assertSameResult(new FloydSteinberg(), image);
+      assertSameResult(new Average(), image);
+      assertSameResult(new Ordered(), image);
+      assertSameResult(new Grid(), image);
+    }
+  }
+}
@@ -0,0 +1,311 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.drivers;
+
+import com.t_oster.liblasercut.LaserJob;
+import com.t_oster.liblasercut.ProgressListener;
+import com.t_oster.liblasercut.VectorPart;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class EpilogCutterTest
+{
+
+  /**
+   * The straightforward PackBits encoder, which encode has to match
+   */
+  private static List<Byte> referenceEncode(byte[] line, int offset, int length)
+  {
+    List<Byte> result = new ArrayList<Byte>();
+    int idx = offset;
+    int r = offset + length;
+    while (idx < r)
+    {
+      int p = idx + 1;
+      while (p < r && p < idx + 128 && line[p] == line[idx])
+      {
+        p++;
+      }
+      if (p - idx >= 2)
+      {
+        result.add((byte) (1 - (p - idx)));
+        result.add(line[idx]);
+        idx = p;
+      }
+      else
+      {
+        p = idx;
+        while (p < r && p < idx + 127 && (p + 1 == r || line[p] != line[p + 1]))
+        {
+          p++;
+        }
+        result.add((byte) (p - idx - 1));
+        while (idx < p)
+        {
+          result.add(line[idx++]);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static byte[] createLine(Random r, int length)
+  {
+    byte[] line = new byte[length];
+    int x = 0;
+    while (x < length)
+    {
+      int runLength = 1 + r.nextInt(r.nextInt(4) == 0 ? 300 : 12);
+      int kind = r.nextInt(4);
+      byte value = kind == 0 ? (byte) 0 : kind == 1 ? (byte) 0xFF : (byte) r.nextInt(256);
+      for (int i = 0; i < runLength && x < length; i++)
+      {
+        line[x++] = kind == 3 ? (byte) r.nextInt(4) : value;
+      }
+    }
+    return line;
+  }
+
+  @Test
+  public void testEncode()
+  {
+    EpilogCutter cutter = new EpilogZing();
+    Random r = new Random(4711);
+    byte[] packed = new byte[0];
+    for (int i = 0; i < 500; i++)
+    {
+      byte[] line = createLine(r, r.nextInt(i < 50 ? 20 : 2000));
+      int offset = line.length > 0 ? r.nextInt(line.length) : 0;
+      int length = line.length - offset - (line.length > offset ? r.nextInt(line.length - offset) : 0);
+      if (packed.length < EpilogCutter.getMaxEncodedLength(length))
+      {
+        packed = new byte[EpilogCutter.getMaxEncodedLength(length)];
+      }
+      List<Byte> expected = referenceEncode(line, offset, length);
+      int len = cutter.encode(line, offset, length, packed);
+      assertEquals(expected.size(), len);
+      for (int k = 0; k < len; k++)
+      {
+        assertEquals(expected.get(k).byteValue(), packed[k]);
+      }
+      List<Byte> list = new ArrayList<Byte>();
+      for (int k = offset; k < offset + length; k++)
+      {
+        list.add(line[k]);
+      }
+      assertEquals(expected, cutter.encode(list));
+    }
+  }
+
+  @Test
+  public void testLongRuns()
+  {
+    EpilogCutter cutter = new EpilogZing();
+    for (int length : new int[]{1, 2, 7, 8, 9, 127, 128, 129, 255, 256, 1000})
+    {
+      for (byte value : new byte[]{0, (byte) 0xFF, 42})
+      {
+        byte[] line = new byte[length + 1];
+        for (int k = 0; k < length; k++)
+        {
+          line[k] = value;
+        }
+        line[length] = 1;
+        byte[] packed = new byte[EpilogCutter.getMaxEncodedLength(line.length)];
+        List<Byte> expected = referenceEncode(line, 0, line.length);
+        int len = cutter.encode(line, 0, line.length, packed);
+        assertEquals(expected.size(), len);
+        for (int k = 0; k < len; k++)
+        {
+          assertEquals(expected.get(k).byteValue(), packed[k]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stands in for the LPD server of the cutter. It acknowledges every
+   * step of one job with 0, except for step failAt, which is answered with 1.
+   */
+  private static class FakeLpd extends Thread
+  {
+
+    final ServerSocket server;
+    final int failAt;
+    final List<String> commands = new LinkedList<String>();
+    String controlFile;
+    byte[] dataFile;
+
+    FakeLpd(int failAt) throws IOException
+    {
+      this.server = new ServerSocket(0);
+      this.failAt = failAt;
+    }
+
+    private String readLine(DataInputStream in) throws IOException
+    {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      for (int c = in.read(); c != '\n'; c = in.read())
+      {
+        if (c == -1)
+        {
+          throw new IOException("End of Stream");
+        }
+        line.write(c);
+      }
+      String result = line.toString("US-ASCII");
+      commands.add(result);
+      return result;
+    }
+
+    private byte[] readFile(DataInputStream in, String command) throws IOException
+    {
+      byte[] result = new byte[Integer.parseInt(command.substring(1, command.indexOf(' ')))];
+      in.readFully(result);
+      return result;
+    }
+
+    private void ack(OutputStream out, int step) throws IOException
+    {
+      out.write(step == failAt ? 1 : 0);
+      out.flush();
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        Socket s = server.accept();
+        DataInputStream in = new DataInputStream(s.getInputStream());
+        OutputStream out = s.getOutputStream();
+        readLine(in);
+        ack(out, 0);
+        String command = readLine(in);
+        ack(out, 1);
+        controlFile = new String(readFile(in, command), "US-ASCII");
+        if (in.read() != 0)
+        {
+          throw new IOException("control file not terminated");
+        }
+        ack(out, 2);
+        command = readLine(in);
+        ack(out, 3);
+        dataFile = readFile(in, command);
+        ack(out, 4);
+        s.close();
+      }
+      catch (IOException e)
+      {
+        //the test is over
+      }
+    }
+  }
+
+  private LaserJob createJob()
+  {
+    LaserJob job = new LaserJob("title", "name", "user");
+    VectorPart vp = new VectorPart(new EpilogZing().getLaserPropertyForVectorPart(), 500);
+    vp.moveto(10, 10);
+    vp.lineto(200, 10);
+    vp.lineto(200, 200);
+    vp.lineto(10, 10);
+    job.addPart(vp);
+    return job;
+  }
+
+  private EpilogCutter createCutter(FakeLpd lpd)
+  {
+    EpilogCutter cutter = new EpilogZing("localhost");
+    cutter.setPort(lpd.server.getLocalPort());
+    return cutter;
+  }
+
+  private static final ProgressListener SILENT = new ProgressListener()
+  {
+    public void progressChanged(Object source, int percent)
+    {
+    }
+
+    public void taskChanged(Object source, String taskName)
+    {
+    }
+  };
+
+  @Test
+  public void testSendJob() throws Exception
+  {
+    //warm up the job generation, so mostly the communication is timed
+    FakeLpd warmUp = new FakeLpd(-1);
+    warmUp.start();
+    createCutter(warmUp).sendJob(createJob(), SILENT, new LinkedList<String>());
+    warmUp.server.close();
+    FakeLpd lpd = new FakeLpd(-1);
+    lpd.start();
+    EpilogCutter cutter = createCutter(lpd);
+    long start = System.currentTimeMillis();
+    cutter.sendJob(createJob(), SILENT, new LinkedList<String>());
+    long duration = System.currentTimeMillis() - start;
+    lpd.join(5000);
+    lpd.server.close();
+    assertEquals(3, lpd.commands.size());
+    assertEquals("\002", lpd.commands.get(0));
+    assertTrue(lpd.commands.get(1).startsWith("\002" + lpd.controlFile.length() + " cfAname"));
+    assertTrue(lpd.controlFile.contains("Puser\n"));
+    assertTrue(lpd.controlFile.contains("Jtitle\n"));
+    assertTrue(lpd.commands.get(2).startsWith("\003" + lpd.dataFile.length + " dfAname"));
+    assertTrue(new String(lpd.dataFile, "US-ASCII").contains("@PJL"));
+    //every response is handled as soon as it arrives, polling took 300ms each
+    assertTrue("took " + duration + "ms", duration < 1000);
+  }
+
+  @Test
+  public void testUnexpectedResponse() throws Exception
+  {
+    FakeLpd lpd = new FakeLpd(2);
+    lpd.start();
+    try
+    {
+      createCutter(lpd).sendJob(createJob(), SILENT, new LinkedList<String>());
+      fail("no exception");
+    }
+    catch (Exception e)
+    {
+      assertEquals("unexpected Response: 1", e.getMessage());
+    }
+    finally
+    {
+      lpd.server.close();
+    }
+  }
+}
@@ -0,0 +1,310 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.drivers;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class GrblStreamerTest
+{
+
+  /**
+   * Behaves like Grbl on the other end of a serial line: Received bytes
+   * go into a receive buffer, from which the lines are taken one by one
+   * and answered with ok, or with an error if they contain G99.
+   * Status requests and resets are handled at once. A silent one
+   * never answers anything, like a board still in its bootloader.
+   */
+  private static class SimulatedGrbl extends Thread
+  {
+
+    final PipedInputStream in = new PipedInputStream(4096);
+    final PipedOutputStream out = new PipedOutputStream();
+    final List<String> received = new ArrayList<String>();
+    final LinkedList<Integer> rxBuffer = new LinkedList<Integer>();
+    int maxFill = 0;
+    int newlines = 0;
+    boolean welcome = true;
+    boolean silent = false;
+    int resets = 0;
+
+    void reply(String text) throws IOException
+    {
+      if (!silent)
+      {
+        out.write((text + "\r\n").getBytes("US-ASCII"));
+        out.flush();
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        if (welcome)
+        {
+          reply("Grbl 1.1f ['$' for help]");
+        }
+        while (true)
+        {
+          //read all available bytes, but block only if there is no line
+          while (newlines == 0 || in.available() > 0)
+          {
+            int c = in.read();
+            if (c < 0)
+            {
+              return;
+            }
+            if (c == '?')
+            {
+              reply("<Idle|MPos:0.000,0.000,0.000>");
+              continue;
+            }
+            if (c == 0x18)
+            {
+              resets++;
+              rxBuffer.clear();
+              newlines = 0;
+              reply("Grbl 1.1f ['$' for help]");
+              continue;
+            }
+            rxBuffer.addLast(c);
+            maxFill = Math.max(maxFill, rxBuffer.size());
+            if (c == '\n')
+            {
+              newlines++;
+            }
+          }
+          StringBuilder line = new StringBuilder();
+          for (int c = rxBuffer.removeFirst(); c != '\n'; c = rxBuffer.removeFirst())
+          {
+            line.append((char) c);
+          }
+          newlines--;
+          synchronized (received)
+          {
+            received.add(line.toString());
+          }
+          if (received.size() % 50 == 0)
+          {
+            //the planner is full for a moment
+            Thread.sleep(2);
+            reply("<Run|MPos:0.000,0.000,0.000>");
+          }
+          reply(line.indexOf("G99") >= 0 ? "error:20" : "ok");
+        }
+      }
+      catch (Exception e)
+      {
+        //the test is over
+      }
+    }
+  }
+
+  private GrblStreamer connect(SimulatedGrbl grbl) throws IOException
+  {
+    PipedInputStream replies = new PipedInputStream(grbl.out);
+    PipedOutputStream commands = new PipedOutputStream(grbl.in);
+    grbl.start();
+    GrblStreamer streamer = new GrblStreamer(replies, commands);
+    streamer.start();
+    return streamer;
+  }
+
+  @Test
+  public void testStreaming() throws IOException
+  {
+    SimulatedGrbl grbl = new SimulatedGrbl();
+    GrblStreamer streamer = connect(grbl);
+    streamer.waitForWelcome(1000);
+    List<String> expected = new ArrayList<String>();
+    StringBuilder gcode = new StringBuilder();
+    for (int i = 0; i < 2000; i++)
+    {
+      String line = "G1 X" + (i * 0.123) + " Y" + (i % 77) + (i % 3 == 0 ? " S" + (i % 255) : "");
+      expected.add(line);
+      gcode.append(line).append("\n");
+      if (i % 100 == 0)
+      {
+        //empty lines are not sent
+        gcode.append("\n");
+      }
+    }
+    streamer.send(gcode.toString());
+    streamer.sendLine("M5");
+    expected.add("M5");
+    streamer.finish();
+    streamer.close();
+    assertEquals(expected, grbl.received);
+    assertTrue("receive buffer overflow: " + grbl.maxFill, grbl.maxFill <= GrblStreamer.DEFAULT_RX_BUFFER_SIZE);
+    //the buffer was used, not just one line at a time
+    assertTrue(grbl.maxFill > 64);
+    assertEquals(expected.size(), streamer.getLinesSent());
+    assertEquals(expected.size(), streamer.getLinesAcknowledged());
+    assertEquals(0, streamer.getBytesInFlight());
+    assertTrue(streamer.getBytesSent() > gcode.length() / 2);
+    assertTrue(streamer.getThroughput() > 0);
+  }
+
+  @Test
+  public void testError() throws IOException
+  {
+    SimulatedGrbl grbl = new SimulatedGrbl();
+    GrblStreamer streamer = connect(grbl);
+    try
+    {
+      for (int i = 0; i < 1000; i++)
+      {
+        streamer.sendLine(i == 10 ? "G99 X1" : "G1 X" + i);
+      }
+      streamer.finish();
+      fail("the error was not reported");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage(), e.getMessage().contains("error:20"));
+      assertTrue(e.getMessage(), e.getMessage().contains("G99 X1"));
+    }
+    finally
+    {
+      streamer.close();
+    }
+  }
+
+  @Test
+  public void testOutputStream() throws IOException
+  {
+    SimulatedGrbl grbl = new SimulatedGrbl();
+    GrblStreamer streamer = connect(grbl);
+    streamer.waitForWelcome(1000);
+    PrintStream out = new PrintStream(streamer.getOutputStream(), false, "US-ASCII");
+    for (int i = 0; i < 500; i++)
+    {
+      out.print("G1 X" + i + "\n");
+    }
+    //the last line is sent by finish
+    out.print("M5");
+    assertFalse(out.checkError());
+    streamer.finish();
+    streamer.close();
+    assertEquals(501, grbl.received.size());
+    assertEquals("M5", grbl.received.get(500));
+  }
+
+  @Test
+  public void testResetWithoutWelcome() throws IOException
+  {
+    //the port did not reset the board, so it has to be reset by software
+    SimulatedGrbl grbl = new SimulatedGrbl();
+    grbl.welcome = false;
+    GrblStreamer streamer = connect(grbl);
+    streamer.waitForWelcome(200);
+    streamer.send("G1 X1\nG1 X2\n");
+    streamer.finish();
+    streamer.close();
+    assertEquals(2, grbl.received.size());
+  }
+
+  @Test
+  public void testRunningWithoutWelcome() throws IOException
+  {
+    //a board, which does not reset when the port is opened (like a
+    //Smoothieboard), must not be reset, it only has to answer
+    SimulatedGrbl grbl = new SimulatedGrbl();
+    grbl.welcome = false;
+    GrblStreamer streamer = connect(grbl);
+    streamer.checkAlive(1000);
+    streamer.send("G1 X1\nG1 X2\n");
+    streamer.finish();
+    streamer.close();
+    assertEquals(2, grbl.received.size());
+    assertEquals(0, grbl.resets);
+  }
+
+  @Test
+  public void testCheckAliveSilent() throws IOException
+  {
+    SimulatedGrbl grbl = new SimulatedGrbl();
+    grbl.silent = true;
+    GrblStreamer streamer = connect(grbl);
+    try
+    {
+      streamer.checkAlive(100);
+      fail("the missing reply was not reported");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage(), e.getMessage().contains("status request"));
+    }
+    finally
+    {
+      streamer.close();
+    }
+    assertEquals(0, grbl.resets);
+  }
+
+  @Test
+  public void testSilentController() throws IOException
+  {
+    SimulatedGrbl grbl = new SimulatedGrbl();
+    grbl.silent = true;
+    GrblStreamer streamer = connect(grbl);
+    streamer.setReplyTimeout(300);
+    try
+    {
+      streamer.waitForWelcome(100);
+      fail("no welcome message was received");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage(), e.getMessage().contains("reset"));
+    }
+    long start = System.currentTimeMillis();
+    try
+    {
+      for (int i = 0; i < 1000; i++)
+      {
+        streamer.sendLine("G1 X" + i);
+      }
+      streamer.finish();
+      fail("the missing replies were not reported");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage(), e.getMessage().contains("did not reply"));
+    }
+    finally
+    {
+      streamer.close();
+    }
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.drivers;
+
+import com.t_oster.liblasercut.PowerSpeedFocusFrequencyProperty;
+import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.StepTransform;
+import com.t_oster.liblasercut.platform.Util;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class GrblTest
+{
+
+  @Test
+  public void testQuantiseRuns()
+  {
+    byte[] line = new byte[]{0, 0, (byte) 255, (byte) 250, 100, 0, 0, 120, 1, 0};
+    int[] starts = new int[line.length + 1];
+    int[] powers = new int[line.length];
+    //256 levels: every change of the value starts a new run
+    int count = Grbl.quantiseRuns(line, line.length, 256, starts, powers);
+    assertEquals(6, count);
+    assertArrayEquals(new int[]{2, 3, 4, 5, 7, 8, 9}, Arrays.copyOf(starts, count + 1));
+    assertArrayEquals(new int[]{255, 250, 100, 0, 120, 1}, Arrays.copyOf(powers, count));
+    //3 levels: 0, 127 and 255 map to 0, 1 and 2
+    count = Grbl.quantiseRuns(line, line.length, 3, starts, powers);
+    assertEquals(4, count);
+    assertArrayEquals(new int[]{2, 4, 5, 7, 8}, Arrays.copyOf(starts, count + 1));
+    assertArrayEquals(new int[]{2, 1, 0, 1}, Arrays.copyOf(powers, count));
+    //only the width first values count
+    assertEquals(0, Grbl.quantiseRuns(line, 2, 256, starts, powers));
+  }
+
+  @Test
+  public void testMergeRuns()
+  {
+    //runs of length 1 alternating between power 10 and 20, then a long run
+    int[] starts = new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 100};
+    int[] powers = new int[]{10, 20, 10, 20, 10, 20, 10, 20, 30};
+    int count = Grbl.mergeRuns(starts, powers, 9, 10);
+    //each joined run is at least 10 pixels long
+    assertEquals(1, count);
+    assertEquals(0, starts[0]);
+    assertEquals(100, starts[1]);
+    assertEquals((4 * 10 + 4 * 20 + 92 * 30 + 50) / 100, powers[0]);
+
+    starts = new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 100};
+    powers = new int[]{10, 20, 10, 20, 10, 20, 10, 20, 30};
+    count = Grbl.mergeRuns(starts, powers, 9, 50);
+    assertTrue(count <= 50);
+    assertEquals(2, count);
+    assertArrayEquals(new int[]{0, 8, 100}, Arrays.copyOf(starts, 3));
+    assertArrayEquals(new int[]{15, 30}, Arrays.copyOf(powers, 2));
+  }
+
+  @Test
+  public void testRelativeMoves() throws Exception
+  {
+    double dpi = 500;
+    double bedWidth = 250;
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(result, true, "US-ASCII");
+    RelativeGCodeWriter w = new RelativeGCodeWriter(StepTransform.fromPixels(dpi, 1000, true, bedWidth, false, 0));
+    Random r = new Random(4711);
+    int[] xs = new int[5000];
+    int[] ys = new int[xs.length];
+    for (int i = 0; i < xs.length; i++)
+    {
+      //mostly short steps like in dense outlines, some repeated points
+      xs[i] = i == 0 ? 1000 : Math.max(0, xs[i - 1] + r.nextInt(7) - 3);
+      ys[i] = i == 0 ? 1000 : Math.max(0, ys[i - 1] + r.nextInt(5) - 2);
+      if (i % 100 == 0)
+      {
+        w.move(out, xs[i], ys[i]);
+      }
+      else
+      {
+        w.line(out, xs[i], ys[i]);
+      }
+    }
+    w.finish(out);
+    String[] lines = result.toString("US-ASCII").split("\n");
+    assertTrue(lines[0].startsWith("G0 X"));
+    assertEquals("G91", lines[1]);
+    assertEquals("G90", lines[lines.length - 1]);
+    //add up the relative moves in micrometers and compare them to the
+    //absolute positions, so rounding must not accumulate
+    long x = 0;
+    long y = 0;
+    int point = 0;
+    for (int l = 0; l < lines.length; l++)
+    {
+      if (l == 1 || l == lines.length - 1)
+      {
+        continue;
+      }
+      for (String word : lines[l].substring(3).split(" "))
+      {
+        long value = Math.round(Double.parseDouble(word.substring(1)) * 1000);
+        if (word.charAt(0) == 'X')
+        {
+          x = l == 0 ? value : x + value;
+        }
+        else
+        {
+          y = l == 0 ? value : y + value;
+        }
+      }
+      //skip the points which did not move
+      while (point + 1 < xs.length && xs[point + 1] == xs[point] && ys[point + 1] == ys[point])
+      {
+        point++;
+      }
+      double mmX = Util.px2mm(Util.mm2px(bedWidth, dpi) - xs[point], dpi);
+      double mmY = Util.px2mm(ys[point], dpi);
+      assertEquals("line " + l, mmX, x / 1000d, 0.0006);
+      assertEquals("line " + l, mmY, y / 1000d, 0.0006);
+      point++;
+    }
+    assertEquals(xs.length, point);
+  }
+
+  private byte[] vectorGCode(Grbl g, VectorPart vp, double dpi) throws Exception
+  {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(result, true, "US-ASCII");
+    g.writeVectorGCode(vp, dpi, out);
+    return result.toByteArray();
+  }
+
+  @Test
+  public void testArcs() throws Exception
+  {
+    double dpi = 500;
+    VectorPart vp = new VectorPart(new PowerSpeedFocusFrequencyProperty(), dpi);
+    //circles flattened with 1 pixel flatness, like ShapeConverter does
+    for (int r = 100; r <= 2000; r += 100)
+    {
+      int n = (int) Math.ceil(Math.PI / Math.acos(1 - 1d / r));
+      vp.moveto(3000 + r, 3000);
+      for (int i = 1; i <= n; i++)
+      {
+        double a = 2 * Math.PI * i / n;
+        vp.lineto((int) Math.round(3000 + r * Math.cos(a)), (int) Math.round(3000 + r * Math.sin(a)));
+      }
+    }
+    Grbl g = new Grbl();
+    g.setFlipXaxis(true);
+    byte[] lines = vectorGCode(g, vp, dpi);
+    g.setArcTolerance(0.05);
+    byte[] arcs = vectorGCode(g, vp, dpi);
+    assertTrue(lines.length / arcs.length >= 10);
+    //the job is not changed, so other tolerances take effect
+    assertFalse(vp.hasArcs());
+    g.setArcTolerance(0.001);
+    assertTrue(vectorGCode(g, vp, dpi).length > arcs.length);
+    g.setArcTolerance(0.05);
+    //like Grbl, check that start and end point of each arc have the
+    //same distance from the center
+    double x = 0;
+    double y = 0;
+    int count = 0;
+    for (String line : new String(arcs, "US-ASCII").split("\n"))
+    {
+      double nx = x;
+      double ny = y;
+      double i = 0;
+      double j = 0;
+      for (String word : line.split(" "))
+      {
+        double value = word.length() > 1 ? Double.parseDouble(word.substring(1)) : 0;
+        switch (word.charAt(0))
+        {
+          case 'X': nx = value; break;
+          case 'Y': ny = value; break;
+          case 'I': i = value; break;
+          case 'J': j = value; break;
+        }
+      }
+      if (line.startsWith("G2") || line.startsWith("G3"))
+      {
+        //flipped x axis, so the counterclockwise circles become clockwise
+        assertTrue(line.startsWith("G2"));
+        double r = Math.hypot(i, j);
+        assertEquals(r, Math.hypot(x + i - nx, y + j - ny), 0.005);
+        count++;
+      }
+      x = nx;
+      y = ny;
+    }
+    assertTrue(count >= 40);
+  }
+}
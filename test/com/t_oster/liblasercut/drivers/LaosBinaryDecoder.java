@@ -0,0 +1,142 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.drivers;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes and validates the binary LAOS encoding of LaosBinaryWriter.
+ * The result is the ASCII encoding of the same commands, so it can be
+ * compared with the output of the ASCII mode.
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class LaosBinaryDecoder
+{
+
+  private final InputStream in;
+  private int x = 0;
+  private int y = 0;
+
+  private LaosBinaryDecoder(byte[] data)
+  {
+    this.in = new ByteArrayInputStream(data);
+  }
+
+  private int readByte() throws IOException
+  {
+    int b = in.read();
+    if (b == -1)
+    {
+      throw new EOFException("Command truncated");
+    }
+    return b;
+  }
+
+  private int readVarint() throws IOException
+  {
+    int result = 0;
+    for (int shift = 0; shift < 35; shift += 7)
+    {
+      int b = readByte();
+      result |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+      {
+        return result;
+      }
+    }
+    throw new IOException("Varint longer than 5 bytes");
+  }
+
+  private int readSigned() throws IOException
+  {
+    int v = readVarint();
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  private String decode() throws IOException
+  {
+    for (byte m : LaosBinaryWriter.MAGIC)
+    {
+      if (in.read() != (m & 0xFF))
+      {
+        throw new IOException("Magic bytes missing");
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    while (in.available() > 0)
+    {
+      int opcode = readVarint();
+      switch (opcode)
+      {
+        case 0:
+        case 1:
+          x += readSigned();
+          y += readSigned();
+          result.append(opcode).append(' ').append(x).append(' ').append(y);
+          break;
+        case 2:
+        case 201:
+        case 202:
+        case 203:
+        case 204:
+          result.append(opcode).append(' ').append(readSigned());
+          break;
+        case 7:
+        {
+          int key = readVarint();
+          result.append(opcode).append(' ').append(key).append(' ').append(readSigned());
+          break;
+        }
+        case 9:
+        {
+          int type = readVarint();
+          int bits = readVarint();
+          if (bits % 32 != 0)
+          {
+            throw new IOException("Bitmap of " + bits + " bits is not made of dwords");
+          }
+          result.append("9 ").append(type).append(' ').append(bits).append(' ');
+          for (int i = 0; i < bits / 32; i++)
+          {
+            long d = readByte() | readByte() << 8 | readByte() << 16 | (long) readByte() << 24;
+            result.append(' ').append(d);
+          }
+          break;
+        }
+        default:
+          throw new IOException("Unknown opcode " + opcode);
+      }
+      result.append('\n');
+    }
+    return result.toString();
+  }
+
+  /**
+   * Returns the commands as ASCII lines
+   * @throws IOException if data is not a valid binary encoding
+   */
+  public static String decode(byte[] data) throws IOException
+  {
+    return new LaosBinaryDecoder(data).decode();
+  }
+}
@@ -18,14 +18,35 @@
  **/
 package com.t_oster.liblasercut.drivers;
 
+import com.t_oster.liblasercut.BlackWhiteRaster;
 import com.t_oster.liblasercut.LaserJob;
 import com.t_oster.liblasercut.ProgressListener;
+import com.t_oster.liblasercut.RasterPart;
+import com.t_oster.liblasercut.SendJobHandle;
+import com.t_oster.liblasercut.VectorCommand;
 import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.Point;
+import com.t_oster.liblasercut.platform.Util;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.net.tftp.TFTP;
+import org.apache.commons.net.tftp.TFTPAckPacket;
+import org.apache.commons.net.tftp.TFTPClient;
+import org.apache.commons.net.tftp.TFTPDataPacket;
+import org.apache.commons.net.tftp.TFTPPacket;
+import org.apache.commons.net.tftp.TFTPWriteRequestPacket;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -69,4 +90,426 @@ public class LaosCutterTest extends LaosCutter{
     assertTrue(lines.contains("7 7 1"));
     assertTrue(lines.contains("2 1000"));
   }
+
+  @Test
+  public void testVectorSteps() throws IOException
+  {
+    Random r = new Random(4711);
+    VectorPart vp = new VectorPart(new LaosCutterProperty(), 500);
+    for (int i = 0; i < 1000; i++)
+    {
+      vp.lineto(r.nextInt(10000), r.nextInt(10000));
+    }
+    LaserJob job = new LaserJob("test", "test", "test");
+    job.addPart(vp);
+    for (boolean flip : new boolean[]{false, true})
+    {
+      LaosCutter cutter = new LaosCutter();
+      cutter.setFlipXaxis(flip);
+      cutter.setFlipYaxis(flip);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      cutter.writeJobCode(job, out, pl);
+      int i = 0;
+      for (String line : out.toString("US-ASCII").split("\n"))
+      {
+        if (!line.startsWith("1 "))
+        {
+          continue;
+        }
+        while (vp.getCommandType(i) != VectorCommand.CmdType.LINETO)
+        {
+          i++;
+        }
+        String[] values = line.split(" ");
+        assertSteps(cutter, vp.getX(i), flip, cutter.getBedWidth(), Integer.parseInt(values[1]));
+        assertSteps(cutter, vp.getY(i), flip, cutter.getBedHeight(), Integer.parseInt(values[2]));
+        i++;
+      }
+      assertEquals(vp.getCommandCount(), i);
+    }
+  }
+
+  /**
+   * Checks that the pixel coordinate was rounded to the nearest step
+   * and differs by at most one step from the truncating conversion
+   * used before
+   */
+  private void assertSteps(LaosCutter cutter, int px, boolean flip, double bed, int steps)
+  {
+    double mm = Util.px2mm(px, 500);
+    double exact = (flip ? bed - mm : mm) / cutter.getMmPerStep();
+    assertEquals(Math.round(exact), steps);
+    int truncated = (int) (Util.px2mm(flip ? Util.mm2px(bed, 500) - px : px, 500) / cutter.getMmPerStep());
+    assertTrue(Math.abs(steps - truncated) <= 1);
+  }
+
+  /**
+   * The original implementation working byte by byte on a list
+   */
+  private List<Long> referenceDwords(List<Byte> line, boolean outputLeftToRight)
+  {
+    List<Long> result = new ArrayList<Long>();
+    for (int i = 0; i < line.size(); i += 4)
+    {
+      long dword = 0;
+      for (int k = 0; k < 4 && i + k < line.size(); k++)
+      {
+        dword |= ((long) (Integer.reverse(0xFF & line.get(i + k)) >>> 24)) << (8 * k);
+      }
+      result.add(dword);
+    }
+    if (!outputLeftToRight)
+    {
+      Collections.reverse(result);
+      for (int i = 0; i < result.size(); i++)
+      {
+        result.set(i, Long.reverse(result.get(i)) >>> 32);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testByteLineToDwords()
+  {
+    Random r = new Random(4711);
+    int[] dwords = new int[100];
+    for (int length = 0; length < 40; length++)
+    {
+      byte[] line = new byte[length + 3];
+      r.nextBytes(line);
+      List<Byte> list = new ArrayList<Byte>();
+      for (int i = 0; i < length; i++)
+      {
+        list.add(line[i + 2]);
+      }
+      for (boolean leftToRight : new boolean[]{true, false})
+      {
+        List<Long> expected = referenceDwords(list, leftToRight);
+        assertEquals(expected, this.byteLineToDwords(list, leftToRight));
+        assertEquals(expected, this.byteLineToDwords(line, 2, length, leftToRight));
+        int count = this.byteLineToDwords(line, 2, length, leftToRight, dwords);
+        assertEquals(expected.size(), count);
+        for (int i = 0; i < count; i++)
+        {
+          assertEquals(expected.get(i).longValue(), 0xFFFFFFFFL & dwords[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stands in for the TFTP server of the LAOS board and receives one file.
+   * If stopAfter is set, it stops answering after this many blocks.
+   */
+  private static class FakeTftpServer extends Thread
+  {
+
+    final TFTP tftp = new TFTP();
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    String filename;
+    boolean complete = false;
+    int stopAfter = -1;
+
+    FakeTftpServer() throws IOException
+    {
+      tftp.setDefaultTimeout(5000);
+      tftp.open(0);
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        TFTPWriteRequestPacket request = (TFTPWriteRequestPacket) tftp.receive();
+        filename = request.getFilename();
+        InetAddress address = request.getAddress();
+        int port = request.getPort();
+        tftp.send(new TFTPAckPacket(address, port, 0));
+        int block = 1;
+        while (block - 1 != stopAfter)
+        {
+          TFTPDataPacket data = (TFTPDataPacket) tftp.receive();
+          if (data.getBlockNumber() == block)
+          {
+            received.write(data.getData(), data.getDataOffset(), data.getDataLength());
+            block++;
+          }
+          tftp.send(new TFTPAckPacket(address, port, data.getBlockNumber()));
+          if (data.getDataLength() < TFTPPacket.SEGMENT_SIZE)
+          {
+            complete = true;
+            break;
+          }
+        }
+      }
+      catch (Exception e)
+      {
+        //checked by the test
+      }
+      finally
+      {
+        tftp.close();
+      }
+    }
+  }
+
+  @Test
+  public void testTftpUpload() throws Exception
+  {
+    FakeTftpServer server = new FakeTftpServer();
+    server.start();
+    File debugFile = File.createTempFile("laos", ".lgc");
+    debugFile.deleteOnExit();
+    this.setHostname("localhost");
+    this.setPort(server.tftp.getLocalPort());
+    this.setUseTftp(true);
+    this.setProperty("Debug output file", debugFile.getAbsolutePath());
+    LaserJob job = new LaserJob("tftp test", "tftp test", "test");
+    VectorPart vp = new VectorPart(new LaosCutterProperty(), 500);
+    Random r = new Random(4711);
+    for (int i = 0; i < 2000; i++)
+    {
+      vp.lineto(r.nextInt(2000), r.nextInt(2000));
+    }
+    job.addPart(vp);
+    this.sendJob(job, pl);
+    server.join(5000);
+    assertTrue(server.complete);
+    assertEquals("tftptest.lgc", server.filename);
+    //spans many blocks of 512 bytes and more than the pipe
+    assertTrue(server.received.size() > 20 * TFTPPacket.SEGMENT_SIZE);
+    byte[] written = new byte[(int) debugFile.length()];
+    FileInputStream in = new FileInputStream(debugFile);
+    assertEquals(written.length, in.read(written));
+    in.close();
+    assertTrue(Arrays.equals(written, server.received.toByteArray()));
+    int lines = 0;
+    for (String line : new String(written, "US-ASCII").split("\n"))
+    {
+      if (line.startsWith("1 "))
+      {
+        lines++;
+      }
+    }
+    assertEquals(2000, lines);
+  }
+
+  @Test
+  public void testTftpGenerationFailure() throws Exception
+  {
+    FakeTftpServer server = new FakeTftpServer();
+    server.tftp.setSoTimeout(1000);
+    server.start();
+    //fails after some blocks have been sent
+    LaosCutter cutter = new LaosCutter()
+    {
+      @Override
+      protected void writeJobCode(LaserJob job, OutputStream target, ProgressListener pl) throws IOException
+      {
+        byte[] line = "1 1000 1000\n".getBytes("US-ASCII");
+        for (int i = 0; i < 1000; i++)
+        {
+          target.write(line);
+        }
+        throw new IOException("generation failed");
+      }
+    };
+    cutter.setHostname("localhost");
+    cutter.setPort(server.tftp.getLocalPort());
+    cutter.setUseTftp(true);
+    try
+    {
+      cutter.sendJob(new LaserJob("tftp test", "tftp test", "test"), pl);
+      fail("the failed generation was not reported");
+    }
+    catch (IOException e)
+    {
+      assertEquals("generation failed", e.getMessage());
+    }
+    server.join(5000);
+    //the file must not end with a short block, which looks complete
+    assertFalse(server.complete);
+    assertTrue(server.received.size() > 0);
+  }
+
+  @Test
+  public void testTftpTimeout() throws Exception
+  {
+    FakeTftpServer server = new FakeTftpServer();
+    server.stopAfter = 5;
+    server.start();
+    //generates more than the pipe can take, so the generator is still
+    //writing when sending fails
+    LaosCutter cutter = new LaosCutter()
+    {
+      @Override
+      protected TFTPClient createTftpClient()
+      {
+        TFTPClient tftp = super.createTftpClient();
+        tftp.setDefaultTimeout(200);
+        tftp.setMaxTimeouts(2);
+        return tftp;
+      }
+
+      @Override
+      protected void writeJobCode(LaserJob job, OutputStream target, ProgressListener pl) throws IOException
+      {
+        byte[] line = "1 1000 1000\n".getBytes("US-ASCII");
+        for (int i = 0; i < 100000; i++)
+        {
+          target.write(line);
+        }
+        throw new IOException("the pipe was not closed");
+      }
+    };
+    cutter.setHostname("localhost");
+    cutter.setPort(server.tftp.getLocalPort());
+    cutter.setUseTftp(true);
+    try
+    {
+      cutter.sendJob(new LaserJob("tftp test", "tftp test", "test"), pl);
+      fail("the timeout was not reported");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage(), e.getMessage().contains("did not answer"));
+    }
+    server.join(5000);
+    assertFalse(server.complete);
+    assertEquals(5 * TFTPPacket.SEGMENT_SIZE, server.received.size());
+  }
+
+  @Test
+  public void testTftpCancel() throws Exception
+  {
+    FakeTftpServer server = new FakeTftpServer();
+    server.stopAfter = 5;
+    server.start();
+    final CountDownLatch finished = new CountDownLatch(1);
+    final Exception[] failure = new Exception[1];
+    //without cancelling, it would wait for the server for 25 s
+    LaosCutter cutter = new LaosCutter()
+    {
+      @Override
+      protected void writeJobCode(LaserJob job, OutputStream target, ProgressListener pl) throws IOException
+      {
+        byte[] line = "1 1000 1000\n".getBytes("US-ASCII");
+        while (true)
+        {
+          target.write(line);
+        }
+      }
+
+      @Override
+      public void sendJob(LaserJob job, ProgressListener pl, List<String> warnings) throws Exception
+      {
+        try
+        {
+          super.sendJob(job, pl, warnings);
+        }
+        catch (Exception e)
+        {
+          failure[0] = e;
+          throw e;
+        }
+        finally
+        {
+          finished.countDown();
+        }
+      }
+    };
+    cutter.setHostname("localhost");
+    cutter.setPort(server.tftp.getLocalPort());
+    cutter.setUseTftp(true);
+    SendJobHandle handle = cutter.sendJobAsync(new LaserJob("tftp test", "tftp test", "test"));
+    //the server stops answering after 5 blocks
+    server.join(5000);
+    assertTrue(handle.cancel(true));
+    assertTrue("sending did not stop", finished.await(2, TimeUnit.SECONDS));
+    assertTrue(failure[0].getMessage(), failure[0].getMessage().contains("Interrupted"));
+  }
+
+  private LaserJob createMixedJob()
+  {
+    LaserJob job = new LaserJob("test", "test", "test");
+    Random r = new Random(4711);
+    BlackWhiteRaster image = new BlackWhiteRaster(300, 100);
+    for (int y = 0; y < image.getHeight(); y++)
+    {
+      for (int x = 0; x < image.getWidth(); x++)
+      {
+        image.setBlack(x, y, r.nextInt(3) == 0);
+      }
+    }
+    job.addPart(new RasterPart(image, new LaosCutterProperty(), new Point(20, 20), 500));
+    LaosCutterProperty prop = new LaosCutterProperty();
+    prop.setPower(50.62f);
+    prop.setFrequency(333);
+    VectorPart vp = new VectorPart(prop, 500);
+    for (int i = 0; i < 500; i++)
+    {
+      if (i % 50 == 0)
+      {
+        vp.moveto(r.nextInt(2000), r.nextInt(2000));
+      }
+      else
+      {
+        vp.lineto(r.nextInt(2000), r.nextInt(2000));
+      }
+    }
+    job.addPart(vp);
+    return job;
+  }
+
+  @Test
+  public void testBinaryEncoding() throws Exception
+  {
+    LaosCutter ascii = new LaosCutter();
+    ascii.setSupportsFrequency(true);
+    ByteArrayOutputStream asciiOut = new ByteArrayOutputStream();
+    ascii.writeJobCode(createMixedJob(), asciiOut, pl);
+    LaosCutter binary = new LaosCutter();
+    binary.setSupportsFrequency(true);
+    binary.setProperty("Use binary command encoding (needs firmware support)", Boolean.TRUE);
+    assertTrue(binary.clone() instanceof LaosCutter && ((LaosCutter) binary.clone()).isUseBinaryEncoding());
+    ByteArrayOutputStream binaryOut = new ByteArrayOutputStream();
+    binary.writeJobCode(createMixedJob(), binaryOut, pl);
+    assertEquals(asciiOut.toString("US-ASCII"), LaosBinaryDecoder.decode(binaryOut.toByteArray()));
+    assertTrue(asciiOut.toString("US-ASCII").contains("9 1 "));
+    assertTrue(asciiOut.toString("US-ASCII").contains("7 102 333"));
+    //the bitmaps shrink to the raw dwords, coordinates to a few bytes
+    assertTrue(binaryOut.size() + " of " + asciiOut.size(), binaryOut.size() * 2 < asciiOut.size());
+  }
+
+  @Test
+  public void testBinaryDecoderValidates() throws Exception
+  {
+    LaosBinaryWriter w = new LaosBinaryWriter();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    w.header().command(0, -5, 1000000).command(1, Integer.MAX_VALUE, Integer.MIN_VALUE).command(7, 101, -1).writeTo(out);
+    w.bitmap(1, new int[]{0xFFFFFFFF, 0x80000001}, 2).command(201, 3).writeTo(out);
+    byte[] data = out.toByteArray();
+    assertEquals("0 -5 1000000\n1 2147483647 -2147483648\n7 101 -1\n9 1 64  4294967295 2147483649\n201 3\n", LaosBinaryDecoder.decode(data));
+    try
+    {
+      LaosBinaryDecoder.decode(Arrays.copyOf(data, data.length - 5));
+      fail("truncated data accepted");
+    }
+    catch (IOException e)
+    {
+      //expected
+    }
+    data[1] = 'X';
+    try
+    {
+      LaosBinaryDecoder.decode(data);
+      fail("wrong magic accepted");
+    }
+    catch (IOException e)
+    {
+      //expected
+    }
+  }
 }
@@ -0,0 +1,105 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.platform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class AsciiCommandWriterTest
+{
+
+  private String format(AsciiCommandWriter w, double value)
+  {
+    w.reset();
+    w.append(value);
+    return w.toString();
+  }
+
+  @Test
+  public void testLikePrintf()
+  {
+    AsciiCommandWriter w = new AsciiCommandWriter();
+    Random r = new Random(4711);
+    double[] dpis = new double[]{100, 200, 333, 500, 600, 1000};
+    for (int i = 0; i < 100000; i++)
+    {
+      double value;
+      switch (i % 4)
+      {
+        case 0:
+          value = r.nextDouble() * 2000 - 1000;
+          break;
+        case 1:
+          //exact ties at the 7th decimal place
+          value = (r.nextInt(2000000) - 1000000) / 2e6;
+          break;
+        case 2:
+          value = Util.px2mm(r.nextInt(100000), dpis[r.nextInt(dpis.length)]);
+          break;
+        default:
+          value = (r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(30) - 10);
+      }
+      assertEquals(String.format(Locale.US, "%f", value), format(w, value));
+    }
+    for (double value : new double[]{0, -0.0, -1e-9, 0.0000005, 1.0000005, 1e300, -1e20, Double.NaN, Double.NEGATIVE_INFINITY})
+    {
+      assertEquals(String.format(Locale.US, "%f", value), format(w, value));
+    }
+  }
+
+  @Test
+  public void testPrecision()
+  {
+    AsciiCommandWriter w = new AsciiCommandWriter(3, false);
+    assertEquals("1.500", format(w, 1.5));
+    assertEquals("-0.001", format(w, -0.0005));
+    w.setTrimTrailingZeros(true);
+    assertEquals("1.5", format(w, 1.5));
+    assertEquals("2", format(w, 2.0004));
+    assertEquals("0", format(w, -0.0001));
+    assertEquals("10.1", format(w, 10.1));
+    assertEquals("100", format(w, 100));
+    w.setPrecision(0);
+    assertEquals("100", format(w, 100.4));
+    assertEquals("-3", format(w, -2.5));
+  }
+
+  @Test
+  public void testIntegersAndOutput()
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bos);
+    AsciiCommandWriter w = new AsciiCommandWriter();
+    w.append("G1 X").append(0).append(" Y").append(-42).append(' ').append(Long.MIN_VALUE).append('\n');
+    assertEquals("G1 X0 Y-42 -9223372036854775808\n".length(), w.length());
+    w.writeTo(out);
+    assertEquals(0, w.length());
+    w.append("7 101 ").append(Integer.MAX_VALUE).append('\n').writeTo(out);
+    out.flush();
+    assertEquals("G1 X0 Y-42 -9223372036854775808\n7 101 2147483647\n", bos.toString());
+  }
+}
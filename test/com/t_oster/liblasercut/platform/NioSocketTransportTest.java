@@ -0,0 +1,197 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.platform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class NioSocketTransportTest
+{
+
+  private ServerSocket server;
+  private Socket accepted;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    server = new ServerSocket(0);
+  }
+
+  @After
+  public void tearDown() throws IOException
+  {
+    server.close();
+    if (accepted != null)
+    {
+      accepted.close();
+    }
+  }
+
+  private NioSocketTransport connect(int timeout) throws IOException
+  {
+    NioSocketTransport t = new NioSocketTransport("localhost", server.getLocalPort(), 3000, timeout);
+    accepted = server.accept();
+    return t;
+  }
+
+  /**
+   * Returns the exception thrown by reading from t in another thread,
+   * which is interrupted or has t closed after 200ms
+   */
+  private Throwable readAndAbort(final NioSocketTransport t, boolean interrupt) throws Exception
+  {
+    final Throwable[] result = new Throwable[1];
+    Thread reader = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          t.getInputStream().read();
+        }
+        catch (Throwable e)
+        {
+          result[0] = e;
+        }
+      }
+    };
+    reader.start();
+    Thread.sleep(200);
+    if (interrupt)
+    {
+      reader.interrupt();
+    }
+    else
+    {
+      t.close();
+    }
+    reader.join(5000);
+    assertFalse("reading was not aborted", reader.isAlive());
+    return result[0];
+  }
+
+  @Test
+  public void testReadAndWrite() throws Exception
+  {
+    final NioSocketTransport t = connect(10000);
+    final byte[] data = new byte[1000000];
+    new Random(4711).nextBytes(data);
+    //the other side reads slowly, so writing has to wait
+    Thread writer = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          t.getOutputStream().write(data);
+          t.getOutputStream().write(42);
+        }
+        catch (IOException e)
+        {
+          //detected below
+        }
+      }
+    };
+    writer.start();
+    Thread.sleep(100);
+    byte[] received = new byte[data.length + 1];
+    InputStream in = accepted.getInputStream();
+    int pos = 0;
+    while (pos < received.length)
+    {
+      int read = in.read(received, pos, received.length - pos);
+      assertTrue(read > 0);
+      pos += read;
+    }
+    writer.join();
+    assertTrue(Arrays.equals(data, Arrays.copyOf(received, data.length)));
+    assertEquals(42, received[data.length]);
+
+    OutputStream out = accepted.getOutputStream();
+    assertEquals(0, t.getInputStream().available());
+    out.write(new byte[]{1, 2, 3});
+    Thread.sleep(100);
+    assertEquals(3, t.getInputStream().available());
+    assertEquals(1, t.getInputStream().read());
+    byte[] buffer = new byte[10];
+    assertEquals(2, t.getInputStream().read(buffer));
+    assertEquals(3, buffer[1]);
+    accepted.close();
+    assertEquals(-1, t.getInputStream().read());
+    t.close();
+    assertTrue(t.isClosed());
+  }
+
+  @Test(expected = SocketTimeoutException.class)
+  public void testReadTimeout() throws IOException
+  {
+    NioSocketTransport t = connect(200);
+    try
+    {
+      t.getInputStream().read();
+    }
+    finally
+    {
+      t.close();
+    }
+  }
+
+  @Test
+  public void testInterrupt() throws Exception
+  {
+    NioSocketTransport t = connect(0);
+    Throwable e = readAndAbort(t, true);
+    assertTrue(String.valueOf(e), e instanceof InterruptedIOException);
+    assertTrue(t.isClosed());
+  }
+
+  @Test
+  public void testCloseWhileReading() throws Exception
+  {
+    NioSocketTransport t = connect(0);
+    Throwable e = readAndAbort(t, false);
+    assertTrue(String.valueOf(e), e instanceof AsynchronousCloseException);
+  }
+
+  @Test(expected = IOException.class)
+  public void testConnectionRefused() throws IOException
+  {
+    int port = server.getLocalPort();
+    server.close();
+    new NioSocketTransport("localhost", port, 3000, 0);
+  }
+}
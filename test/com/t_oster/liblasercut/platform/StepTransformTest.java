@@ -0,0 +1,70 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.platform;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class StepTransformTest
+{
+
+  @Test
+  public void testLikeFloatingPoint()
+  {
+    Random r = new Random(4711);
+    for (double dpi : new double[]{100, 333, 500, 1000, 1200})
+    {
+      for (boolean flip : new boolean[]{false, true})
+      {
+        double unitsPerMm = 1 / 0.00635;
+        StepTransform t = StepTransform.fromPixels(dpi, unitsPerMm, flip, 600, !flip, 400);
+        double bedWidthPx = Util.mm2px(600, dpi);
+        double bedHeightPx = Util.mm2px(400, dpi);
+        for (int i = 0; i < 10000; i++)
+        {
+          int px = r.nextInt((int) bedWidthPx);
+          int py = r.nextInt((int) bedHeightPx);
+          double x = Util.px2mm(flip ? bedWidthPx - px : px, dpi) * unitsPerMm;
+          double y = Util.px2mm(!flip ? bedHeightPx - py : py, dpi) * unitsPerMm;
+          assertEquals(Math.round(x), t.x(px), 1);
+          assertEquals(Math.round(y), t.y(py), 1);
+          assertEquals(x, t.x(px), 0.5 + 1e-6);
+          assertEquals(y, t.y(py), 0.5 + 1e-6);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testExactScale()
+  {
+    StepTransform t = new StepTransform(2, 10, -3, 0.5);
+    assertEquals(10, t.x(0));
+    assertEquals(30, t.x(10));
+    assertEquals(-10, t.x(-10));
+    //-2.5 is rounded up
+    assertEquals(-2, t.y(1));
+    assertEquals(-29, t.y(10));
+  }
+}
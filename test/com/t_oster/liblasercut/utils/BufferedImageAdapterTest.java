@@ -0,0 +1,100 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.utils;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class BufferedImageAdapterTest
+{
+
+  private BufferedImage createImage(int type)
+  {
+    BufferedImage img = new BufferedImage(67, 41, type);
+    Random r = new Random(4711);
+    for (int y = 0; y < img.getHeight(); y++)
+    {
+      for (int x = 0; x < img.getWidth(); x++)
+      {
+        img.setRGB(x, y, 0xFF000000 | r.nextInt(0x1000000));
+      }
+    }
+    return img;
+  }
+
+  /**
+   * The fast conversion may differ by one from the default one
+   */
+  private void assertSameConversion(BufferedImage img)
+  {
+    BufferedImageAdapter slow = new BufferedImageAdapter(img);
+    BufferedImageAdapter fast = new BufferedImageAdapter(img, false, true);
+    assertTrue(fast.isFastConversion());
+    int[] slowRow = new int[img.getWidth()];
+    int[] fastRow = new int[img.getWidth()];
+    for (int y = 0; y < img.getHeight(); y++)
+    {
+      slow.getRow(y, slowRow);
+      fast.getRow(y, fastRow);
+      for (int x = 0; x < img.getWidth(); x++)
+      {
+        assertEquals("x=" + x + " y=" + y, slow.getGreyScale(x, y), fast.getGreyScale(x, y), 1);
+        assertEquals("x=" + x + " y=" + y, slowRow[x], fastRow[x], 1);
+      }
+    }
+  }
+
+  private void assertSameConversion(int type)
+  {
+    BufferedImage img = createImage(type);
+    assertSameConversion(img);
+    //the data of a sub image starts somewhere inside the data buffer
+    assertSameConversion(img.getSubimage(13, 7, 31, 29));
+  }
+
+  @Test
+  public void testIntRgb()
+  {
+    assertSameConversion(BufferedImage.TYPE_INT_RGB);
+  }
+
+  @Test
+  public void test3ByteBgr()
+  {
+    assertSameConversion(BufferedImage.TYPE_3BYTE_BGR);
+  }
+
+  @Test
+  public void testByteGray()
+  {
+    assertSameConversion(BufferedImage.TYPE_BYTE_GRAY);
+  }
+
+  @Test
+  public void testOtherType()
+  {
+    assertSameConversion(BufferedImage.TYPE_INT_ARGB);
+  }
+}
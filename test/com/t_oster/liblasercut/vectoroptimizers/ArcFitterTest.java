@@ -0,0 +1,113 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.PowerSpeedFocusProperty;
+import com.t_oster.liblasercut.VectorArc;
+import com.t_oster.liblasercut.VectorCommand;
+import com.t_oster.liblasercut.VectorPart;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class ArcFitterTest
+{
+
+  /**
+   * Adds a circle flattened with a flatness of 1 pixel, like ShapeConverter
+   */
+  static void circle(VectorPart vp, int cx, int cy, int r, boolean clockwise)
+  {
+    int n = (int) Math.ceil(Math.PI / Math.acos(1 - 1d / r));
+    vp.moveto(cx + r, cy);
+    for (int i = 1; i <= n; i++)
+    {
+      double a = (clockwise ? -2 : 2) * Math.PI * i / n;
+      vp.lineto((int) Math.round(cx + r * Math.cos(a)), (int) Math.round(cy + r * Math.sin(a)));
+    }
+  }
+
+  @Test
+  public void testCircles()
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    circle(vp, 3000, 3000, 2000, false);
+    circle(vp, 1000, 1000, 300, true);
+    ArcFitter f = new ArcFitter();
+    int count = f.fit(vp);
+    //arcs are at most half circles
+    assertTrue(count >= 4 && count <= 6);
+    int arcs = 0;
+    int lines = 0;
+    int circles = 0;
+    for (int i = 0; i < vp.getCommandCount(); i++)
+    {
+      VectorArc arc = vp.getArc(i);
+      if (arc != null)
+      {
+        boolean big = circles == 1;
+        assertEquals(big ? 3000 : 1000, arc.getCenterX(), 1);
+        assertEquals(big ? 3000 : 1000, arc.getCenterY(), 1);
+        assertEquals(!big, arc.isClockwise());
+        arcs++;
+        i = arc.getEnd();
+      }
+      else if (vp.getCommandType(i) == VectorCommand.CmdType.MOVETO)
+      {
+        circles++;
+      }
+      else if (vp.getCommandType(i) == VectorCommand.CmdType.LINETO)
+      {
+        lines++;
+      }
+    }
+    assertEquals(count, arcs);
+    //at most a few lines at the end of each circle are left
+    assertTrue(lines <= 2 * ArcFitter.MIN_LINES);
+  }
+
+  @Test
+  public void testNoArcs()
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    //the corners of a hexagon are on a circle, but its sides are not
+    vp.moveto(1000, 0);
+    for (int i = 1; i <= 6; i++)
+    {
+      vp.lineto((int) Math.round(1000 * Math.cos(Math.PI * i / 3)), (int) Math.round(1000 * Math.sin(Math.PI * i / 3)));
+    }
+    //a straight line
+    vp.moveto(0, 0);
+    for (int i = 1; i <= 10; i++)
+    {
+      vp.lineto(10 * i, 0);
+    }
+    //a zig-zag line
+    vp.moveto(0, 0);
+    for (int i = 1; i <= 10; i++)
+    {
+      vp.lineto(10 * i, 10 * (i % 2));
+    }
+    assertEquals(0, new ArcFitter().fit(vp));
+    assertFalse(vp.hasArcs());
+  }
+}
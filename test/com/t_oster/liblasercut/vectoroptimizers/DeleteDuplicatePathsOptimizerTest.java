@@ -0,0 +1,110 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.PowerSpeedFocusProperty;
+import com.t_oster.liblasercut.VectorPart;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class DeleteDuplicatePathsOptimizerTest
+{
+
+  @Test
+  public void testDuplicates()
+  {
+    PowerSpeedFocusProperty other = new PowerSpeedFocusProperty();
+    other.setPower(50);
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    vp.moveto(0, 0);
+    vp.lineto(10, 10);
+    vp.lineto(20, 0);
+    //identical
+    vp.moveto(0, 0);
+    vp.lineto(10, 10);
+    vp.lineto(20, 0);
+    //reversed
+    vp.moveto(20, 0);
+    vp.lineto(10, 10);
+    vp.lineto(0, 0);
+    vp.moveto(30, 0);
+    vp.lineto(40, 0);
+    //identical, but with different property
+    vp.setProperty(other);
+    vp.moveto(30, 0);
+    vp.lineto(40, 0);
+    VectorPart result = new DeleteDuplicatePathsOptimizer().optimize(vp);
+    //the last of the three identical paths is kept
+    assertEquals("P M20,0 L10,10 L0,0 M30,0 L40,0 P M40,0 L30,0", VectorPartFormat.format(result));
+  }
+
+  @Test
+  public void testCollinearSegments()
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    vp.moveto(0, 0);
+    vp.lineto(20, 10);
+    //overlapping
+    vp.moveto(30, 15);
+    vp.lineto(10, 5);
+    //touching, but not overlapping
+    vp.moveto(30, 15);
+    vp.lineto(40, 20);
+    //parallel
+    vp.moveto(0, 1);
+    vp.lineto(20, 11);
+    VectorPart result = new DeleteDuplicatePathsOptimizer().optimize(vp);
+    assertEquals("P M30,15 L0,0 M0,1 L20,11 M30,15 L40,20", VectorPartFormat.format(result));
+
+    //with a tolerance, the parallel segment is merged as well
+    DeleteDuplicatePathsOptimizer vo = new DeleteDuplicatePathsOptimizer();
+    vo.setTolerance(2);
+    result = vo.optimize(vp);
+    assertEquals("P M30,15 L40,20 M30,15 L0,0", VectorPartFormat.format(result));
+  }
+
+  @Test
+  public void testLongDiagonal()
+  {
+    //many very short segments make the grid cells small, so the cells of
+    //the bounding box of one long diagonal would not fit into memory
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    for (int i = 0; i < 20000; i++)
+    {
+      int x = (i % 200) * 40;
+      int y = (i / 200) * 80 + 3;
+      vp.moveto(x, y);
+      vp.lineto(x + 2, y);
+    }
+    vp.moveto(0, 0);
+    vp.lineto(8000, 8000);
+    //overlaps the diagonal
+    vp.moveto(5000, 5000);
+    vp.lineto(9000, 9000);
+    long start = System.currentTimeMillis();
+    VectorPart result = new DeleteDuplicatePathsOptimizer().optimize(vp);
+    assertTrue(System.currentTimeMillis() - start < 10000);
+    assertEquals(1 + 2 * 20001, result.getCommandCount());
+    assertTrue(VectorPartFormat.format(result).contains("M0,0 L9000,9000"));
+  }
+}
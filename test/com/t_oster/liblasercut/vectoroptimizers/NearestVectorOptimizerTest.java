@@ -0,0 +1,174 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.PowerSpeedFocusProperty;
+import com.t_oster.liblasercut.VectorCommand;
+import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.Point;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class NearestVectorOptimizerTest
+{
+
+  /**
+   * Greedy nearest neighbour search by scanning all remaining elements
+   */
+  private static class ScanningOptimizer extends VectorOptimizer
+  {
+
+    @Override
+    protected List<Element> sort(List<Element> e)
+    {
+      List<Element> result = new LinkedList<Element>();
+      if (e.isEmpty())
+      {
+        return result;
+      }
+      result.add(e.remove(0));
+      while (!e.isEmpty())
+      {
+        Point end = result.get(result.size() - 1).getEnd();
+        int next = 0;
+        boolean invert = false;
+        long dst = -1;
+        for (int i = 0; i < e.size(); i++)
+        {
+          long nd = dist2(e.get(i).start, end);
+          if (nd < dst || dst == -1)
+          {
+            next = i;
+            dst = nd;
+            invert = false;
+          }
+          if (!e.get(i).start.equals(e.get(i).getEnd()))
+          {
+            nd = dist2(e.get(i).getEnd(), end);
+            if (nd < dst)
+            {
+              next = i;
+              dst = nd;
+              invert = true;
+            }
+          }
+        }
+        Element m = e.remove(next);
+        if (invert)
+        {
+          m.invert();
+        }
+        result.add(m);
+      }
+      return result;
+    }
+
+    private long dist2(Point a, Point b)
+    {
+      long dx = a.x - b.x;
+      long dy = a.y - b.y;
+      return dx * dx + dy * dy;
+    }
+  }
+
+  private VectorPart createPart(Random r, int elements, int range)
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    for (int i = 0; i < elements; i++)
+    {
+      vp.moveto(r.nextInt(range), r.nextInt(range));
+      int moves = 1 + r.nextInt(3);
+      for (int j = 0; j < moves; j++)
+      {
+        vp.lineto(r.nextInt(range), r.nextInt(range));
+      }
+    }
+    return vp;
+  }
+
+  private void assertSameCommands(VectorPart expected, VectorPart actual)
+  {
+    VectorCommand[] a = expected.getCommandList();
+    VectorCommand[] b = actual.getCommandList();
+    assertEquals(a.length, b.length);
+    for (int i = 0; i < a.length; i++)
+    {
+      assertEquals(a[i].getType(), b[i].getType());
+      if (a[i].getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        assertEquals(a[i].getX(), b[i].getX());
+        assertEquals(a[i].getY(), b[i].getY());
+      }
+    }
+  }
+
+  @Test
+  public void testNearestOrder()
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    vp.moveto(0, 0);
+    vp.lineto(10, 0);
+    vp.moveto(100, 100);
+    vp.lineto(50, 50);
+    vp.moveto(20, 0);
+    vp.lineto(30, 0);
+    vp.moveto(11, 0);
+    vp.lineto(11, 1);
+    VectorPart result = new NearestVectorOptimizer().optimize(vp);
+    VectorCommand[] cmds = result.getCommandList();
+    int[][] expected = new int[][]
+    {
+      {0, 0}, {10, 0}, {11, 0}, {11, 1}, {20, 0}, {30, 0}, {50, 50}, {100, 100}
+    };
+    int i = 0;
+    for (VectorCommand cmd : cmds)
+    {
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        assertEquals(expected[i][0], cmd.getX());
+        assertEquals(expected[i][1], cmd.getY());
+        i++;
+      }
+    }
+    assertEquals(expected.length, i);
+  }
+
+  @Test
+  public void testSameOrderAsScanning()
+  {
+    Random r = new Random(4711);
+    //small ranges produce many points with equal distance
+    int[] ranges = new int[]{5, 20, 1000, 100000};
+    for (int range : ranges)
+    {
+      for (int run = 0; run < 5; run++)
+      {
+        VectorPart vp = createPart(r, 1 + r.nextInt(300), range);
+        assertSameCommands(new ScanningOptimizer().optimize(vp), new NearestVectorOptimizer().optimize(vp));
+      }
+    }
+  }
+}
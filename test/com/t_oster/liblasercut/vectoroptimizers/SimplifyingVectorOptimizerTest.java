@@ -0,0 +1,111 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.PowerSpeedFocusProperty;
+import com.t_oster.liblasercut.VectorPart;
+import com.t_oster.liblasercut.platform.Util;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class SimplifyingVectorOptimizerTest
+{
+
+  @Test
+  public void testCollinearAndRepeatedPoints()
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    vp.moveto(0, 0);
+    vp.lineto(0, 0);
+    vp.lineto(10, 0);
+    vp.lineto(20, 0);
+    vp.lineto(20, 0);
+    vp.lineto(30, 0);
+    vp.lineto(30, 10);
+    //turning back must not be merged
+    vp.lineto(30, 5);
+    vp.moveto(50, 50);
+    vp.lineto(50, 50);
+    SimplifyingVectorOptimizer o = new SimplifyingVectorOptimizer();
+    VectorPart result = o.optimize(vp);
+    assertEquals("P M0,0 L30,0 L30,10 L30,5 M50,50 L50,50", VectorPartFormat.format(result));
+    assertEquals(10, o.getInputVertexCount());
+    assertEquals(6, o.getOutputVertexCount());
+    assertEquals(0.4, o.getReductionRatio(), 1e-9);
+  }
+
+  @Test
+  public void testTolerance()
+  {
+    PowerSpeedFocusProperty cut = new PowerSpeedFocusProperty();
+    PowerSpeedFocusProperty engrave = new PowerSpeedFocusProperty();
+    engrave.setPower(50);
+    VectorPart vp = new VectorPart(cut, 500);
+    for (PowerSpeedFocusProperty p : new PowerSpeedFocusProperty[]{cut, engrave})
+    {
+      if (p != cut)
+      {
+        vp.setProperty(p);
+      }
+      //a closed, slightly jagged square
+      vp.moveto(0, 0);
+      vp.lineto(50, 1);
+      vp.lineto(100, 0);
+      vp.lineto(100, 100);
+      vp.lineto(0, 100);
+      vp.lineto(0, 0);
+    }
+    SimplifyingVectorOptimizer o = new SimplifyingVectorOptimizer();
+    o.setTolerance(Util.px2mm(0.5, 500));
+    o.setTolerance(engrave, Util.px2mm(2, 500));
+    assertEquals(Util.px2mm(0.5, 500), o.getTolerance(cut), 1e-9);
+    VectorPart result = o.optimize(vp);
+    assertEquals("P M0,0 L50,1 L100,0 L100,100 L0,100 L0,0 P M0,0 L100,0 L100,100 L0,100 L0,0", VectorPartFormat.format(result));
+    o.setTolerance(engrave, -1);
+    result = o.optimize(vp);
+    assertEquals(12, o.getOutputVertexCount());
+  }
+
+  @Test
+  public void testCurve()
+  {
+    //a finely flattened circle with radius 1000 px
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    int n = 10000;
+    vp.moveto(1000, 0);
+    for (int i = 1; i <= n; i++)
+    {
+      double a = 2 * Math.PI * i / n;
+      vp.lineto((int) Math.round(1000 * Math.cos(a)), (int) Math.round(1000 * Math.sin(a)));
+    }
+    SimplifyingVectorOptimizer o = new SimplifyingVectorOptimizer();
+    o.setTolerance(Util.px2mm(1, 500));
+    VectorPart result = o.optimize(vp);
+    assertTrue(o.getReductionRatio() > 0.9);
+    assertEquals(o.getOutputVertexCount() + 1, result.getCommandCount());
+    //still closed
+    int last = result.getCommandCount() - 1;
+    assertEquals(1000, result.getX(last));
+    assertEquals(0, result.getY(last));
+  }
+}
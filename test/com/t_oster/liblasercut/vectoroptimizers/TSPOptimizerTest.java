@@ -0,0 +1,128 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.PowerSpeedFocusProperty;
+import com.t_oster.liblasercut.VectorCommand;
+import com.t_oster.liblasercut.VectorPart;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+public class TSPOptimizerTest
+{
+
+  /**
+   * Returns all cut lines as strings, independent of their direction
+   */
+  private List<String> getLines(VectorPart vp)
+  {
+    List<String> result = new ArrayList<String>();
+    int x = 0;
+    int y = 0;
+    for (VectorCommand cmd : vp.getCommandList())
+    {
+      if (cmd.getType() == VectorCommand.CmdType.LINETO)
+      {
+        String a = x + "," + y;
+        String b = cmd.getX() + "," + cmd.getY();
+        result.add(a.compareTo(b) < 0 ? a + "-" + b : b + "-" + a);
+      }
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        x = cmd.getX();
+        y = cmd.getY();
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private double getTravelDistance(VectorPart vp)
+  {
+    double result = 0;
+    int x = 0;
+    int y = 0;
+    boolean first = true;
+    for (VectorCommand cmd : vp.getCommandList())
+    {
+      if (cmd.getType() == VectorCommand.CmdType.MOVETO)
+      {
+        if (!first)
+        {
+          result += Math.hypot(cmd.getX() - x, cmd.getY() - y);
+        }
+        first = false;
+      }
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        x = cmd.getX();
+        y = cmd.getY();
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testImprovement()
+  {
+    Random r = new Random(4711);
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    for (int i = 0; i < 500; i++)
+    {
+      int x = r.nextInt(5000);
+      int y = r.nextInt(5000);
+      vp.moveto(x, y);
+      int moves = 1 + r.nextInt(4);
+      for (int j = 0; j < moves; j++)
+      {
+        vp.lineto(x + r.nextInt(100), y + r.nextInt(100));
+      }
+      if (r.nextBoolean())
+      {
+        vp.lineto(x, y);
+      }
+    }
+    VectorPart nearest = new NearestVectorOptimizer().optimize(vp);
+    TSPOptimizer tsp = new TSPOptimizer();
+    tsp.setTimeLimit(10000);
+    VectorPart result = tsp.optimize(vp);
+    assertEquals(getLines(vp), getLines(result));
+    assertEquals(getTravelDistance(nearest), tsp.getNearestLength(), 0.01);
+    assertEquals(getTravelDistance(result), tsp.getLength(), 0.01);
+    assertTrue(tsp.getLength() < 0.9 * tsp.getNearestLength());
+  }
+
+  @Test
+  public void testSmallInput()
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 500);
+    assertEquals(1, new TSPOptimizer().optimize(vp).getCommandList().length);
+    vp.moveto(0, 0);
+    vp.lineto(10, 0);
+    assertEquals(getLines(vp), getLines(new TSPOptimizer().optimize(vp)));
+  }
+}
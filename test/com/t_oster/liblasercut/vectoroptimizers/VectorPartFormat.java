@@ -0,0 +1,53 @@
+/**
+ * This file is part of LibLaserCut.
+ * Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+ *
+ * LibLaserCut is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibLaserCut is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+ *
+ **/
+package com.t_oster.liblasercut.vectoroptimizers;
+
+import com.t_oster.liblasercut.VectorCommand;
+import com.t_oster.liblasercut.VectorPart;
+
+/**
+ * Writes the commands of a VectorPart as a short string like
+ * "P M0,0 L10,10", so tests can compare them at a glance
+ *
+ * @author Thomas Oster <thomas.oster@rwth-aachen.de>
+ */
+class VectorPartFormat
+{
+
+  static String format(VectorPart vp)
+  {
+    StringBuilder result = new StringBuilder();
+    for (VectorCommand cmd : vp.getCommandList())
+    {
+      switch (cmd.getType())
+      {
+        case MOVETO:
+          result.append(" M").append(cmd.getX()).append(",").append(cmd.getY());
+          break;
+        case LINETO:
+          result.append(" L").append(cmd.getX()).append(",").append(cmd.getY());
+          break;
+        case SETPROPERTY:
+          result.append(" P");
+          break;
+      }
+    }
+    return result.toString().trim();
+  }
+}